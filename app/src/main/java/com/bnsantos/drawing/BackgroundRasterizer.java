@@ -0,0 +1,147 @@
+package com.bnsantos.drawing;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Replays history into tile back buffers on a background thread.
+ *
+ * Only the latest job submitted for each {@link TiledCanvas} is delivered, submitting a new one for
+ * the same tiles interrupts the job in flight and its buffers are handed back through
+ * {@link Callback#onTilesDiscarded(TiledCanvas, List)}. Jobs for other tiles, other layers of the
+ * drawing, are left to finish. Callbacks always run
+ * on the main thread, so the front tiles are swapped there atomically with respect to onDraw.
+ */
+class BackgroundRasterizer {
+  private final Handler mMainHandler;
+  private final Callback mCallback;
+  private ExecutorService mExecutor;
+  private final Map<TiledCanvas, Job> mJobs = new HashMap<>();
+
+  BackgroundRasterizer(Callback callback) {
+    mCallback = callback;
+    mMainHandler = new Handler(Looper.getMainLooper());
+  }
+
+  public void submit(TiledCanvas tiles, List<TiledCanvas.TileBuffer> buffers, TiledCanvas.TileRenderer renderer){
+    cancel(tiles);
+    if(mExecutor==null){
+      mExecutor = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+    }
+    Job job = new Job(tiles, buffers, renderer);
+    mJobs.put(tiles, job);
+    mExecutor.execute(job);
+  }
+
+  public boolean isRendering(){
+    return !mJobs.isEmpty();
+  }
+
+  /**
+   * Interrupts the job in flight for tiles, if any
+   */
+  public void cancel(TiledCanvas tiles){
+    Job job = mJobs.remove(tiles);
+    if(job!=null){
+      job.cancel(true);
+    }
+  }
+
+  public void cancel(){
+    for (Job job : mJobs.values()) {
+      job.cancel(true);
+    }
+    mJobs.clear();
+  }
+
+  public void shutdown(){
+    cancel();
+    if(mExecutor!=null){
+      mExecutor.shutdownNow();
+      mExecutor = null;
+    }
+  }
+
+  /**
+   * Buffers are delivered exactly once: after rendering stops when the job started, or straight from
+   * done() when it was cancelled before starting, so they are never reused while still being drawn.
+   */
+  private class Job extends FutureTask<Void> {
+    final TiledCanvas tiles;
+    final List<TiledCanvas.TileBuffer> buffers;
+    final AtomicBoolean started = new AtomicBoolean();
+
+    Job(final TiledCanvas tiles, final List<TiledCanvas.TileBuffer> buffers, final TiledCanvas.TileRenderer renderer) {
+      super(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < buffers.size() && !Thread.currentThread().isInterrupted(); i++) {
+            tiles.render(buffers.get(i), renderer);
+          }
+        }
+      }, null);
+      this.tiles = tiles;
+      this.buffers = buffers;
+    }
+
+    @Override
+    public void run() {
+      if(started.compareAndSet(false, true)){
+        super.run();
+        deliver();
+      }
+    }
+
+    @Override
+    protected void done() {
+      if(isCancelled() && started.compareAndSet(false, true)){
+        deliver();
+      }
+    }
+
+    private void deliver() {
+      mMainHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          if(mJobs.get(tiles)==Job.this && !isCancelled()){
+            mJobs.remove(tiles);
+            mCallback.onTilesRendered(tiles, buffers);
+          }else{
+            mCallback.onTilesDiscarded(tiles, buffers);
+          }
+        }
+      });
+    }
+  }
+
+  private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+          runnable.run();
+        }
+      }, "DrawingRasterizer");
+      thread.setDaemon(true);
+      return thread;
+    }
+  };
+
+  interface Callback {
+    void onTilesRendered(TiledCanvas tiles, List<TiledCanvas.TileBuffer> buffers);
+
+    void onTilesDiscarded(TiledCanvas tiles, List<TiledCanvas.TileBuffer> buffers);
+  }
+}
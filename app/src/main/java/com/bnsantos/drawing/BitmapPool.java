@@ -0,0 +1,95 @@
+package com.bnsantos.drawing;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reuses mutable bitmaps by size and config so the canvas, background and snapshot bitmaps don't
+ * churn multi megabyte allocations on every history change.
+ *
+ * Released bitmaps are kept up to a byte budget, the ones released first are recycled when the
+ * budget is exceeded. Acquired bitmaps are always cleared to transparent.
+ */
+public class BitmapPool {
+  private final long mMaxBytes;
+  private final List<Bitmap> mPooled;
+  private long mBytes;
+  private int mHits;
+  private int mMisses;
+  private DrawingMetrics mMetrics;
+
+  public BitmapPool(long maxBytes) {
+    mMaxBytes = maxBytes;
+    mPooled = new ArrayList<>();
+  }
+
+  public Bitmap acquire(int width, int height, Bitmap.Config config){
+    for (int i = mPooled.size() - 1; i >= 0; i--) {
+      Bitmap bitmap = mPooled.get(i);
+      if(bitmap.getWidth()==width && bitmap.getHeight()==height && bitmap.getConfig()==config){
+        mPooled.remove(i);
+        mBytes -= bitmap.getByteCount();
+        mHits++;
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+      }
+    }
+    mMisses++;
+    Bitmap bitmap = Bitmap.createBitmap(width, height, config);
+    if(mMetrics!=null){
+      mMetrics.recordBitmapAllocation(bitmap.getByteCount());
+    }
+    return bitmap;
+  }
+
+  /**
+   * @param metrics receives every allocation the pool couldn't avoid, may be null
+   */
+  public void setMetrics(DrawingMetrics metrics){
+    mMetrics = metrics;
+  }
+
+  public void release(Bitmap bitmap){
+    if(bitmap==null || bitmap.isRecycled()){
+      return;
+    }
+    if(!bitmap.isMutable() || bitmap.getByteCount()>mMaxBytes){
+      bitmap.recycle();
+      return;
+    }
+    mPooled.add(bitmap);
+    mBytes += bitmap.getByteCount();
+    trimToSize(mMaxBytes);
+  }
+
+  public void trimToSize(long maxBytes){
+    while (mBytes>maxBytes && !mPooled.isEmpty()){
+      Bitmap evicted = mPooled.remove(0);
+      mBytes -= evicted.getByteCount();
+      evicted.recycle();
+    }
+  }
+
+  public void clear(){
+    trimToSize(0);
+  }
+
+  public int getHits(){
+    return mHits;
+  }
+
+  public int getMisses(){
+    return mMisses;
+  }
+
+  public long getPooledBytes(){
+    return mBytes;
+  }
+
+  public long getMaxBytes(){
+    return mMaxBytes;
+  }
+}
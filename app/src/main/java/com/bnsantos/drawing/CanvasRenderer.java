@@ -0,0 +1,93 @@
+package com.bnsantos.drawing;
+
+import android.graphics.Canvas;
+import android.graphics.Path;
+
+/**
+ * Draws the actions of the core model on an Android canvas.
+ *
+ * Safe to use from several threads at once. Stroke paths are built into a Path kept per thread, and
+ * since committed strokes never change the last one built is reused while it is drawn over several
+ * tiles. Zoomed out, strokes can be drawn with the simplified points of a {@link StrokeDetail} level.
+ */
+public class CanvasRenderer implements ActionRenderer<Canvas> {
+  private final PaintStyles mPaints;
+  private final ThreadLocal<RenderPath> mRenderPaths;
+
+  CanvasRenderer(PaintStyles paints) {
+    mPaints = paints;
+    mRenderPaths = new ThreadLocal<RenderPath>(){
+      @Override
+      protected RenderPath initialValue() {
+        return new RenderPath();
+      }
+    };
+  }
+
+  @Override
+  public void draw(Canvas canvas, Action action){
+    draw(canvas, action, null, 0);
+  }
+
+  /**
+   * @param detail simplified strokes to draw with, null to draw them as committed
+   * @param level see {@link StrokeDetail#levelFor(float)}
+   */
+  public void draw(Canvas canvas, Action action, StrokeDetail detail, int level){
+    if(action instanceof Stroke){
+      Stroke stroke = (Stroke) action;
+      StrokePoints points = detail!=null ? detail.get(stroke, level) : stroke.points;
+      RenderPath renderPath = mRenderPaths.get();
+      if(renderPath.owner!=points) {
+        buildPath(renderPath.path, points, stroke.smooth);
+        renderPath.owner = points;
+      }
+      canvas.drawPath(renderPath.path, mPaints.get(stroke.styleId));
+    }else if(action instanceof Circle){
+      Circle circle = (Circle) action;
+      canvas.drawCircle(circle.centerX, circle.centerY, circle.radius, mPaints.get(circle.styleId));
+    }else if(action instanceof Rectangle){
+      Rectangle rectangle = (Rectangle) action;
+      canvas.drawRect(rectangle.left(), rectangle.top(), rectangle.right(), rectangle.bottom(), mPaints.get(rectangle.styleId));
+    }else{
+      throw new IllegalArgumentException("Can't draw " + action.getClass().getSimpleName());
+    }
+  }
+
+  /**
+   * Smoothed strokes curve through the midpoints between samples, using each sample as the control point.
+   */
+  public static void buildPath(Path path, Stroke stroke) {
+    buildPath(path, stroke.points, stroke.smooth);
+  }
+
+  private static void buildPath(Path path, StrokePoints points, boolean smooth) {
+    path.rewind();
+    path.moveTo(points.getX(0), points.getY(0));
+    for (int i = 1; i < points.size(); i++) {
+      appendSegment(path, points, smooth, i);
+    }
+    if(smooth && points.size()>1){
+      path.lineTo(points.getLastX(), points.getLastY());
+    }
+  }
+
+  public static void appendSegment(Path path, Stroke stroke, int index) {
+    appendSegment(path, stroke.points, stroke.smooth, index);
+  }
+
+  private static void appendSegment(Path path, StrokePoints points, boolean smooth, int index) {
+    if(smooth){
+      float controlX = points.getX(index - 1);
+      float controlY = points.getY(index - 1);
+      path.quadTo(controlX, controlY, (controlX + points.getX(index))/2.0f, (controlY + points.getY(index))/2.0f);
+    }else{
+      path.lineTo(points.getX(index), points.getY(index));
+    }
+  }
+
+  private static class RenderPath {
+    final Path path = new Path();
+    StrokePoints owner;
+  }
+}
@@ -1,19 +1,24 @@
 package com.bnsantos.drawing;
 
 import android.Manifest;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.databinding.DataBindingUtil;
 import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
 import android.widget.ImageView;
@@ -30,6 +35,11 @@ import com.facebook.imagepipeline.datasource.BaseBitmapDataSubscriber;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.request.ImageRequestBuilder;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
 @SuppressWarnings({"UnusedAssignment", "ResourceAsColor", "ResourceType"})
 public class DrawingActivity extends AppCompatActivity implements View.OnClickListener, DrawingView.DrawingViewListener {
   private static final int INTENT_REQUEST_STORAGE_PERMISSION = 555;
@@ -38,8 +48,21 @@ public class DrawingActivity extends AppCompatActivity implements View.OnClickLi
   private static final String TAG_COLOR = "color";
   private static final String TAG_WIDTH = "width";
   public static final String SEPARATOR = ":";
+  /**
+   * Boolean extra starting a blank drawing on an unbounded canvas. Off by default: unbounded
+   * canvases keep no snapshots and never flatten their history, so its memory isn't bounded.
+   */
+  public static final String EXTRA_UNBOUNDED = "unbounded";
+  private static final ImageExporter.Format EXPORT_FORMAT = ImageExporter.Format.JPEG;
+  private static final int EXPORT_QUALITY = 75;
+  private static final boolean EXPORT_FULL_RESOLUTION = true;
+  private static final String SESSION_FILE = "session.sdrw";
+  private static final String JOURNAL_DIR = "journal";
+  private static final String TILE_CACHE_DIR = "tiles";
 
   private ActivityDrawingBinding mBinding;
+  private Uri mSourceUri;
+  private ActionJournal mJournal;
 
   private static final int COLORS[] = new int[]{
     R.color.palette_black,
@@ -75,28 +98,42 @@ public class DrawingActivity extends AppCompatActivity implements View.OnClickLi
     mBinding = DataBindingUtil.setContentView(this, R.layout.activity_drawing);
 
     if(getIntent()!=null&&getIntent().getData()!=null){
-      Uri uri = getIntent().getData();
-
-      DisplayMetrics displaymetrics = new DisplayMetrics();
-      getWindowManager().getDefaultDisplay().getMetrics(displaymetrics);
-      int height = displaymetrics.heightPixels;
-      int width = displaymetrics.widthPixels;
-
-      ResizeOptions resizeOptions = new ResizeOptions(width, height);
-      DataSource<CloseableReference<CloseableImage>> dataSource = Fresco.getImagePipeline().fetchDecodedImage(ImageRequestBuilder.newBuilderWithSource(uri).setResizeOptions(resizeOptions).build(), this);
-      dataSource.subscribe(new BaseBitmapDataSubscriber() {
-        @Override
-        protected void onNewResultImpl(Bitmap bitmap) {
-          mBinding.drawing.setImageBitmap(bitmap);
-        }
-
-        @Override
-        protected void onFailureImpl(DataSource<CloseableReference<CloseableImage>> dataSource) {
-          mBinding.drawing.setImageResource(R.color.palette_red);
-        }
-      }, UiThreadImmediateExecutorService.getInstance());
+      mSourceUri = getIntent().getData();
+      loadImage(mSourceUri);
+    }else if(getIntent()!=null&&getIntent().getBooleanExtra(EXTRA_UNBOUNDED, false)){
+      try {
+        mBinding.drawing.setUnboundedCanvas(new File(getCacheDir(), TILE_CACHE_DIR));
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to open tile cache, the canvas stays the view's size", e);
+      }
     }
 
+    initViews();
+    initJournal(savedInstanceState);
+  }
+
+  private void loadImage(Uri uri){
+    DisplayMetrics displaymetrics = new DisplayMetrics();
+    getWindowManager().getDefaultDisplay().getMetrics(displaymetrics);
+    int height = displaymetrics.heightPixels;
+    int width = displaymetrics.widthPixels;
+
+    ResizeOptions resizeOptions = new ResizeOptions(width, height);
+    DataSource<CloseableReference<CloseableImage>> dataSource = Fresco.getImagePipeline().fetchDecodedImage(ImageRequestBuilder.newBuilderWithSource(uri).setResizeOptions(resizeOptions).build(), this);
+    dataSource.subscribe(new BaseBitmapDataSubscriber() {
+      @Override
+      protected void onNewResultImpl(Bitmap bitmap) {
+        mBinding.drawing.setImageBitmap(bitmap);
+      }
+
+      @Override
+      protected void onFailureImpl(DataSource<CloseableReference<CloseableImage>> dataSource) {
+        mBinding.drawing.setImageResource(R.color.palette_red);
+      }
+    }, UiThreadImmediateExecutorService.getInstance());
+  }
+
+  private void initViews(){
     initActionBar();
     init();
     mBinding.strokeOptions.setOnClickListener(new View.OnClickListener() {
@@ -148,6 +185,109 @@ public class DrawingActivity extends AppCompatActivity implements View.OnClickLi
     mBinding.drawing.setListener(this);
   }
 
+  /**
+   * Resumes the session after a configuration change, or offers to recover the one a killed
+   * process left in the journal, before journaling the new edits
+   */
+  private void initJournal(Bundle savedInstanceState){
+    mJournal = new ActionJournal(new File(getFilesDir(), JOURNAL_DIR));
+    if(savedInstanceState!=null){
+      restoreSession();
+      startJournal();
+    }else if(mJournal.hasRecoverableSession()){
+      new AlertDialog.Builder(this)
+          .setTitle(R.string.recover_title)
+          .setMessage(R.string.recover_message)
+          .setCancelable(false)
+          .setPositiveButton(R.string.recover, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+              recoverJournal();
+              startJournal();
+            }
+          })
+          .setNegativeButton(R.string.discard, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+              startJournal();
+            }
+          })
+          .show();
+    }else{
+      startJournal();
+    }
+  }
+
+  private void startJournal(){
+    mBinding.drawing.setJournal(mJournal, mSourceUri!=null ? mSourceUri.toString() : null);
+  }
+
+  private void recoverJournal(){
+    try {
+      String background = mBinding.drawing.recoverJournal(mJournal);
+      if(background!=null && (mSourceUri==null || !background.equals(mSourceUri.toString()))){
+        mSourceUri = Uri.parse(background);
+        loadImage(mSourceUri);
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to recover journal", e);
+      Toast.makeText(this, "Error while recovering drawing", Toast.LENGTH_SHORT).show();
+    }
+  }
+
+  @Override
+  protected void onPause() {
+    super.onPause();
+    mJournal.sync();
+  }
+
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    mBinding.drawing.setJournal(null, null);
+    if(isFinishing()){
+      // leaving on purpose, only a killed process needs recovery
+      mJournal.discard();
+    }
+    mJournal.close();
+  }
+
+  @Override
+  protected void onSaveInstanceState(Bundle outState) {
+    super.onSaveInstanceState(outState);
+    saveSession();
+  }
+
+  private void saveSession(){
+    try {
+      FileOutputStream out = new FileOutputStream(new File(getCacheDir(), SESSION_FILE));
+      try {
+        mBinding.drawing.saveSession(out.getChannel(), mSourceUri!=null ? mSourceUri.toString() : null);
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to save session", e);
+    }
+  }
+
+  private void restoreSession(){
+    File file = new File(getCacheDir(), SESSION_FILE);
+    if(!file.exists()){
+      return;
+    }
+    try {
+      FileInputStream in = new FileInputStream(file);
+      try {
+        mBinding.drawing.restoreSession(in.getChannel());
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to restore session", e);
+    }
+  }
+
   private void showAllDrawOptions(){
     mBinding.optionPencil.setVisibility(View.VISIBLE);
     mBinding.optionCircle.setVisibility(View.VISIBLE);
@@ -311,20 +451,31 @@ public class DrawingActivity extends AppCompatActivity implements View.OnClickLi
   }
 
   private void saveImage(){
-    mBinding.drawing.setDrawingCacheEnabled(true);
-    mBinding.drawing.invalidate();
-
-    SaveImageTask task = new SaveImageTask(mBinding.drawing.getDrawingCache(), this);
-    task.execute();
+    if(EXPORT_FORMAT.isVector()){
+      new SaveImageTask(mBinding.drawing.createVectorExport(), this).start();
+      return;
+    }
+    Matrix viewToImage = new Matrix();
+    if(EXPORT_FULL_RESOLUTION && mSourceUri!=null && mBinding.drawing.getViewToImageMatrix(viewToImage)){
+      Drawable image = mBinding.drawing.getDrawable();
+      FullResolutionExporter export = new FullResolutionExporter(getContentResolver(), mSourceUri, mBinding.drawing.getLayerContents(),
+          mBinding.drawing.getRenderer(), viewToImage, image.getIntrinsicWidth(), image.getIntrinsicHeight());
+      new SaveImageTask(export, this).start();
+      return;
+    }
+    Bitmap image = mBinding.drawing.exportBitmap(!EXPORT_FORMAT.hasAlpha());
+    SaveImageTask task = new SaveImageTask(image, new ImageExporter(EXPORT_FORMAT, EXPORT_QUALITY), this);
+    task.start();
   }
 
-  public void imageSaved(Uri uri) {
-    if(uri!=null) {
+  public void imageSaved(ImageExporter.Result result) {
+    if(result!=null) {
+      mBinding.drawing.getMetrics().recordEncode(result.getEncodeMillis());
       finish();
 
       Intent shareIntent = new Intent();
       shareIntent.setAction(Intent.ACTION_VIEW);
-      shareIntent.setDataAndType(uri, "image/jpg");
+      shareIntent.setDataAndType(Uri.fromFile(result.getFile()), result.getFormat().getMimeType());
       shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
       startActivity(Intent.createChooser(shareIntent, "View image"));
     }else{
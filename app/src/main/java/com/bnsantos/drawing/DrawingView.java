@@ -1,57 +1,167 @@
 package com.bnsantos.drawing;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v4.content.ContextCompat;
 import android.text.Layout;
 import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.widget.ImageView;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.lang.ref.WeakReference;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class DrawingView extends ImageView {
+  private static final String TAG = DrawingView.class.getSimpleName();
   public static final int PENCIL_MODE = 1;
   public static final int CIRCLE_MODE = 2;
   public static final int RECTANGLE_MODE = 3;
   public static final int ERASER_MODE = 4;
 
+  private static final int SNAPSHOT_INTERVAL = 25;
+  private static final int SNAPSHOT_MEMORY_FRACTION = 8;
+  private static final int BITMAP_POOL_MEMORY_FRACTION = 8;
+  private static final int INVALIDATE_MARGIN = 2;
+  private static final float SIMPLIFICATION_TOLERANCE = 1f;
+  private static final int INK_FLUSH_SEGMENTS = 32;
+  private static final int STROKE_BUFFER_CAPACITY = 1024;
+  private static final int JOURNAL_COMPACT_INTERVAL = 256;
+  private static final int HISTORY_MAX_ACTIONS = 1000;
+  private static final int HISTORY_MEMORY_FRACTION = 16;
+  private static final int MEMORY_BUDGET_FRACTION = 2;
+  private static final float MIN_ZOOM = 0.25f;
+  private static final float MAX_ZOOM = 8f;
+  private static final int DETAIL_MAX_POINTS = 256*1024;
+  private static final int TILE_MEMORY_FRACTION = 8;
+
   private Paint mDrawPaint, mCanvasPaint;
   private int mPaintColor;
   private float mStrokeWidth;
-  private Canvas mDrawCanvas;
 
   private Bitmap mBackgroundBitmap;
-  private Bitmap mCanvasBitmap;
+  private boolean mTransparentBackground;
+  private BitmapPool mBitmapPool;
+  /*
+    Cached composite of the background and every visible layer with its opacity. Only the area a
+    layer changed is composed again, from the tiles of each layer, so no action is replayed for it.
+   */
+  private TiledCanvas mTiles;
+  private Paint mLayerPaint;
+  private BackgroundRasterizer mRasterizer;
+
+  /*
+    Zoom and pan. During a gesture the composite is only drawn scaled, which costs the same whatever
+    the number of actions. Once it settles the actions in sight are replayed at the view's resolution
+    into mDetailTiles, strokes simplified when zoomed out, and shown once the viewport they were
+    rendered for, mDetailVersion, is still the current one.
+   */
+  private Viewport mViewport;
+  private final Matrix mViewMatrix = new Matrix();
+  private final Matrix mDrawingMatrix = new Matrix();
+  private Paint mScaledPaint;
+  private TiledCanvas mDetailTiles;
+  private int mDetailVersion = -1;
+  private StrokeDetail mStrokeDetail;
+  // detail replays in flight per tile set, base layers they draw are retired until they are done
+  private final Map<TiledCanvas, Integer> mDetailJobs = new HashMap<>();
+  private final List<Bitmap> mRetiredBases = new ArrayList<>();
+  private final Bounds mVisibleBounds = new Bounds();
+  private final Bounds mViewBounds = new Bounds();
+  private boolean mNavigating;
+  private float mGestureFocusX, mGestureFocusY, mGestureSpan;
+
+  /*
+    Unbounded canvas, null while the canvas is the view's size. Composite and layers are sparse tiles
+    whose bitmaps share one memory budget and spill to disk past it. Only the dirty tiles around what
+    is in view, mRenderArea, are replayed and composed, the others wait until they are panned to.
+   */
+  private TileStore mTileStore;
+  private final Bounds mRenderArea = new Bounds();
+  private final Bounds mLoadedBounds = new Bounds();
 
   private int mMode = PENCIL_MODE;
 
   private boolean mDrawingEnabled = true;
+  private boolean mSmoothing = true;
+  private boolean mIncrementalInk = true;
 
   /*
     Drawing elements
    */
-  private MyPath mCurrentPath;
+  private Stroke mCurrentStroke;
+  /*
+    Samples of the stroke being drawn go to a buffer reused by every stroke, so once it has grown to
+    the longest one a move event allocates nothing. The committed stroke gets its own copy.
+   */
+  private final StrokePoints mStrokeBuffer = new StrokePoints(STROKE_BUFFER_CAPACITY);
+  private Path mActivePath;
+  /*
+    Finished segments of the stroke being drawn are flushed to the ink layer so each frame only
+    draws the newest tail of mActivePath. Eraser segments go straight to the tiles instead.
+   */
+  private Bitmap mInkBitmap;
+  private Canvas mInkCanvas;
+  private Paint mClearPaint;
+  private int mInkFlushedPoints;
+  private final RectF mInkBounds = new RectF();
+  private final RectF mPathBounds = new RectF();
   private Circle mCurrentCircle;
   private Rectangle mCurrentRectangle;
 
-  private List<Action> mActions;
-  private List<Action> mUndoActions;
+  private LayerStack mLayers;
+  private final Map<Layer, LayerSurface> mSurfaces = new HashMap<>();
+  private long mSnapshotBudget;
+  private StyleTable mStyles;
+  private PaintStyles mPaints;
+  private CanvasRenderer mRenderer;
+  private StrokeSimplifier mSimplifier;
+  private HistoryPolicy mHistoryPolicy;
+  private MemoryGovernor mMemoryGovernor;
+
+  private final Bounds mDirtyBounds = new Bounds();
+  private final Bounds mActionBounds = new Bounds();
+  private final Rect mInvalidateRect = new Rect();
+
+  private ActionJournal mJournal;
+  private String mJournalBackground;
+  private int mJournaledStyles;
+  private int mJournalRecords;
+  // compaction snapshots queued on the journal thread, base layers they encode stay out of the pool
+  private int mJournalSnapshots;
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
   private WeakReference<DrawingViewListener> mListener;
+  private WeakReference<MetricsListener> mMetricsListener;
+  private DrawingMetrics mMetrics;
+  // nanoTime base of the oldest touch event not drawn yet, 0 when there is none
+  private long mPendingInputNanos;
 
   public DrawingView(Context context, AttributeSet attrs) {
     super(context, attrs);
@@ -69,58 +179,712 @@ public class DrawingView extends ImageView {
     mDrawPaint.setStrokeJoin(Paint.Join.ROUND);
     mDrawPaint.setStrokeCap(Paint.Cap.ROUND);
 
-    mActions = new ArrayList<>();
-    mUndoActions = new ArrayList<>();
-    mCurrentPath = new MyPath(false, mDrawPaint);
+    mStyles = new StyleTable();
+    mPaints = new PaintStyles(mStyles);
+    mRenderer = new CanvasRenderer(mPaints);
+    mSimplifier = new StrokeSimplifier(SIMPLIFICATION_TOLERANCE);
+    mActivePath = new Path();
+    mRasterizer = new BackgroundRasterizer(mRasterizerCallback);
+    mMetrics = new DrawingMetrics();
+    mBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory()/BITMAP_POOL_MEMORY_FRACTION);
+    mBitmapPool.setMetrics(mMetrics);
+    mSnapshotBudget = Runtime.getRuntime().maxMemory()/SNAPSHOT_MEMORY_FRACTION;
+    mLayers = new LayerStack();
+    addSurface(mLayers.getActive());
+    mHistoryPolicy = new HistoryPolicy(HISTORY_MAX_ACTIONS, Runtime.getRuntime().maxMemory()/HISTORY_MEMORY_FRACTION);
+    mViewport = new Viewport(MIN_ZOOM, MAX_ZOOM);
+    mStrokeDetail = new StrokeDetail(SIMPLIFICATION_TOLERANCE, DETAIL_MAX_POINTS);
+    setupMemoryGovernor();
 
     mCanvasPaint = new Paint(Paint.DITHER_FLAG);
+    mScaledPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+    mLayerPaint = new Paint(Paint.DITHER_FLAG);
+    mClearPaint = new Paint();
+    mClearPaint.setXfermode(PaintStyles.CLEAR_MODE);
+  }
+
+  private LayerSurface addSurface(Layer layer){
+    LayerSurface surface = new LayerSurface(layer, new SnapshotCache(SNAPSHOT_INTERVAL, mSnapshotBudget, mBitmapPool));
+    if(mTiles!=null){
+      surface.tiles = createTiles(mTiles.getWidth(), mTiles.getHeight());
+    }
+    mSurfaces.put(layer, surface);
+    balanceSnapshots();
+    return surface;
+  }
+
+  private void releaseSurface(LayerSurface surface){
+    if(surface.tiles!=null){
+      mRasterizer.cancel(surface.tiles);
+    }
+    releaseBase(surface.release());
+  }
+
+  /**
+   * Base layers may still be drawn by a detail replay or encoded for a journal snapshot in flight,
+   * those go back to the pool once every replay and snapshot is done
+   */
+  private void releaseBase(Bitmap base){
+    if(base==null){
+      return;
+    }
+    if(mDetailJobs.isEmpty() && mJournalSnapshots==0){
+      mBitmapPool.release(base);
+    }else{
+      mRetiredBases.add(base);
+    }
+  }
+
+  /**
+   * Splits the snapshot budget evenly between the layers
+   */
+  private void balanceSnapshots(){
+    for (LayerSurface surface : mSurfaces.values()) {
+      surface.snapshots.setMaxBytes(mSnapshotBudget/mSurfaces.size());
+    }
+  }
+
+  private LayerSurface getSurface(Layer layer){
+    return mSurfaces.get(layer);
+  }
+
+  private long getSnapshotBytes(){
+    long bytes = 0;
+    for (LayerSurface surface : mSurfaces.values()) {
+      bytes += surface.snapshots.getByteCount();
+    }
+    return bytes;
+  }
+
+  /**
+   * Accounts every bitmap and the action storage against a share of the memory class, and degrades
+   * in order when over it: spill the tiles of an unbounded canvas, drop cached snapshots and pooled
+   * bitmaps, then flatten history. The image under the drawing is accounted but left alone, it is
+   * decoded to the screen's size and exports map through its intrinsic size.
+   */
+  private void setupMemoryGovernor(){
+    ActivityManager activityManager = (ActivityManager) getContext().getSystemService(Context.ACTIVITY_SERVICE);
+    mMemoryGovernor = new MemoryGovernor(activityManager.getMemoryClass()*1024L*1024L/MEMORY_BUDGET_FRACTION);
+    mMemoryGovernor.addConsumer("bitmaps", new MemoryGovernor.Consumer() {
+      @Override
+      public long getByteCount() {
+        long bytes = byteCount(mInkBitmap) + byteCount(mBackgroundBitmap);
+        for (LayerSurface surface : mSurfaces.values()) {
+          bytes += surface.getByteCount();
+        }
+        if(mDetailTiles!=null){
+          bytes += mDetailTiles.getByteCount();
+        }
+        return mTiles!=null ? bytes + mTiles.getByteCount() : bytes;
+      }
+    });
+    mMemoryGovernor.addConsumer("image", new MemoryGovernor.Consumer() {
+      @Override
+      public long getByteCount() {
+        return byteCount(getImageBitmap());
+      }
+    });
+    mMemoryGovernor.addConsumer("snapshots", new MemoryGovernor.Consumer() {
+      @Override
+      public long getByteCount() {
+        return getSnapshotBytes();
+      }
+    });
+    mMemoryGovernor.addConsumer("pool", new MemoryGovernor.Consumer() {
+      @Override
+      public long getByteCount() {
+        return mBitmapPool.getPooledBytes();
+      }
+    });
+    mMemoryGovernor.addConsumer("strokeDetail", new MemoryGovernor.Consumer() {
+      @Override
+      public long getByteCount() {
+        return mStrokeDetail.getCachedPoints()*8L;
+      }
+    });
+    mMemoryGovernor.addConsumer("actions", new MemoryGovernor.Consumer() {
+      @Override
+      public long getByteCount() {
+        return mLayers.getByteCount() + mLayers.getUndoneByteCount();
+      }
+    });
+
+    mMemoryGovernor.addDegradation(new MemoryGovernor.Degradation() {
+      @Override
+      public boolean reclaim(long excessBytes) {
+        if(mTileStore==null){
+          return false;
+        }
+        // nothing is lost, spilled tiles are read back once drawn again
+        long resident = mTileStore.getByteCount();
+        mTileStore.trimToSize(Math.max(0, resident - excessBytes));
+        return mTileStore.getByteCount()<resident;
+      }
+    });
+    mMemoryGovernor.addDegradation(new MemoryGovernor.Degradation() {
+      @Override
+      public boolean reclaim(long excessBytes) {
+        // evicted snapshots land in the pool, so both are trimmed together
+        long cached = getSnapshotBytes() + mBitmapPool.getPooledBytes();
+        long excess = excessBytes;
+        for (LayerSurface surface : mSurfaces.values()) {
+          long snapshots = surface.snapshots.getByteCount();
+          surface.snapshots.trimToSize(Math.max(0, snapshots - excess));
+          excess -= snapshots - surface.snapshots.getByteCount();
+        }
+        mBitmapPool.trimToSize(Math.max(0, cached - excessBytes - getSnapshotBytes()));
+        return getSnapshotBytes() + mBitmapPool.getPooledBytes() < cached;
+      }
+    });
+    mMemoryGovernor.addDegradation(new MemoryGovernor.Degradation() {
+      @Override
+      public boolean reclaim(long excessBytes) {
+        if(mTiles==null || isUnbounded()){
+          return false;
+        }
+        // the first flattening of a layer allocates its base layer, only worth it when the actions free more
+        long cost = 0;
+        for (LayerSurface surface : mSurfaces.values()) {
+          if(surface.baseBitmap==null && surface.layer.getHistory().size()>0){
+            cost = mTiles.getWidth()*(long) mTiles.getHeight()*4;
+          }
+        }
+        int count = mLayers.countToRelease(excessBytes + cost);
+        if(mLayers.getOldestByteCount(count)<=cost){
+          return false;
+        }
+        flattenHistory(count);
+        return true;
+      }
+    });
+  }
+
+  private Bitmap getImageBitmap(){
+    Drawable drawable = getDrawable();
+    return drawable instanceof BitmapDrawable ? ((BitmapDrawable) drawable).getBitmap() : null;
+  }
+
+  private static long byteCount(Bitmap bitmap){
+    return bitmap!=null && !bitmap.isRecycled() ? bitmap.getByteCount() : 0;
+  }
+
+  /**
+   * @param budgetBytes memory the drawing may hold before it starts degrading
+   */
+  public void setMemoryBudget(long budgetBytes){
+    mMemoryGovernor.setBudgetBytes(budgetBytes);
+    enforceMemoryBudget();
+  }
+
+  /**
+   * @return bytes currently held by bitmaps, snapshots, pooled bitmaps and actions, by category
+   */
+  public Map<String, Long> getMemoryUsage(){
+    return mMemoryGovernor.getUsage();
+  }
+
+  public MemoryGovernor getMemoryGovernor(){
+    return mMemoryGovernor;
+  }
+
+  private void enforceMemoryBudget(){
+    if(!mMemoryGovernor.enforce()){
+      Log.w(TAG, "Drawing over its memory budget " + mMemoryGovernor.getUsage());
+    }
   }
 
   @Override
   protected void onSizeChanged(int w, int h, int oldw, int oldh) {
     super.onSizeChanged(w, h, oldw, oldh);
-    mCanvasBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-    mDrawCanvas = new Canvas(mCanvasBitmap);
+    mBitmapPool.release(mInkBitmap);
+    releaseBackground();
+    mInkBitmap = mBitmapPool.acquire(w, h, Bitmap.Config.ARGB_8888);
+    mInkCanvas = new Canvas(mInkBitmap);
+    releaseDetail();
+    mViewport.setViewSize(w, h);
+    mViewport.setContentSize(w, h);
+    updateViewMatrix();
+    replaceTiles(w, h);
+    composeAll();
+    renderDirtyTiles();
+    enforceMemoryBudget();
+  }
+
+  /**
+   * Replaces the composite and the tiles of every layer with new ones, bounded to w by h or unbounded,
+   * invalidated wherever the layers hold something
+   */
+  private void replaceTiles(int w, int h){
+    if(mTiles!=null){
+      mTiles.release();
+    }
+    mTiles = createTiles(w, h);
+    for (LayerSurface surface : mSurfaces.values()) {
+      if(surface.tiles!=null){
+        surface.tiles.release();
+      }
+      surface.snapshots.clear();
+      surface.tiles = createTiles(w, h);
+      if(surface.hasContent()){
+        invalidateContent(surface);
+      }
+    }
+    updateRenderArea();
+  }
+
+  private TiledCanvas createTiles(int w, int h){
+    if(mTileStore==null){
+      return new TiledCanvas(w, h, TiledCanvas.DEFAULT_TILE_SIZE, mBitmapPool);
+    }
+    TiledCanvas tiles = new TiledCanvas(mTileStore, mBitmapPool);
+    tiles.setRenderArea(mRenderArea);
+    return tiles;
+  }
+
+  /**
+   * Marks the tiles of surface holding something for replay. Unbounded tiles don't exist yet where
+   * nothing was drawn, they are created under each action and the base layer.
+   */
+  private void invalidateContent(LayerSurface surface){
+    if(!surface.tiles.isUnbounded()){
+      surface.tiles.invalidateAll();
+      return;
+    }
+    for (Action action : surface.layer.getHistory().getActions()) {
+      action.getBounds(mActionBounds);
+      surface.tiles.invalidate(mActionBounds);
+    }
+    if(surface.baseBitmap!=null){
+      mActionBounds.set(0, 0, surface.baseBitmap.getWidth(), surface.baseBitmap.getHeight());
+      surface.tiles.invalidate(mActionBounds);
+    }
+  }
+
+  /**
+   * Limits the unbounded tiles replayed and composed to what is in view. Zoomed out the detail replay
+   * shows the drawing, so the area is kept to a view's worth of drawing around the center.
+   */
+  private void updateRenderArea(){
+    if(mTileStore==null || mTiles==null){
+      return;
+    }
+    mViewport.getVisibleBounds(mRenderArea);
+    float centerX = (mRenderArea.left + mRenderArea.right)/2f;
+    float centerY = (mRenderArea.top + mRenderArea.bottom)/2f;
+    float halfWidth = Math.min(mRenderArea.width(), getWidth())/2f;
+    float halfHeight = Math.min(mRenderArea.height(), getHeight())/2f;
+    mRenderArea.set(centerX - halfWidth, centerY - halfHeight, centerX + halfWidth, centerY + halfHeight);
+    mTiles.setRenderArea(mRenderArea);
+    for (LayerSurface surface : mSurfaces.values()) {
+      surface.tiles.setRenderArea(mRenderArea);
+    }
+  }
+
+  /**
+   * Makes the canvas unbounded: it pans anywhere and the composite and layers are kept in tiles created
+   * where something is drawn. Their bitmaps are kept within a share of the heap, past it the least
+   * recently drawn are spilled to tileDirectory, so drawings far larger than memory fit.
+   *
+   * Snapshots and history flattening are given up, both need a bitmap of the whole drawing. Exports
+   * still cover the view's size from the drawing's origin.
+   *
+   * @param tileDirectory private to this view, whatever it holds is deleted
+   */
+  public void setUnboundedCanvas(File tileDirectory) throws IOException {
+    if(mTileStore!=null){
+      return;
+    }
+    mTileStore = new TileStore(TiledCanvas.DEFAULT_TILE_SIZE, Runtime.getRuntime().maxMemory()/TILE_MEMORY_FRACTION,
+        mBitmapPool, tileDirectory);
+    mTileStore.setListener(mTileStoreListener);
+    mViewport.setBounded(false);
+    releaseBackground();
+    if(mTiles!=null){
+      releaseDetail();
+      updateViewMatrix();
+      replaceTiles(getWidth(), getHeight());
+      composeAll();
+      renderDirtyTiles();
+    }
+  }
+
+  public boolean isUnbounded(){
+    return mTileStore!=null;
+  }
+
+  /**
+   * @return bytes the tiles spilled by an unbounded canvas take on disk
+   */
+  public long getSpilledTileBytes(){
+    return mTileStore!=null ? mTileStore.getDiskByteCount() : 0;
   }
 
   @Override
   protected void onDraw(Canvas canvas) {
+    long start = 0;
+    if(mMetrics.isEnabled()){
+      start = System.nanoTime();
+      if(mPendingInputNanos!=0){
+        mMetrics.recordInputLatency(start - mPendingInputNanos);
+        mPendingInputNanos = 0;
+      }
+    }
+    int saveCount = canvas.save();
+    canvas.concat(mViewMatrix);
     super.onDraw(canvas);
-    canvas.drawBitmap(mCanvasBitmap, 0, 0, mCanvasPaint);
-    if(mCurrentPath!=null){
-      canvas.drawPath(mCurrentPath, mDrawPaint);
+    if(isDetailShown()){
+      canvas.restoreToCount(saveCount);
+      mDetailTiles.draw(canvas, mCanvasPaint);
+      saveCount = canvas.save();
+      canvas.concat(mViewMatrix);
+    }else{
+      if(mTileStore!=null && !mTransparentBackground){
+        // unbounded composites have no background bitmap to cover
+        canvas.drawColor(Color.WHITE);
+      }
+      mTiles.draw(canvas, mViewport.isIdentity() ? mCanvasPaint : mScaledPaint, loadSpilledTiles());
+    }
+    if(mCurrentStroke!=null){
+      if(!mInkBounds.isEmpty()){
+        // the ink is rasterized at the view's resolution
+        canvas.restoreToCount(saveCount);
+        canvas.drawBitmap(mInkBitmap, 0, 0, mCanvasPaint);
+        saveCount = canvas.save();
+        canvas.concat(mViewMatrix);
+      }
+      canvas.drawPath(mActivePath, mDrawPaint);
     }
 
     if(mCurrentCircle!=null){
-      mCurrentCircle.drawAction(canvas);
+      mRenderer.draw(canvas, mCurrentCircle);
     }
 
     if(mCurrentRectangle!=null){
-      mCurrentRectangle.drawAction(canvas);
+      mRenderer.draw(canvas, mCurrentRectangle);
+    }
+    canvas.restoreToCount(saveCount);
+    if(start!=0){
+      mMetrics.recordDraw(System.nanoTime() - start);
+    }
+  }
+
+  private void renderDirtyTiles(){
+    for (LayerSurface surface : mSurfaces.values()) {
+      renderDirtyTiles(surface);
     }
   }
 
-  private void recreateCanvasBitmap(){
-    if(mBackgroundBitmap==null){
-      mBackgroundBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.RGB_565);
+  /**
+   * Repaints the tiles of a layer invalidated by changes to its history in the background. Each tile
+   * starts from the layer's closest snapshot and replays only its actions that intersect the tile,
+   * while onDraw keeps showing the current composite until the new tiles are swapped in and composed.
+   * A newer request for the same layer replaces the one in flight.
+   */
+  private void renderDirtyTiles(LayerSurface surface){
+    if(surface.tiles==null || !surface.tiles.hasDirtyTiles()){
+      return;
+    }
+    DrawingHistory history = surface.layer.getHistory();
+    int start = surface.snapshots.floorKey(history.size());
+    List<TiledCanvas.TileBuffer> buffers = surface.tiles.prepareDirtyTiles(start>0 ? surface.snapshots.get(start) : surface.baseBitmap, mCanvasPaint);
+    mRasterizer.submit(surface.tiles, buffers, new TileReplay(history.copyActions(), start, mRenderer, mMetrics));
+  }
+
+  /**
+   * Zoomed out an unbounded composite spans more tiles than are worth reading back from disk, only the
+   * ones in memory are drawn until the detail replay takes over
+   */
+  private boolean loadSpilledTiles(){
+    return mViewport.getScale()>=1f;
+  }
+
+  private void ensureBackground(){
+    if(mBackgroundBitmap==null && !mTransparentBackground && mTileStore==null){
+      mBackgroundBitmap = mBitmapPool.acquire(getWidth(), getHeight(), Bitmap.Config.RGB_565);
       mBackgroundBitmap.eraseColor(Color.WHITE);
     }
-    mCanvasBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
-    mDrawCanvas = new Canvas(mCanvasBitmap);
-    mDrawCanvas.drawBitmap(mBackgroundBitmap, 0, 0, mCanvasPaint);
+  }
 
-    if(mActions!=null) {
-      for (Action action : mActions) {
-        action.drawAction(mDrawCanvas);
-      }
+  /**
+   * Composes the background and the visible layers again over bounds, blitting the layer tiles
+   */
+  private void compose(Bounds bounds){
+    ensureBackground();
+    mTiles.repaint(bounds, mCompositeRenderer);
+    updateDetail(bounds);
+  }
+
+  /**
+   * Composes the whole view again, after a change to how the layers are stacked or shown. Unbounded
+   * composites only compose their render area, the rest when it is panned to.
+   */
+  private void composeAll(){
+    if(mTiles==null){
+      return;
+    }
+    if(mTiles.isUnbounded()){
+      mTiles.invalidateAll();
+      mTiles.renderDirty(mCompositeRenderer);
+    }else{
+      ensureBackground();
+      mTiles.render(new Bounds(0, 0, mTiles.getWidth(), mTiles.getHeight()), mCompositeRenderer);
     }
+    requestDetail();
     invalidate();
   }
 
+  private boolean isDetailShown(){
+    return mDetailTiles!=null && mDetailVersion==mViewport.getVersion();
+  }
+
+  private void updateViewMatrix(){
+    mViewMatrix.setScale(mViewport.getScale(), mViewport.getScale());
+    mViewMatrix.postTranslate(mViewport.getTranslateX(), mViewport.getTranslateY());
+    mViewMatrix.invert(mDrawingMatrix);
+  }
+
+  /**
+   * Replays the whole viewport at the view's resolution, the composite is drawn scaled until it is
+   * done. Nothing is needed when the view shows the drawing as it is.
+   */
+  private void requestDetail(){
+    if(mViewport.isIdentity() || mNavigating){
+      releaseDetail();
+      return;
+    }
+    if(mDetailTiles==null){
+      mDetailTiles = new TiledCanvas(getWidth(), getHeight(), TiledCanvas.DEFAULT_TILE_SIZE, mBitmapPool);
+    }
+    mDetailVersion = -1;
+    mDetailTiles.invalidateAll();
+    renderDetail();
+  }
+
+  /**
+   * Keeps the detail shown in step with a change to the composite over bounds, in drawing
+   * coordinates: the composite is drawn scaled over the tiles covering it until they are replayed.
+   */
+  private void updateDetail(Bounds bounds){
+    if(mDetailTiles==null || mNavigating){
+      return;
+    }
+    if(!isDetailShown()){
+      // the replay in flight culled the actions before this change
+      requestDetail();
+      return;
+    }
+    mViewBounds.set(bounds);
+    mViewport.toView(mViewBounds);
+    mDetailTiles.render(mViewBounds, mDetailPreviewRenderer);
+    mDetailTiles.invalidate(mViewBounds);
+    renderDetail();
+  }
+
+  private void releaseDetail(){
+    mDetailVersion = -1;
+    if(mDetailTiles!=null){
+      mRasterizer.cancel(mDetailTiles);
+      mDetailTiles.release();
+      mDetailTiles = null;
+    }
+  }
+
+  /**
+   * Culls every visible layer to the viewport through its spatial index and replays what is left into
+   * the dirty detail tiles in the background
+   */
+  private void renderDetail(){
+    if(!mDetailTiles.hasDirtyTiles()){
+      return;
+    }
+    mViewport.getVisibleBounds(mVisibleBounds);
+    List<ViewportReplay.VisibleLayer> visible = new ArrayList<>();
+    for (Layer layer : mLayers.getLayers()) {
+      if(layer.isVisible()){
+        List<Action> actions = new ArrayList<>();
+        layer.getHistory().query(mVisibleBounds.left, mVisibleBounds.top, mVisibleBounds.right, mVisibleBounds.bottom, actions);
+        visible.add(new ViewportReplay.VisibleLayer(actions, getSurface(layer).baseBitmap, Math.round(layer.getOpacity()*255)));
+      }
+    }
+    ViewportReplay replay = new ViewportReplay(visible, mViewMatrix, mViewport, !mTransparentBackground,
+        mRenderer, mStrokeDetail, mMetrics);
+    Integer jobs = mDetailJobs.get(mDetailTiles);
+    mDetailJobs.put(mDetailTiles, jobs==null ? 1 : jobs + 1);
+    mRasterizer.submit(mDetailTiles, mDetailTiles.prepareDirtyTiles(null, mCanvasPaint), replay);
+  }
+
+  /**
+   * @return whether tiles belong to a detail replay, which has now stopped drawing
+   */
+  private boolean finishDetailJob(TiledCanvas tiles){
+    Integer jobs = mDetailJobs.get(tiles);
+    if(jobs==null){
+      return false;
+    }
+    if(jobs>1){
+      mDetailJobs.put(tiles, jobs - 1);
+    }else{
+      mDetailJobs.remove(tiles);
+    }
+    releaseRetiredBases();
+    return true;
+  }
+
+  private void releaseRetiredBases(){
+    if(mDetailJobs.isEmpty() && mJournalSnapshots==0){
+      for (Bitmap base : mRetiredBases) {
+        mBitmapPool.release(base);
+      }
+      mRetiredBases.clear();
+    }
+  }
+
+  private final TiledCanvas.TileRenderer mDetailPreviewRenderer = new TiledCanvas.TileRenderer() {
+    @Override
+    public void renderTile(Canvas canvas, Rect tileBounds) {
+      canvas.drawRect(tileBounds, mClearPaint);
+      canvas.concat(mViewMatrix);
+      mTiles.draw(canvas, mScaledPaint, loadSpilledTiles());
+    }
+  };
+
+  private final TiledCanvas.TileRenderer mCompositeRenderer = new TiledCanvas.TileRenderer() {
+    @Override
+    public void renderTile(Canvas canvas, Rect tileBounds) {
+      canvas.drawRect(tileBounds, mClearPaint);
+      if(mBackgroundBitmap!=null){
+        canvas.drawBitmap(mBackgroundBitmap, 0, 0, mCanvasPaint);
+      }
+      for (Layer layer : mLayers.getLayers()) {
+        if(layer.isVisible()){
+          mLayerPaint.setAlpha(Math.round(layer.getOpacity()*255));
+          getSurface(layer).tiles.draw(canvas, mLayerPaint);
+        }
+      }
+    }
+  };
+
+  private final TileStore.Listener mTileStoreListener = new TileStore.Listener() {
+    @Override
+    public void onTileLoaded(TiledCanvas.Tile tile) {
+      if(mTiles==null){
+        return;
+      }
+      if(tile.dirty){
+        // its copy on disk was lost, it is replayed like a tile panned into view
+        mTiles.renderDirty(mCompositeRenderer);
+        renderDirtyTiles();
+      }else if(!mTiles.holds(tile)){
+        // a layer tile, the composite was composed without it while it was on disk
+        mLoadedBounds.set(tile.bounds.left, tile.bounds.top, tile.bounds.right - 1, tile.bounds.bottom - 1);
+        compose(mLoadedBounds);
+      }
+      invalidate();
+    }
+  };
+
+  private final BackgroundRasterizer.Callback mRasterizerCallback = new BackgroundRasterizer.Callback() {
+    @Override
+    public void onTilesRendered(TiledCanvas tiles, List<TiledCanvas.TileBuffer> buffers) {
+      if(finishDetailJob(tiles)){
+        if(tiles==mDetailTiles){
+          tiles.swap(buffers);
+          if(!tiles.hasDirtyTiles()){
+            // the latest replay is always for the current viewport, older ones are discarded
+            mDetailVersion = mViewport.getVersion();
+          }
+          invalidate();
+        }else{
+          tiles.discard(buffers);
+        }
+        return;
+      }
+      LayerSurface surface = null;
+      for (LayerSurface candidate : mSurfaces.values()) {
+        if(candidate.tiles==tiles){
+          surface = candidate;
+        }
+      }
+      if(surface==null){
+        // the layer was removed or the view resized meanwhile
+        tiles.discard(buffers);
+        return;
+      }
+      tiles.swap(buffers);
+      mDirtyBounds.setEmpty();
+      for (TiledCanvas.TileBuffer buffer : buffers) {
+        Rect bounds = buffer.getBounds();
+        mDirtyBounds.union(bounds.left, bounds.top, bounds.right, bounds.bottom);
+      }
+      compose(mDirtyBounds);
+      invalidateDirtyBounds();
+      snapshotIfNeeded(surface);
+    }
+
+    @Override
+    public void onTilesDiscarded(TiledCanvas tiles, List<TiledCanvas.TileBuffer> buffers) {
+      finishDetailJob(tiles);
+      tiles.discard(buffers);
+    }
+  };
+
+  /**
+   * Appends action to the history of the active layer, draws it over the layer's tiles and composes
+   * the area it covers again
+   */
+  private void commitAction(Action action){
+    Layer layer = mLayers.getActive();
+    mLayers.commit(layer, action);
+    drawCommitted(getSurface(layer), action);
+  }
+
+  private void drawCommitted(LayerSurface surface, Action action){
+    action.getBounds(mActionBounds);
+    surface.tiles.drawAction(action, mActionBounds, mRenderer);
+    compose(mActionBounds);
+    mDirtyBounds.union(mActionBounds);
+    if(surface.tiles.hasDirtyTiles()){
+      // the replay in flight doesn't know about this action yet
+      renderDirtyTiles(surface);
+    }
+  }
+
+  private void snapshotIfNeeded(LayerSurface surface){
+    if(surface.tiles.isUnbounded()){
+      return;
+    }
+    int actionCount = surface.layer.getHistory().size();
+    if(surface.snapshots.shouldSnapshot(actionCount) && !surface.tiles.hasDirtyTiles()){
+      Bitmap snapshot = mBitmapPool.acquire(mTiles.getWidth(), mTiles.getHeight(), Bitmap.Config.ARGB_8888);
+      surface.tiles.compose(new Canvas(snapshot), mCanvasPaint);
+      surface.snapshots.put(actionCount, snapshot);
+    }
+  }
+
   @Override
   public boolean onTouchEvent(MotionEvent event) {
+    if(mMetrics.isEnabled() && mPendingInputNanos==0){
+      // the event waited in the input queue before reaching the view
+      mPendingInputNanos = System.nanoTime() - (SystemClock.uptimeMillis() - event.getEventTime())*1000000L;
+    }
+    if(navigate(event)){
+      return true;
+    }
+    if(mViewport.isIdentity()){
+      return onDrawingEvent(event);
+    }
+    // touches are drawn in drawing coordinates, obtained events come from a pool
+    MotionEvent drawingEvent = MotionEvent.obtain(event);
+    drawingEvent.transform(mDrawingMatrix);
+    boolean handled = onDrawingEvent(drawingEvent);
+    drawingEvent.recycle();
+    return handled;
+  }
+
+  private boolean onDrawingEvent(MotionEvent event) {
     float touchX = event.getX();
     float touchY = event.getY();
+    mDirtyBounds.setEmpty();
     switch (event.getAction()) {
       case MotionEvent.ACTION_DOWN:
         if(!mDrawingEnabled) {
@@ -129,11 +893,11 @@ public class DrawingView extends ImageView {
           }
           mDrawingEnabled = true;
         }
-        onTouchDown(touchX, touchY);
+        onTouchDown(touchX, touchY, event.getEventTime());
         break;
       case MotionEvent.ACTION_MOVE:
         if(mDrawingEnabled) {
-          onTouchMode(touchX, touchY);
+          onTouchMode(event);
         }
         break;
       case MotionEvent.ACTION_UP:
@@ -146,73 +910,316 @@ public class DrawingView extends ImageView {
           mDrawingEnabled = true;
         }
         break;
+      case MotionEvent.ACTION_CANCEL:
+        // flushed eraser segments already cleared tiles, nothing is committed to match them
+        cancelCurrentAction();
+        break;
       default:
         return super.onTouchEvent(event);
     }
-    invalidate();
+    invalidateDirtyBounds();
     return true;
   }
 
-  private void onTouchDown(float touchX, float touchY) {
+  /**
+   * Two fingers pan and zoom, dropping what the first one started drawing. The gesture lasts until
+   * every finger is lifted.
+   *
+   * @return whether event belongs to a pan and zoom gesture
+   */
+  private boolean navigate(MotionEvent event){
+    switch (event.getActionMasked()){
+      case MotionEvent.ACTION_POINTER_DOWN:
+        if(!mNavigating){
+          cancelCurrentAction();
+          mNavigating = true;
+        }
+        measureGesture(event, -1);
+        return true;
+      case MotionEvent.ACTION_POINTER_UP:
+        if(mNavigating){
+          measureGesture(event, event.getActionIndex());
+        }
+        return mNavigating;
+      case MotionEvent.ACTION_MOVE:
+        if(!mNavigating){
+          return false;
+        }
+        float focusX = mGestureFocusX, focusY = mGestureFocusY, span = mGestureSpan;
+        measureGesture(event, -1);
+        if(span>0 && mGestureSpan>0){
+          mViewport.zoom(mGestureSpan/span, focusX, focusY);
+        }
+        mViewport.pan(mGestureFocusX - focusX, mGestureFocusY - focusY);
+        onViewportChanged();
+        return true;
+      case MotionEvent.ACTION_UP:
+      case MotionEvent.ACTION_CANCEL:
+        if(!mNavigating){
+          return false;
+        }
+        mNavigating = false;
+        onViewportSettled();
+        return true;
+      default:
+        return mNavigating;
+    }
+  }
+
+  /**
+   * Averages the pointers of event, but skip, into the gesture focus and its span
+   */
+  private void measureGesture(MotionEvent event, int skip){
+    int count = 0;
+    float sumX = 0, sumY = 0;
+    for (int i = 0; i < event.getPointerCount(); i++) {
+      if(i!=skip){
+        sumX += event.getX(i);
+        sumY += event.getY(i);
+        count++;
+      }
+    }
+    mGestureFocusX = sumX/count;
+    mGestureFocusY = sumY/count;
+    float span = 0;
+    for (int i = 0; i < event.getPointerCount(); i++) {
+      if(i!=skip){
+        span += Math.hypot(event.getX(i) - mGestureFocusX, event.getY(i) - mGestureFocusY);
+      }
+    }
+    mGestureSpan = count>1 ? span/count : 0;
+  }
+
+  private void onViewportChanged(){
+    updateViewMatrix();
+    if(mDetailTiles!=null){
+      // rendered for the previous viewport, the composite is drawn scaled until the gesture ends
+      mRasterizer.cancel(mDetailTiles);
+    }
+    invalidate();
+  }
+
+  /**
+   * Replays the detail for the new viewport and, on unbounded canvases, the tiles panned into view
+   */
+  private void onViewportSettled(){
+    requestDetail();
+    if(mTileStore!=null && mTiles!=null){
+      updateRenderArea();
+      mTiles.renderDirty(mCompositeRenderer);
+      renderDirtyTiles();
+      invalidate();
+    }
+  }
+
+  /**
+   * Drops the stroke or shape being drawn without committing it
+   */
+  private void cancelCurrentAction(){
+    if(mCurrentStroke!=null && mCurrentStroke.isErase() && mInkFlushedPoints>0){
+      // flushed eraser segments already cleared the active layer's tiles
+      LayerSurface surface = getSurface(mLayers.getActive());
+      mCurrentStroke.getBounds(mActionBounds);
+      surface.tiles.invalidate(mActionBounds);
+      renderDirtyTiles(surface);
+    }
+    clearInk();
+    mCurrentStroke = null;
+    mCurrentCircle = null;
+    mCurrentRectangle = null;
+    invalidate();
+  }
+
+  /**
+   * Resets zoom and pan, showing the drawing at its own size
+   */
+  public void resetViewport(){
+    mViewport.reset();
+    onViewportChanged();
+    onViewportSettled();
+  }
+
+  /**
+   * @return current zoom, 1 showing the drawing at its own size
+   */
+  public float getZoom(){
+    return mViewport.getScale();
+  }
+
+  private void addDirtyBounds(Action action){
+    action.getBounds(mActionBounds);
+    mDirtyBounds.union(mActionBounds);
+  }
+
+  private void invalidateDirtyBounds(){
+    if(!mDirtyBounds.isEmpty()) {
+      // mapped in place, every event and render starts them over
+      mViewport.toView(mDirtyBounds);
+      mInvalidateRect.set((int) Math.floor(mDirtyBounds.left), (int) Math.floor(mDirtyBounds.top),
+          (int) Math.ceil(mDirtyBounds.right), (int) Math.ceil(mDirtyBounds.bottom));
+      mInvalidateRect.inset(-INVALIDATE_MARGIN, -INVALIDATE_MARGIN);
+      invalidate(mInvalidateRect);
+    }
+  }
+
+  /**
+   * Feeds every sample batched in a move event, historical ones first, into the current stroke
+   */
+  private void appendSamples(MotionEvent event) {
+    int historySize = event.getHistorySize();
+    for (int i = 0; i < historySize; i++) {
+      appendSample(event.getHistoricalX(i), event.getHistoricalY(i), event.getHistoricalEventTime(i));
+    }
+    appendSample(event.getX(), event.getY(), event.getEventTime());
+  }
+
+  private void appendSample(float x, float y, long eventTime) {
+    if(mCurrentStroke.addPoint(x, y, eventTime)) {
+      CanvasRenderer.appendSegment(mActivePath, mCurrentStroke, mCurrentStroke.points.size() - 1);
+      mCurrentStroke.getLastSegmentBounds(mActionBounds);
+      mDirtyBounds.union(mActionBounds);
+      if(mIncrementalInk && mCurrentStroke.points.size() - 1 - mInkFlushedPoints >= INK_FLUSH_SEGMENTS){
+        flushInk();
+      }
+    }
+  }
+
+  /**
+   * Rasterizes the live tail of the current stroke and restarts it where the last flushed segment ends
+   */
+  private void flushInk() {
+    mActivePath.computeBounds(mPathBounds, true);
+    float halfWidth = mDrawPaint.getStrokeWidth()/2.0f;
+    mPathBounds.inset(-halfWidth, -halfWidth);
+    if(mCurrentStroke.isErase()){
+      // erasing only clears the active layer, the composite is rebuilt over what it touched
+      mActionBounds.set(mPathBounds.left, mPathBounds.top, mPathBounds.right, mPathBounds.bottom);
+      LayerSurface surface = getSurface(mLayers.getActive());
+      surface.tiles.render(mActionBounds, mActivePathRenderer);
+      compose(mActionBounds);
+      if(surface.tiles.hasDirtyTiles()){
+        // spilled tiles it skipped are replayed, the erase reaches them once committed
+        renderDirtyTiles(surface);
+      }
+    }else{
+      mInkCanvas.drawPath(mActivePath, mDrawPaint);
+      mInkBounds.union(mPathBounds);
+    }
+
+    StrokePoints points = mCurrentStroke.points;
+    int last = points.size() - 1;
+    mActivePath.rewind();
+    if(mCurrentStroke.smooth){
+      mActivePath.moveTo((points.getX(last - 1) + points.getX(last))/2.0f, (points.getY(last - 1) + points.getY(last))/2.0f);
+    }else{
+      mActivePath.moveTo(points.getX(last), points.getY(last));
+    }
+    mInkFlushedPoints = last;
+  }
+
+  private void clearInk() {
+    if(!mInkBounds.isEmpty()){
+      // in drawing coordinates, the margin is kept in view pixels
+      float margin = INVALIDATE_MARGIN/mViewport.getScale();
+      mInkBounds.inset(-margin, -margin);
+      mInkCanvas.drawRect(mInkBounds.left, mInkBounds.top, mInkBounds.right, mInkBounds.bottom, mClearPaint);
+      mInkBounds.setEmpty();
+    }
+    mInkFlushedPoints = 0;
+  }
+
+  private final TiledCanvas.TileRenderer mActivePathRenderer = new TiledCanvas.TileRenderer() {
+    @Override
+    public void renderTile(Canvas canvas, Rect tileBounds) {
+      canvas.drawPath(mActivePath, mDrawPaint);
+    }
+  };
+
+  private void onTouchDown(float touchX, float touchY, long eventTime) {
     switch (mMode){
       case CIRCLE_MODE:
-        mCurrentCircle = new Circle(touchX, touchY, mDrawPaint);
+        mCurrentCircle = new Circle(mStyles, mPaints.intern(mDrawPaint, false), touchX, touchY);
+        addDirtyBounds(mCurrentCircle);
         break;
       case RECTANGLE_MODE:
-        mCurrentRectangle = new Rectangle(touchX, touchY, mDrawPaint);
+        mCurrentRectangle = new Rectangle(mStyles, mPaints.intern(mDrawPaint, false), touchX, touchY);
+        addDirtyBounds(mCurrentRectangle);
         break;
       default: //PENCIL_MODE
         if(mMode==ERASER_MODE) {
-          mDrawPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+          mDrawPaint.setXfermode(PaintStyles.CLEAR_MODE);
         } else {
           mDrawPaint.setXfermode(null);
         }
-        mCurrentPath = new MyPath(mMode==ERASER_MODE, mDrawPaint);
-        mCurrentPath.reset();
-        mCurrentPath.moveTo(touchX, touchY);
+        mStrokeBuffer.clear();
+        mCurrentStroke = new Stroke(mStyles, mPaints.intern(mDrawPaint, mMode==ERASER_MODE), mSmoothing, mStrokeBuffer);
+        mCurrentStroke.start(touchX, touchY, eventTime);
+        mActivePath.rewind();
+        mActivePath.moveTo(touchX, touchY);
+        clearInk();
+        // flushed in drawing coordinates, the viewport can't change before the stroke ends
+        mInkCanvas.setMatrix(mViewMatrix);
+        addDirtyBounds(mCurrentStroke);
     }
   }
 
-  private void onTouchMode(float touchX, float touchY) {
+  private void onTouchMode(MotionEvent event) {
+    float touchX = event.getX();
+    float touchY = event.getY();
     switch (mMode){
       case CIRCLE_MODE:
+        addDirtyBounds(mCurrentCircle);
         mCurrentCircle.setRadius(touchX, touchY);
+        addDirtyBounds(mCurrentCircle);
         break;
       case RECTANGLE_MODE:
+        addDirtyBounds(mCurrentRectangle);
         mCurrentRectangle.setFinalPoint(touchX, touchY);
+        addDirtyBounds(mCurrentRectangle);
         break;
       default: //PENCIL_MODE
-        mCurrentPath.lineTo(touchX, touchY);
+        if(mCurrentStroke!=null) {
+          appendSamples(event);
+        }
     }
   }
 
   private void onTouchUp() {
     switch (mMode){
       case CIRCLE_MODE:
-        mActions.add(mCurrentCircle);
-        mCurrentCircle.drawAction(mDrawCanvas);
+        commitAction(mCurrentCircle);
+        journalAction(mCurrentCircle);
         mCurrentCircle = null;
         break;
       case RECTANGLE_MODE:
-        mActions.add(mCurrentRectangle);
-        mCurrentRectangle.drawAction(mDrawCanvas);
+        commitAction(mCurrentRectangle);
+        journalAction(mCurrentRectangle);
         mCurrentRectangle = null;
         break;
       default: //PENCIL_MODE
-        mActions.add(mCurrentPath);
-        mCurrentPath.drawAction(mDrawCanvas);
-        mCurrentPath = null;
+        if(mCurrentStroke!=null) {
+          int rawPoints = mCurrentStroke.points.size();
+          int simplifiedPoints = mSimplifier.simplify(mCurrentStroke.points, mCurrentStroke.smooth);
+          mCurrentStroke.finish();
+          commitAction(mCurrentStroke);
+          journalAction(mCurrentStroke);
+          clearInk();
+          if(mMetricsListener!=null&&mMetricsListener.get()!=null){
+            mMetricsListener.get().onStrokeSimplified(rawPoints, simplifiedPoints);
+          }
+          mCurrentStroke = null;
+        }
     }
-    clearRedoList();
-    onAction();
-  }
-
-  private void clearRedoList() {
-    if(mUndoActions==null){
-      mUndoActions = new ArrayList<>();
-    }else{
-      mUndoActions.clear();
+    // committing dropped the redo stack of every layer, along with the snapshots taken of it
+    Layer active = mLayers.getActive();
+    for (LayerSurface surface : mSurfaces.values()) {
+      int size = surface.layer.getHistory().size();
+      surface.snapshots.invalidateFrom(surface.layer==active ? size : size + 1);
     }
+    snapshotIfNeeded(getSurface(active));
+    enforceHistoryPolicy();
+    enforceMemoryBudget();
+    onAction();
   }
 
   private void onAction() {
@@ -227,33 +1234,82 @@ public class DrawingView extends ImageView {
     mDrawPaint.setColor(mPaintColor);
   }
 
+  public void setSmoothing(boolean smoothing) {
+    mSmoothing = smoothing;
+  }
+
+  /**
+   * @param tolerance maximum distance in pixels a dropped sample may lie from the simplified stroke, 0 keeps every sample
+   */
+  public void setSimplificationTolerance(float tolerance) {
+    mSimplifier.setTolerance(tolerance);
+  }
+
+  /**
+   * When enabled long strokes are rasterized in chunks while drawing, keeping frame cost independent of stroke length
+   */
+  public void setIncrementalInk(boolean incrementalInk) {
+    mIncrementalInk = incrementalInk;
+  }
+
   public void setWidth(float width) {
     mStrokeWidth = width;
     mDrawPaint.setStrokeWidth(mStrokeWidth);
   }
 
+  /**
+   * Undoes the last action whatever its layer, only that layer's tiles under it are rendered again
+   */
   public void undo(){
-    if(mActions!=null&&mActions.size()>0){
-      mUndoActions.add(mActions.remove(mActions.size()-1));
-      recreateCanvasBitmap();
+    Layer layer = mLayers.undo();
+    if(layer!=null){
+      List<Action> undone = layer.getHistory().getUndone();
+      undone.get(undone.size() - 1).getBounds(mActionBounds);
+      LayerSurface surface = getSurface(layer);
+      surface.tiles.invalidate(mActionBounds);
+      renderDirtyTiles(surface);
+      journalEvent(ActionJournal.RECORD_UNDO);
       onAction();
     }
   }
 
   public void clearAll(){
-    if(mActions!=null&&mActions.size()>0){
-      mActions.clear();
+    mLayers.clear();
+    for (LayerSurface surface : mSurfaces.values()) {
+      releaseBase(surface.setBaseBitmap(null));
+      surface.snapshots.clear();
+      if(surface.tiles==null){
+        // no size yet, the tiles are created empty
+        continue;
+      }
+      if(surface.tiles.isUnbounded()){
+        // replaying would only reach the render area, tiles out of it would keep what was cleared
+        mRasterizer.cancel(surface.tiles);
+        surface.tiles.clear();
+      }else{
+        surface.tiles.invalidateAll();
+      }
     }
-    if(mUndoActions!=null&&mUndoActions.size()>0){
-      mUndoActions.clear();
+    if(mTiles!=null && mTiles.isUnbounded()){
+      mTiles.clear();
+      composeAll();
     }
-    recreateCanvasBitmap();
+    renderDirtyTiles();
+    journalEvent(ActionJournal.RECORD_CLEAR);
   }
 
   public void redo(){
-    if(mUndoActions!=null&&mUndoActions.size()>0){
-      mActions.add(mUndoActions.remove(mUndoActions.size()-1));
-      recreateCanvasBitmap();
+    Layer layer = mLayers.redo();
+    if(layer!=null){
+      DrawingHistory history = layer.getHistory();
+      LayerSurface surface = getSurface(layer);
+      mDirtyBounds.setEmpty();
+      drawCommitted(surface, history.get(history.size() - 1));
+      snapshotIfNeeded(surface);
+      invalidateDirtyBounds();
+      journalEvent(ActionJournal.RECORD_REDO);
+      enforceHistoryPolicy();
+      enforceMemoryBudget();
       onAction();
     }
   }
@@ -262,19 +1318,350 @@ public class DrawingView extends ImageView {
   public void setImageDrawable(Drawable drawable) {
     super.setImageDrawable(drawable);
 
-    if (drawable instanceof BitmapDrawable) {
-      BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
-      if(bitmapDrawable.getBitmap() != null) {
-        mBackgroundBitmap = bitmapDrawable.getBitmap();
+    // A sized drawable is painted by the ImageView itself, so the canvas starts transparent over it
+    if(drawable!=null && drawable.getIntrinsicWidth() > 0 && drawable.getIntrinsicHeight() > 0) {
+      releaseBackground();
+      mTransparentBackground = true;
+      composeAll();
+    }
+  }
+
+  private void releaseBackground(){
+    if(mBitmapPool!=null){
+      mBitmapPool.release(mBackgroundBitmap);
+    }
+    mBackgroundBitmap = null;
+  }
+
+  /**
+   * Bounds how much history is kept undoable. Once the policy is exceeded the oldest actions are
+   * drawn into a base layer and dropped, so they can no longer be undone but stop costing memory
+   * and replay time. {@link HistoryPolicy#UNBOUNDED} keeps every action.
+   */
+  public void setHistoryPolicy(HistoryPolicy policy){
+    mHistoryPolicy = policy;
+    enforceHistoryPolicy();
+  }
+
+  /**
+   * @return estimated memory held by the undoable actions
+   */
+  public long getHistoryBytes(){
+    return mLayers.getByteCount();
+  }
+
+  private void enforceHistoryPolicy(){
+    if(mTiles==null || isUnbounded()){
+      return;
+    }
+    int count = mLayers.countToFlatten(mHistoryPolicy);
+    if(count>0){
+      flattenHistory(count);
+    }
+  }
+
+  /**
+   * Draws the oldest count actions of the whole drawing into the base layers of their layers and
+   * drops them from the history. The tiles already show the same pixels so they stay as they are.
+   */
+  private void flattenHistory(int count){
+    for (LayerSurface surface : mSurfaces.values()) {
+      flattenLayer(surface, mLayers.countOldest(surface.layer, count));
+    }
+    mLayers.removeOldest(count);
+    // the journal still replays the flattened actions as history, which is only slower to recover, so
+    // they are left for the next scheduled compaction instead of paying for one on the touch path
+  }
+
+  /**
+   * Draws the oldest count actions of a layer into its base layer, starting from its closest snapshot
+   */
+  private void flattenLayer(LayerSurface surface, int count){
+    if(count==0){
+      return;
+    }
+    DrawingHistory history = surface.layer.getHistory();
+    Bitmap base = mBitmapPool.acquire(mTiles.getWidth(), mTiles.getHeight(), Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(base);
+    int start = surface.snapshots.floorKey(count);
+    Bitmap from = start>0 ? surface.snapshots.get(start) : surface.baseBitmap;
+    if(from!=null){
+      canvas.drawBitmap(from, 0, 0, mCanvasPaint);
+    }
+    for (int i = start; i < count; i++) {
+      mRenderer.draw(canvas, history.get(i));
+    }
+    // snapshots are keyed by history position, which is about to shift
+    surface.snapshots.clear();
+    releaseBase(surface.setBaseBitmap(base));
+  }
+
+  /**
+   * Renders the composition into a new bitmap the caller owns: the image shown under the drawing
+   * plus the whole history replayed on its own layer, so erasing never clears the image itself.
+   * Doesn't depend on the tiles, which may still be rendering in the background.
+   *
+   * @param opaque paints the bitmap white first, for formats that can't store transparency
+   */
+  public Bitmap exportBitmap(boolean opaque){
+    Bitmap bitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+    mMetrics.recordBitmapAllocation(bitmap.getByteCount());
+    if(opaque){
+      bitmap.eraseColor(Color.WHITE);
+    }
+    Canvas canvas = new Canvas(bitmap);
+    Drawable drawable = getDrawable();
+    if(drawable!=null){
+      int saveCount = canvas.save();
+      canvas.translate(getPaddingLeft(), getPaddingTop());
+      canvas.concat(getImageMatrix());
+      drawable.draw(canvas);
+      canvas.restoreToCount(saveCount);
+    }
+    if(!mTransparentBackground){
+      canvas.drawColor(Color.WHITE);
+    }
+    for (Layer layer : mLayers.getLayers()) {
+      if(!layer.isVisible()){
+        continue;
+      }
+      int saveCount = canvas.saveLayerAlpha(null, Math.round(layer.getOpacity()*255), Canvas.ALL_SAVE_FLAG);
+      Bitmap base = getSurface(layer).baseBitmap;
+      if(base!=null){
+        canvas.drawBitmap(base, 0, 0, mCanvasPaint);
+      }
+      for (Action action : layer.getHistory().getActions()) {
+        mRenderer.draw(canvas, action);
+      }
+      canvas.restoreToCount(saveCount);
+    }
+    return bitmap;
+  }
+
+  /**
+   * @return export writing the visible layers as SVG groups of shapes, safe to run off the main thread
+   */
+  public SaveImageTask.Export createVectorExport(){
+    return new VectorExport(getLayerContents(), mStyles, getWidth(), getHeight(), mBackgroundBitmap!=null || !mTransparentBackground);
+  }
+
+  /**
+   * @param out receives the mapping from view coordinates to the intrinsic coordinates of the
+   *            displayed drawable
+   * @return false when there is no sized drawable to map to
+   */
+  public boolean getViewToImageMatrix(Matrix out){
+    Drawable drawable = getDrawable();
+    if(drawable==null || drawable.getIntrinsicWidth()<=0 || drawable.getIntrinsicHeight()<=0){
+      return false;
+    }
+    if(!getImageMatrix().invert(out)){
+      return false;
+    }
+    out.preTranslate(-getPaddingLeft(), -getPaddingTop());
+    return true;
+  }
+
+  /**
+   * @return copy of what the visible layers hold, bottom first, for exporting off the main thread
+   */
+  public List<LayerContent> getLayerContents(){
+    List<LayerContent> contents = new ArrayList<>();
+    for (Layer layer : mLayers.getLayers()) {
+      if(layer.isVisible()){
+        contents.add(new LayerContent(layer.getHistory().copyActions(), layer.getOpacity(), getSurface(layer).encodeBaseLayer()));
+      }
+    }
+    return contents;
+  }
+
+  /**
+   * Writes the styles, layers, history and redo stack so the drawing can be restored with full
+   * undo/redo. Coordinates are saved as they are, in this view's coordinate space.
+   *
+   * @param background reference to the image under the drawing, returned back on restore
+   */
+  public void saveSession(WritableByteChannel channel, String background) throws IOException {
+    List<byte[]> baseLayers = new ArrayList<>();
+    for (Layer layer : mLayers.getLayers()) {
+      baseLayers.add(getSurface(layer).encodeBaseLayer());
+    }
+    DrawingSession.write(new SessionWriter(channel), getWidth(), getHeight(), background, mStyles, mLayers, baseLayers);
+  }
+
+  /**
+   * Replaces the current drawing with a session saved by {@link #saveSession(WritableByteChannel, String)}.
+   * The whole session is read before anything changes, so a damaged one leaves the drawing as it was.
+   *
+   * @return the background reference the session was saved with
+   */
+  public String restoreSession(ReadableByteChannel channel) throws IOException {
+    SessionRestorer restorer = new SessionRestorer(mStyles);
+    new SessionReader(channel).read(restorer);
+    applySession(restorer);
+    return restorer.getBackground();
+  }
+
+  /**
+   * Replaces the current drawing with the one a journal recorded before the process went away
+   *
+   * @return the background reference of the recovered drawing
+   */
+  public String recoverJournal(ActionJournal journal) throws IOException {
+    SessionRestorer restorer = new SessionRestorer(mStyles);
+    journal.recover(restorer);
+    applySession(restorer);
+    return restorer.getBackground();
+  }
+
+  private void applySession(SessionRestorer restorer){
+    for (LayerSurface surface : mSurfaces.values()) {
+      releaseSurface(surface);
+    }
+    mSurfaces.clear();
+    mLayers = restorer.getLayers();
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inMutable = true;
+    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    for (int i = 0; i < mLayers.size(); i++) {
+      LayerSurface surface = addSurface(mLayers.get(i));
+      byte[] baseLayer = restorer.getBaseLayer(i);
+      if(baseLayer!=null){
+        surface.baseBitmap = BitmapFactory.decodeByteArray(baseLayer, 0, baseLayer.length, options);
+        surface.baseLayerPng = surface.baseBitmap!=null ? baseLayer : null;
+      }
+      if(surface.tiles!=null){
+        invalidateContent(surface);
       }
     }
+    if(mTiles!=null){
+      composeAll();
+      renderDirtyTiles();
+    }
+    onAction();
+  }
+
+  /**
+   * Records every edit made from now on into journal, starting from a snapshot of the current
+   * drawing. Pass null to stop journaling.
+   *
+   * @param background reference to the image under the drawing, saved with each snapshot
+   */
+  public void setJournal(ActionJournal journal, String background){
+    mJournal = journal;
+    mJournalBackground = background;
+    if(journal!=null){
+      compactJournal();
+    }
+  }
+
+  private void journalAction(Action action){
+    if(mJournal==null){
+      return;
+    }
+    try {
+      for (; mJournaledStyles < mStyles.size(); mJournaledStyles++) {
+        mJournal.beginRecord(ActionJournal.RECORD_STYLE).writeStyle(mStyles.getColor(mJournaledStyles),
+            mStyles.getWidth(mJournaledStyles), mStyles.isFill(mJournaledStyles), mStyles.isErase(mJournaledStyles));
+        mJournal.commitRecord();
+      }
+      DrawingSession.writeAction(mJournal.beginRecord(ActionJournal.RECORD_LAYER_ACTION), mLayers.indexOf(mLayers.getActive()), action);
+      mJournal.commitRecord();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to journal action", e);
+    }
+    onJournalRecord();
+  }
+
+  private void journalEvent(byte type){
+    if(mJournal==null){
+      return;
+    }
+    try {
+      mJournal.appendEvent(type);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to journal event", e);
+    }
+    onJournalRecord();
+  }
 
-    if(!(drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0)) {
-      mBackgroundBitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888); // Single color bitmap will be created of 1x1 pixel
-      mBackgroundBitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
+  private void onJournalRecord(){
+    if(++mJournalRecords>=JOURNAL_COMPACT_INTERVAL){
+      compactJournal();
     }
   }
 
+  /**
+   * Snapshots the whole drawing into the journal so recovery replays at most
+   * JOURNAL_COMPACT_INTERVAL records. Only lists of references are copied here, base layers are encoded
+   * and the session written on the journal thread, so compacting stays off the touch path.
+   */
+  private void compactJournal(){
+    final SessionSnapshot snapshot = new SessionSnapshot(getWidth(), getHeight(), mJournalBackground, mStyles, mLayers);
+    final List<byte[]> baseLayers = new ArrayList<>();
+    final LayerSurface[] surfaces = new LayerSurface[mLayers.size()];
+    final Bitmap[] bases = new Bitmap[mLayers.size()];
+    for (int i = 0; i < surfaces.length; i++) {
+      surfaces[i] = getSurface(mLayers.get(i));
+      baseLayers.add(surfaces[i].baseLayerPng);
+      if(surfaces[i].baseLayerPng==null){
+        bases[i] = surfaces[i].baseBitmap;
+      }
+    }
+    mJournalSnapshots++;
+    boolean queued = mJournal.compact(new ActionJournal.SnapshotWriter() {
+      @Override
+      public void write(WritableByteChannel channel) throws IOException {
+        try {
+          for (int i = 0; i < bases.length; i++) {
+            if(bases[i]!=null){
+              baseLayers.set(i, LayerSurface.encode(bases[i]));
+            }
+          }
+          DrawingSession.write(new SessionWriter(channel), snapshot, baseLayers);
+        } finally {
+          mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+              onJournalSnapshotWritten(surfaces, bases, baseLayers);
+            }
+          });
+        }
+      }
+    });
+    if(!queued){
+      mJournalSnapshots--;
+    }
+    mJournaledStyles = mStyles.size();
+    mJournalRecords = 0;
+  }
+
+  /**
+   * Keeps the encodings of base layers that haven't changed since, and lets the retired ones go back to
+   * the pool. Retired bases never reach the pool while a snapshot encodes them, so one still set is the
+   * same bitmap it was.
+   */
+  private void onJournalSnapshotWritten(LayerSurface[] surfaces, Bitmap[] bases, List<byte[]> baseLayers){
+    for (int i = 0; i < surfaces.length; i++) {
+      if(bases[i]!=null && surfaces[i].baseBitmap==bases[i] && surfaces[i].baseLayerPng==null){
+        surfaces[i].baseLayerPng = baseLayers.get(i);
+      }
+    }
+    mJournalSnapshots--;
+    releaseRetiredBases();
+  }
+
+  /**
+   * @return renderer drawing this view's actions with its styles, safe to use from any thread
+   */
+  public CanvasRenderer getRenderer(){
+    return mRenderer;
+  }
+
+  public BitmapPool getBitmapPool(){
+    return mBitmapPool;
+  }
+
   public void setMode(int option){
     if(option >= PENCIL_MODE && option <= ERASER_MODE){
       mMode = option;
@@ -282,23 +1669,112 @@ public class DrawingView extends ImageView {
   }
 
   public boolean canRedo() {
-    return mUndoActions!=null&&mUndoActions.size()>0;
+    return mLayers.canRedo();
   }
 
   public boolean canUndo(){
-    return mActions!=null&&mActions.size()>0;
+    return mLayers.canUndo();
+  }
+
+  /**
+   * Adds an empty layer on top of the others and draws on it from now on
+   */
+  public Layer addLayer(){
+    Layer layer = mLayers.addLayer();
+    addSurface(layer);
+    mLayers.setActive(layer);
+    onLayersChanged();
+    return layer;
+  }
+
+  /**
+   * Drops layer with all its actions, which can't be undone anymore
+   *
+   * @return false when it is the only layer, which is kept
+   */
+  public boolean removeLayer(Layer layer){
+    if(mLayers.size()==1){
+      return false;
+    }
+    mLayers.removeLayer(layer);
+    releaseSurface(mSurfaces.remove(layer));
+    balanceSnapshots();
+    composeAll();
+    onLayersChanged();
+    return true;
+  }
+
+  /**
+   * @param position new index of layer, 0 being the bottom
+   */
+  public void moveLayer(Layer layer, int position){
+    mLayers.moveLayer(layer, position);
+    composeAll();
+    onLayersChanged();
+  }
+
+  public void setActiveLayer(Layer layer){
+    mLayers.setActive(layer);
+    onLayersChanged();
+  }
+
+  public Layer getActiveLayer(){
+    return mLayers.getActive();
+  }
+
+  /**
+   * Only composes the layers again, nothing is replayed
+   */
+  public void setLayerVisible(Layer layer, boolean visible){
+    layer.setVisible(visible);
+    composeAll();
+    onAction();
+  }
+
+  /**
+   * Only composes the layers again, nothing is replayed
+   */
+  public void setLayerOpacity(Layer layer, float opacity){
+    layer.setOpacity(opacity);
+    composeAll();
+    onAction();
+  }
+
+  /**
+   * @return the layers bottom first, read only
+   */
+  public List<Layer> getLayers(){
+    return mLayers.getLayers();
+  }
+
+  /**
+   * The journal only records actions, so changes to the layers themselves are saved with a snapshot.
+   * Visibility and opacity are left for the next one, losing them costs nothing to redraw.
+   */
+  private void onLayersChanged(){
+    if(mJournal!=null){
+      compactJournal();
+    }
+    onAction();
   }
 
   public void textTest() {
-    String text = "Bacon ipsum dolor amet landjaeger pork belly leberkas sirloin, beef ribs bacon strip steak ribeye bresaola doner corned beef. Flank pork ball tip sausage jerky, pork loin alcatra landjaeger pig sirloin corned beef. Kevin jowl ground round, meatball chicken leberkas frankfurter jerky. Turducken fatback swine, tail sausage drumstick pork loin sirloin bacon doner ground round. Shank andouille bacon boudin leberkas ham hock t-bone. Meatloaf sirloin rump ham hock, tongue picanha sausage pancetta andouille jowl turkey strip steak biltong.";
+    final String text = "Bacon ipsum dolor amet landjaeger pork belly leberkas sirloin, beef ribs bacon strip steak ribeye bresaola doner corned beef. Flank pork ball tip sausage jerky, pork loin alcatra landjaeger pig sirloin corned beef. Kevin jowl ground round, meatball chicken leberkas frankfurter jerky. Turducken fatback swine, tail sausage drumstick pork loin sirloin bacon doner ground round. Shank andouille bacon boudin leberkas ham hock t-bone. Meatloaf sirloin rump ham hock, tongue picanha sausage pancetta andouille jowl turkey strip steak biltong.";
 
-    Rectangle rectangle = new Rectangle(50, 300, mDrawPaint);
+    Rectangle rectangle = new Rectangle(mStyles, mPaints.intern(mDrawPaint, false), 50, 300);
     rectangle.setFinalPoint(350, 600);
-    rectangle.drawAction(mDrawCanvas);
-    mActions.add(rectangle);
-    drawRectText(text, mDrawCanvas, new Rect(50, 300, 350, 600));
-    drawText(text);
-    invalidate();
+    commitAction(rectangle);
+
+    final Rect textRect = new Rect(50, 300, 350, 600);
+    final StaticLayout textLayout = new StaticLayout(text, new TextPaint(), getWidth(), Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
+    getSurface(mLayers.getActive()).tiles.render(new Bounds(0, 0, getWidth(), getHeight()), new TiledCanvas.TileRenderer() {
+      @Override
+      public void renderTile(Canvas canvas, Rect tileBounds) {
+        drawRectText(text, canvas, textRect);
+        drawText(textLayout, canvas);
+      }
+    });
+    composeAll();
   }
 
   private void drawRectText(String text, Canvas canvas, Rect r) {
@@ -314,114 +1790,202 @@ public class DrawingView extends ImageView {
     canvas.drawText(text,start,start+numOfChars,r.exactCenterX(),r.exactCenterY(),textPaint);
   }
 
-  private void drawText(String text){
-    TextPaint mTextPaint=new TextPaint();
-    StaticLayout mTextLayout = new StaticLayout(text, mTextPaint, mDrawCanvas.getWidth(), Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
-
-    mDrawCanvas.save();
+  private void drawText(StaticLayout textLayout, Canvas canvas){
+    canvas.save();
 // calculate x and y position where your text will be placed
 
     float textX = 50.0f;
     float textY = 300.0f;
 
-    mDrawCanvas.translate(textX, textY);
-    mTextLayout.draw(mDrawCanvas);
-    mDrawCanvas.restore();
+    canvas.translate(textX, textY);
+    textLayout.draw(canvas);
+    canvas.restore();
   }
 
-  private class MyPath extends Path implements  Action{
-    public boolean erase;
-    public Paint actionPaint;
+  /**
+   * Writes a copy of the history through {@link SvgExport}, off the main thread
+   */
+  private static class VectorExport implements SaveImageTask.Export {
+    private static final int BUFFER_SIZE = 64*1024;
+
+    private final List<LayerContent> layers;
+    private final StyleTable styles;
+    private final int width, height;
+    private final boolean whiteBackground;
+
+    VectorExport(List<LayerContent> layers, StyleTable styles, int width, int height, boolean whiteBackground) {
+      this.layers = layers;
+      this.styles = styles;
+      this.width = width;
+      this.height = height;
+      this.whiteBackground = whiteBackground;
+    }
 
-    public MyPath(boolean erase, Paint paint) {
-      super();
-      this.erase = erase;
-      this.actionPaint = new Paint(paint);
+    @Override
+    public ImageExporter.Format getFormat() {
+      return ImageExporter.Format.SVG;
     }
 
     @Override
-    public void drawAction(Canvas canvas) {
-      if(erase) {
-        mDrawPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
-      } else {
-        mDrawPaint.setXfermode(null);
+    public ImageExporter.Result writeTo(File file) throws IOException {
+      long start = SystemClock.elapsedRealtime();
+      SvgWriter writer = new SvgWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), BUFFER_SIZE));
+      try {
+        SvgExport.write(writer, width, height, layers, styles, whiteBackground ? Integer.valueOf(Color.WHITE) : null);
+      } finally {
+        writer.close();
       }
-      canvas.drawPath(this, actionPaint);
+      return new ImageExporter.Result(file, getFormat(), file.length(), SystemClock.elapsedRealtime() - start);
     }
   }
 
-  private class Circle implements Action{
-    public float centerX, centerY;
-    public float startX, startY;
-    public float radius;
-    public Paint actionPaint;
-
-    public Circle(float x, float y, Paint actionPaint) {
-      this.startX = x;
-      this.startY = y;
-      this.actionPaint = new Paint(actionPaint);
-    }
-
-    public void setRadius(float currentX, float currentY) {
-      this.radius = (float) Math.sqrt(Math.pow(startX - currentX, 2) + Math.pow(startY- currentY, 2))/2.0f;
-      this.centerX = (this.startX + currentX)/2.0f;
-      this.centerY = (this.startY + currentY)/2.0f;
+  /**
+   * Draws over a tile the actions from a given position that intersect it. Works on its own copy of
+   * the history so it can run off the main thread, and stops early once the thread is interrupted.
+   */
+  private static class TileReplay implements TiledCanvas.TileRenderer{
+    private final Bounds actionBounds = new Bounds();
+    private final List<Action> actions;
+    private final int start;
+    private final ActionRenderer<Canvas> renderer;
+    private final DrawingMetrics metrics;
+
+    public TileReplay(List<Action> actions, int start, ActionRenderer<Canvas> renderer, DrawingMetrics metrics) {
+      this.actions = actions;
+      this.start = start;
+      this.renderer = renderer;
+      this.metrics = metrics;
     }
 
     @Override
-    public void drawAction(Canvas canvas) {
-      canvas.drawCircle(centerX, centerY, radius, actionPaint);
+    public void renderTile(Canvas canvas, Rect tileBounds) {
+      long startNanos = metrics.isEnabled() ? System.nanoTime() : 0;
+      int replayed = 0;
+      for (int i = start; i < actions.size() && !Thread.currentThread().isInterrupted(); i++) {
+        Action action = actions.get(i);
+        action.getBounds(actionBounds);
+        if(actionBounds.intersects(tileBounds.left, tileBounds.top, tileBounds.right, tileBounds.bottom)){
+          renderer.draw(canvas, action);
+          replayed++;
+        }
+      }
+      if(startNanos!=0){
+        metrics.recordReplay(System.nanoTime() - startNanos, replayed);
+      }
     }
   }
 
-  private class Rectangle implements Action{
-    public float startX;
-    public float startY;
-    public float endX;
-    public float endY;
-    public Paint actionPaint;
-
-    public Rectangle(float touchX, float touchY, Paint actionPaint) {
-      startX = touchX;
-      startY = touchY;
-      endX = touchX;
-      endY = touchY;
-      this.actionPaint = new Paint(actionPaint);
+  /**
+   * Replays the viewport at the view's resolution: each visible layer composed with its opacity from
+   * its base layer, scaled, and the actions culled to the viewport, each drawn only over the tiles it
+   * intersects with strokes simplified to the zoom level.
+   */
+  private static class ViewportReplay implements TiledCanvas.TileRenderer {
+    private final Bounds actionBounds = new Bounds();
+    private final Bounds tileArea = new Bounds();
+    private final Paint basePaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+    private final List<VisibleLayer> layers;
+    private final Matrix matrix;
+    private final float scale, translateX, translateY;
+    private final int level;
+    private final boolean whiteBackground;
+    private final CanvasRenderer renderer;
+    private final StrokeDetail detail;
+    private final DrawingMetrics metrics;
+
+    ViewportReplay(List<VisibleLayer> layers, Matrix viewMatrix, Viewport viewport, boolean whiteBackground,
+                   CanvasRenderer renderer, StrokeDetail detail, DrawingMetrics metrics) {
+      this.layers = layers;
+      this.matrix = new Matrix(viewMatrix);
+      this.scale = viewport.getScale();
+      this.translateX = viewport.getTranslateX();
+      this.translateY = viewport.getTranslateY();
+      this.level = StrokeDetail.levelFor(scale);
+      this.whiteBackground = whiteBackground;
+      this.renderer = renderer;
+      this.detail = detail;
+      this.metrics = metrics;
     }
 
-    public void setFinalPoint(float touchX, float touchY) {
-      endX = touchX;
-      endY = touchY;
+    @Override
+    public void renderTile(Canvas canvas, Rect tileBounds) {
+      long startNanos = metrics.isEnabled() ? System.nanoTime() : 0;
+      int replayed = 0;
+      tileArea.set((tileBounds.left - translateX)/scale, (tileBounds.top - translateY)/scale,
+          (tileBounds.right - translateX)/scale, (tileBounds.bottom - translateY)/scale);
+      if(whiteBackground){
+        canvas.drawColor(Color.WHITE);
+      }
+      for (VisibleLayer layer : layers) {
+        // erasers only clear what is under them on the same layer
+        int saveCount = canvas.saveLayerAlpha(null, layer.alpha, Canvas.ALL_SAVE_FLAG);
+        canvas.concat(matrix);
+        if(layer.base!=null){
+          canvas.drawBitmap(layer.base, 0, 0, basePaint);
+        }
+        for (int i = 0; i < layer.actions.size() && !Thread.currentThread().isInterrupted(); i++) {
+          Action action = layer.actions.get(i);
+          action.getBounds(actionBounds);
+          if(actionBounds.intersects(tileArea)){
+            renderer.draw(canvas, action, detail, level);
+            replayed++;
+          }
+        }
+        canvas.restoreToCount(saveCount);
+      }
+      if(startNanos!=0){
+        metrics.recordReplay(System.nanoTime() - startNanos, replayed);
+      }
     }
 
-    public float left(){
-      return (startX < endX) ? startX : endX;
-    }
+    static class VisibleLayer {
+      final List<Action> actions;
+      final Bitmap base;
+      final int alpha;
 
-    public float right(){
-      return (startX < endX) ? endX : startX;
+      VisibleLayer(List<Action> actions, Bitmap base, int alpha) {
+        this.actions = actions;
+        this.base = base;
+        this.alpha = alpha;
+      }
     }
+  }
 
-    public float top(){
-      return (startY < endY) ? startY : endY;
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    mRasterizer.shutdown();
+    if(mTileStore!=null){
+      mTileStore.shutdown();
     }
+  }
 
-    public float bottom(){
-      return (startY < endY) ? endY : startY;
-    }
+  public void setListener(DrawingViewListener listener) {
+    this.mListener = new WeakReference<>(listener);
+  }
 
-    @Override
-    public void drawAction(Canvas canvas) {
-      canvas.drawRect(left(), top(), right(), bottom(), actionPaint);
-    }
+  public void setMetricsListener(MetricsListener listener) {
+    this.mMetricsListener = new WeakReference<>(listener);
   }
 
-  private interface Action{
-    void drawAction(Canvas canvas);
+  /**
+   * Turns on collecting latency and allocation histograms, see {@link #getMetrics()}
+   */
+  public void setMetricsEnabled(boolean enabled) {
+    mMetrics.setEnabled(enabled);
+    mPendingInputNanos = 0;
   }
 
-  public void setListener(DrawingViewListener listener) {
-    this.mListener = new WeakReference<>(listener);
+  /**
+   * @return histograms of input latency, draw and replay times, export encoding and bitmap
+   *         allocations, readable from any thread
+   */
+  public DrawingMetrics getMetrics() {
+    return mMetrics;
+  }
+
+  public interface MetricsListener{
+    void onStrokeSimplified(int rawPoints, int simplifiedPoints);
   }
 
   public interface DrawingViewListener{
@@ -429,8 +1993,35 @@ public class DrawingView extends ImageView {
     void onAction();
   }
 
+  /**
+   * Committed actions whose bounds intersect area, bottom layer first and oldest first within a layer
+   */
+  public List<Action> findActions(RectF area){
+    List<Action> found = new ArrayList<>();
+    for (Layer layer : mLayers.getLayers()) {
+      layer.getHistory().query(area.left, area.top, area.right, area.bottom, found);
+    }
+    return found;
+  }
+
+  /**
+   * Committed actions whose bounds contain the point, bottom layer first and oldest first within a layer
+   */
+  public List<Action> findActions(float x, float y){
+    List<Action> found = new ArrayList<>();
+    for (Layer layer : mLayers.getLayers()) {
+      layer.getHistory().query(x, y, found);
+    }
+    return found;
+  }
+
   public boolean isDirty(){
-    return (mActions!=null && mActions.size()>0);
+    for (LayerSurface surface : mSurfaces.values()) {
+      if(surface.hasContent()){
+        return true;
+      }
+    }
+    return false;
   }
 
   public void setDrawingEnabled(boolean enabled) {
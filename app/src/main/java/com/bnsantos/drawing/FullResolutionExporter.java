@@ -0,0 +1,193 @@
+package com.bnsantos.drawing;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Exports the drawing over the original picked image at its full resolution.
+ *
+ * The view only shows a screen sized decode of the image, so actions are mapped from view to source
+ * coordinates and the output is produced one horizontal band at a time: the band is region decoded
+ * from the source, the actions crossing it are replayed on top, each layer on its own with its opacity,
+ * and its rows are streamed to a {@link PngWriter}. Memory use depends on the image width only, never
+ * on its height.
+ */
+public class FullResolutionExporter implements SaveImageTask.Export {
+  private static final int BAND_BYTES = 4*1024*1024;
+  private static final int BUFFER_SIZE = 64*1024;
+
+  private final ContentResolver mResolver;
+  private final Uri mSource;
+  private final List<LayerContent> mLayers;
+  private final ActionRenderer<Canvas> mRenderer;
+  private final RectF[][] mActionBounds;
+  private final Matrix mViewToImage;
+  private final int mImageWidth, mImageHeight;
+
+  /**
+   * @param layers visible layers to replay, bottom first
+   * @param renderer draws the actions, must be safe to use off the main thread
+   * @param viewToImage maps view coordinates to the displayed image, sized imageWidth x imageHeight
+   */
+  public FullResolutionExporter(ContentResolver resolver, Uri source, List<LayerContent> layers, ActionRenderer<Canvas> renderer, Matrix viewToImage, int imageWidth, int imageHeight) {
+    mResolver = resolver;
+    mSource = source;
+    mLayers = layers;
+    mRenderer = renderer;
+    mViewToImage = new Matrix(viewToImage);
+    mImageWidth = imageWidth;
+    mImageHeight = imageHeight;
+    mActionBounds = new RectF[layers.size()][];
+    Bounds bounds = new Bounds();
+    for (int layer = 0; layer < mActionBounds.length; layer++) {
+      List<Action> actions = layers.get(layer).actions;
+      mActionBounds[layer] = new RectF[actions.size()];
+      for (int i = 0; i < actions.size(); i++) {
+        actions.get(i).getBounds(bounds);
+        mActionBounds[layer][i] = new RectF(bounds.left, bounds.top, bounds.right, bounds.bottom);
+      }
+    }
+  }
+
+  @Override
+  public ImageExporter.Format getFormat() {
+    return ImageExporter.Format.PNG;
+  }
+
+  @Override
+  public ImageExporter.Result writeTo(File file) throws IOException {
+    long start = SystemClock.elapsedRealtime();
+    BitmapRegionDecoder decoder = openDecoder();
+    Bitmap[] baseLayers = new Bitmap[mLayers.size()];
+    try {
+      int width = decoder.getWidth();
+      int height = decoder.getHeight();
+      Matrix viewToSource = new Matrix(mViewToImage);
+      viewToSource.postScale(width/(float) mImageWidth, height/(float) mImageHeight);
+      for (RectF[] layerBounds : mActionBounds) {
+        for (RectF bounds : layerBounds) {
+          viewToSource.mapRect(bounds);
+        }
+      }
+      for (int i = 0; i < baseLayers.length; i++) {
+        byte[] png = mLayers.get(i).baseLayer;
+        if(png!=null){
+          baseLayers[i] = BitmapFactory.decodeByteArray(png, 0, png.length);
+        }
+      }
+
+      FileOutputStream fileStream = new FileOutputStream(file);
+      try {
+        FileChannel channel = fileStream.getChannel();
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+        PngWriter writer = new PngWriter(out, width, height, false);
+        try {
+          writeBands(decoder, viewToSource, baseLayers, writer);
+          writer.finish();
+        } finally {
+          writer.close();
+        }
+        out.flush();
+        channel.force(false);
+        return new ImageExporter.Result(file, getFormat(), channel.size(), SystemClock.elapsedRealtime() - start);
+      } finally {
+        fileStream.close();
+      }
+    } finally {
+      decoder.recycle();
+      for (Bitmap baseLayer : baseLayers) {
+        if(baseLayer!=null){
+          baseLayer.recycle();
+        }
+      }
+    }
+  }
+
+  private BitmapRegionDecoder openDecoder() throws IOException {
+    InputStream in = mResolver.openInputStream(mSource);
+    if(in==null){
+      throw new IOException("Can't open " + mSource);
+    }
+    try {
+      return BitmapRegionDecoder.newInstance(in, false);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @param baseLayers decoded base of each layer, null entries for layers without one
+   */
+  private void writeBands(BitmapRegionDecoder decoder, Matrix viewToSource, Bitmap[] baseLayers, PngWriter writer) throws IOException {
+    int width = decoder.getWidth();
+    int height = decoder.getHeight();
+    int bandHeight = Math.max(1, Math.min(height, BAND_BYTES/(width*4)));
+    Bitmap band = Bitmap.createBitmap(width, bandHeight, Bitmap.Config.ARGB_8888);
+    try {
+      Canvas canvas = new Canvas(band);
+      Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+      Rect region = new Rect();
+      int[] row = new int[width];
+
+      for (int top = 0; top < height; top += bandHeight) {
+        int bottom = Math.min(top + bandHeight, height);
+        region.set(0, top, width, bottom);
+        band.eraseColor(Color.WHITE);
+
+        Bitmap source = decoder.decodeRegion(region, options);
+        if(source==null){
+          throw new IOException("Failed to decode " + region + " of " + mSource);
+        }
+        canvas.drawBitmap(source, 0, 0, paint);
+        source.recycle();
+
+        // each layer is drawn apart so erasing clears its strokes but keeps the photo and other layers, as on screen
+        for (int layer = 0; layer < mLayers.size(); layer++) {
+          int saveCount = canvas.saveLayerAlpha(null, Math.round(mLayers.get(layer).opacity*255), Canvas.ALL_SAVE_FLAG);
+          canvas.translate(0, -top);
+          canvas.concat(viewToSource);
+          if(baseLayers[layer]!=null){
+            canvas.drawBitmap(baseLayers[layer], 0, 0, paint);
+          }
+          List<Action> actions = mLayers.get(layer).actions;
+          RectF[] actionBounds = mActionBounds[layer];
+          for (int i = 0; i < actionBounds.length; i++) {
+            if(actionBounds[i].intersects(0, top, width, bottom)){
+              mRenderer.draw(canvas, actions.get(i));
+            }
+          }
+          canvas.restoreToCount(saveCount);
+        }
+
+        for (int y = 0; y < bottom - top; y++) {
+          band.getPixels(row, 0, width, 0, y, width, 1);
+          writer.writeRow(row, 0);
+        }
+      }
+    } finally {
+      band.recycle();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.bnsantos.drawing;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Encodes an exported drawing to a file in the chosen format.
+ *
+ * The encoder writes through a buffer over the file channel instead of hitting the file descriptor
+ * on every small write, and the channel is forced to storage before the result is reported.
+ */
+public class ImageExporter {
+  private static final int BUFFER_SIZE = 64*1024;
+
+  public enum Format {
+    PNG(Bitmap.CompressFormat.PNG, "png", "image/png", true),
+    WEBP(Bitmap.CompressFormat.WEBP, "webp", "image/webp", true),
+    JPEG(Bitmap.CompressFormat.JPEG, "jpg", "image/jpeg", false),
+    SVG(null, "svg", "image/svg+xml", true);
+
+    final Bitmap.CompressFormat compressFormat;
+    final String extension;
+    final String mimeType;
+    final boolean alpha;
+
+    Format(Bitmap.CompressFormat compressFormat, String extension, String mimeType, boolean alpha) {
+      this.compressFormat = compressFormat;
+      this.extension = extension;
+      this.mimeType = mimeType;
+      this.alpha = alpha;
+    }
+
+    public String getExtension(){
+      return extension;
+    }
+
+    public String getMimeType(){
+      return mimeType;
+    }
+
+    /**
+     * @return whether the drawing is written as shapes instead of pixels
+     */
+    public boolean isVector(){
+      return compressFormat==null;
+    }
+
+    /**
+     * @return whether transparent pixels survive encoding, otherwise exports are painted over white
+     */
+    public boolean hasAlpha(){
+      return alpha;
+    }
+  }
+
+  private final Format mFormat;
+  private final int mQuality;
+
+  /**
+   * @param quality 0-100, ignored by lossless PNG
+   */
+  public ImageExporter(Format format, int quality) {
+    if(format.isVector()){
+      throw new IllegalArgumentException(format + " isn't a bitmap format");
+    }
+    mFormat = format;
+    mQuality = Math.max(0, Math.min(quality, 100));
+  }
+
+  public Format getFormat(){
+    return mFormat;
+  }
+
+  public Result export(Bitmap bitmap, File file) throws IOException {
+    long start = SystemClock.elapsedRealtime();
+    FileOutputStream fileStream = new FileOutputStream(file);
+    try {
+      FileChannel channel = fileStream.getChannel();
+      OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+      if(!bitmap.compress(mFormat.compressFormat, mQuality, out)){
+        throw new IOException("Failed to encode " + mFormat + " to " + file);
+      }
+      out.flush();
+      channel.force(false);
+      return new Result(file, mFormat, channel.size(), SystemClock.elapsedRealtime() - start);
+    } finally {
+      fileStream.close();
+    }
+  }
+
+  public static class Result {
+    private final File mFile;
+    private final Format mFormat;
+    private final long mBytes;
+    private final long mEncodeMillis;
+
+    Result(File file, Format format, long bytes, long encodeMillis) {
+      mFile = file;
+      mFormat = format;
+      mBytes = bytes;
+      mEncodeMillis = encodeMillis;
+    }
+
+    public File getFile(){
+      return mFile;
+    }
+
+    public Format getFormat(){
+      return mFormat;
+    }
+
+    public long getBytes(){
+      return mBytes;
+    }
+
+    public long getEncodeMillis(){
+      return mEncodeMillis;
+    }
+
+    @Override
+    public String toString() {
+      return mFormat + " " + mBytes + " bytes in " + mEncodeMillis + "ms";
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.bnsantos.drawing;
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Raster state kept for one {@link Layer}: the tiles it is rendered into, snapshots of them taken
+ * every few of its actions and the bitmap its flattened actions were drawn into.
+ *
+ * Everything starts transparent, without the background, so erasers only clear what this layer
+ * holds and replaying it never involves the actions of other layers.
+ */
+class LayerSurface {
+  final Layer layer;
+  final SnapshotCache snapshots;
+  // null until the view has a size
+  TiledCanvas tiles;
+  // null until actions are flattened, baseLayerPng caches its encoding until it changes again
+  Bitmap baseBitmap;
+  byte[] baseLayerPng;
+
+  LayerSurface(Layer layer, SnapshotCache snapshots) {
+    this.layer = layer;
+    this.snapshots = snapshots;
+  }
+
+  boolean hasContent(){
+    return layer.getHistory().size()>0 || baseBitmap!=null;
+  }
+
+  /**
+   * @return PNG of the base layer, encoded once and reused until the layer changes, or null when
+   *         nothing has been flattened
+   */
+  byte[] encodeBaseLayer(){
+    if(baseBitmap!=null && baseLayerPng==null){
+      baseLayerPng = encode(baseBitmap);
+    }
+    return baseLayerPng;
+  }
+
+  /**
+   * Base layers are never drawn over once set, so they can be encoded on any thread while they are kept
+   * out of the pool
+   */
+  static byte[] encode(Bitmap base){
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    base.compress(Bitmap.CompressFormat.PNG, 100, png);
+    return png.toByteArray();
+  }
+
+  /**
+   * @return the replaced base layer, for the caller to release once nothing draws it anymore
+   */
+  Bitmap setBaseBitmap(Bitmap base){
+    Bitmap previous = baseBitmap;
+    baseBitmap = base;
+    baseLayerPng = null;
+    return previous;
+  }
+
+  /**
+   * @return bytes held by the tiles and base layer, snapshots are accounted apart
+   */
+  long getByteCount(){
+    long bytes = 0;
+    if(tiles!=null){
+      bytes += tiles.getByteCount();
+    }
+    if(baseBitmap!=null && !baseBitmap.isRecycled()){
+      bytes += baseBitmap.getByteCount();
+    }
+    return bytes;
+  }
+
+  /**
+   * Hands tiles and snapshots back to their pool, the surface can't be drawn afterwards
+   *
+   * @return the base layer, see {@link #setBaseBitmap(Bitmap)}
+   */
+  Bitmap release(){
+    if(tiles!=null){
+      tiles.release();
+      tiles = null;
+    }
+    snapshots.clear();
+    return setBaseBitmap(null);
+  }
+}
@@ -0,0 +1,68 @@
+package com.bnsantos.drawing;
+
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Xfermode;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Android paints for the styles of a {@link StyleTable}.
+ *
+ * Every action drawn with the same style shares one Paint instance, created the first time the style
+ * is drawn. Interning happens on the main thread, lookups are safe from the render thread.
+ */
+class PaintStyles {
+  /**
+   * Shared by every erasing paint, xfermodes are immutable
+   */
+  static final Xfermode CLEAR_MODE = new PorterDuffXfermode(PorterDuff.Mode.CLEAR);
+
+  private final StyleTable mTable;
+  private final List<Paint> mPaints;
+
+  PaintStyles(StyleTable table) {
+    mTable = table;
+    mPaints = new CopyOnWriteArrayList<>();
+  }
+
+  public StyleTable getTable(){
+    return mTable;
+  }
+
+  /**
+   * @param template paint providing color, stroke width and style
+   * @param erase whether the style clears pixels instead of painting them
+   * @return id of the style matching the template
+   */
+  public int intern(Paint template, boolean erase){
+    return mTable.intern(template.getColor(), template.getStrokeWidth(), template.getStyle()==Paint.Style.FILL, erase);
+  }
+
+  public Paint get(int id){
+    if(id<mPaints.size()){
+      return mPaints.get(id);
+    }
+    synchronized (mPaints){
+      while (mPaints.size()<=id){
+        mPaints.add(createPaint(mPaints.size()));
+      }
+      return mPaints.get(id);
+    }
+  }
+
+  private Paint createPaint(int id){
+    Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    paint.setColor(mTable.getColor(id));
+    paint.setStrokeWidth(mTable.getWidth(id));
+    paint.setStyle(mTable.isFill(id) ? Paint.Style.FILL : Paint.Style.STROKE);
+    paint.setStrokeJoin(Paint.Join.ROUND);
+    paint.setStrokeCap(Paint.Cap.ROUND);
+    if(mTable.isErase(id)){
+      paint.setXfermode(CLEAR_MODE);
+    }
+    return paint;
+  }
+}
@@ -9,9 +9,7 @@ import android.provider.MediaStore;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -20,58 +18,63 @@ import java.util.Locale;
 /**
  * Created by bruno on 02/06/16.
  */
-public class SaveImageTask extends AsyncTask<Void, Void, Uri> {
+public class SaveImageTask extends AsyncTask<Void, Void, ImageExporter.Result> {
   private static final String TAG = SaveImageTask.class.getSimpleName();
   public static final String FILE_DATE_FORMAT = "yyyyMMdd-HHmmss";
-  private final Bitmap drawingCache;
+  private final Export export;
   private final WeakReference<DrawingActivity> activity;
 
-  public SaveImageTask(Bitmap drawingCache, DrawingActivity drawingActivity) {
-    this.drawingCache = drawingCache;
+  /**
+   * @param image dedicated export bitmap, recycled once encoded
+   */
+  public SaveImageTask(Bitmap image, ImageExporter exporter, DrawingActivity drawingActivity) {
+    this(new BitmapExport(image, exporter), drawingActivity);
+  }
+
+  public SaveImageTask(Export export, DrawingActivity drawingActivity) {
+    this.export = export;
     this.activity = new WeakReference<>(drawingActivity);
   }
 
+  /**
+   * Runs on the shared thread pool so encoding doesn't wait behind, or hold up, other serial tasks
+   */
+  public void start(){
+    executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+  }
 
   @Override
-  protected Uri doInBackground(Void... voids) {
+  protected ImageExporter.Result doInBackground(Void... voids) {
     File drawingFolder = createDrawingFolder();
-    File file = new File(drawingFolder, "IMG-" + new SimpleDateFormat(FILE_DATE_FORMAT, Locale.getDefault()).format(new Date()) + ".jpg");
-    OutputStream fOut = null;
+    File file = new File(drawingFolder, "IMG-" + new SimpleDateFormat(FILE_DATE_FORMAT, Locale.getDefault()).format(new Date()) + "." + export.getFormat().getExtension());
 
+    ImageExporter.Result result;
     try {
-      fOut = new FileOutputStream(file);
-    } catch (Exception e) {
+      result = export.writeTo(file);
+    } catch (IOException e) {
       Log.e(TAG, e.getCause() + e.getMessage());
       return null;
     }
+    Log.i(TAG, "Exported " + result);
 
-    drawingCache.compress(Bitmap.CompressFormat.JPEG, 75, fOut);
-
-    try {
-      fOut.flush();
-      fOut.close();
-
+    DrawingActivity drawingActivity = activity.get();
+    if(drawingActivity!=null && !result.getFormat().isVector()) {
       ContentValues values = new ContentValues();
 
       values.put(MediaStore.Images.Media.DATE_TAKEN, System.currentTimeMillis());
-      values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
+      values.put(MediaStore.Images.Media.MIME_TYPE, result.getFormat().getMimeType());
       values.put(MediaStore.MediaColumns.DATA, file.getPath());
 
-      activity.get().getContentResolver().insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
-
-      return Uri.fromFile(file);
-    } catch (IOException e) {
-      Log.e(TAG, e.getCause() + e.getMessage());
-      return null;
+      drawingActivity.getContentResolver().insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
     }
-
+    return result;
   }
 
   @Override
-  protected void onPostExecute(Uri uri) {
-    super.onPostExecute(uri);
+  protected void onPostExecute(ImageExporter.Result result) {
+    super.onPostExecute(result);
     if(activity.get()!=null){
-      activity.get().imageSaved(uri);
+      activity.get().imageSaved(result);
     }
   }
 
@@ -82,4 +85,37 @@ public class SaveImageTask extends AsyncTask<Void, Void, Uri> {
     }
     return mediaFolder;
   }
+
+  /**
+   * Image written by the task, called on the background thread
+   */
+  public interface Export {
+    ImageExporter.Format getFormat();
+
+    ImageExporter.Result writeTo(File file) throws IOException;
+  }
+
+  private static class BitmapExport implements Export {
+    private final Bitmap image;
+    private final ImageExporter exporter;
+
+    BitmapExport(Bitmap image, ImageExporter exporter) {
+      this.image = image;
+      this.exporter = exporter;
+    }
+
+    @Override
+    public ImageExporter.Format getFormat() {
+      return exporter.getFormat();
+    }
+
+    @Override
+    public ImageExporter.Result writeTo(File file) throws IOException {
+      try {
+        return exporter.export(image, file);
+      } finally {
+        image.recycle();
+      }
+    }
+  }
 }
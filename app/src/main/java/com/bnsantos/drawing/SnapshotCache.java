@@ -0,0 +1,119 @@
+package com.bnsantos.drawing;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rasterized copies of the drawing canvas taken every few actions.
+ *
+ * Snapshots are keyed by the number of actions already drawn on them, so a history change
+ * can restore the closest one and replay only the actions after it. The cache keeps at most
+ * maxBytes of bitmaps and evicts the least recently used snapshot first.
+ */
+class SnapshotCache {
+  private final int mInterval;
+  private long mMaxBytes;
+  private final LinkedHashMap<Integer, Bitmap> mSnapshots;
+  private final BitmapPool mPool;
+  private long mBytes;
+
+  SnapshotCache(int interval, long maxBytes, BitmapPool pool) {
+    mInterval = interval;
+    mMaxBytes = maxBytes;
+    mPool = pool;
+    mSnapshots = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  public boolean shouldSnapshot(int actionCount){
+    return actionCount>0 && actionCount%mInterval==0 && !mSnapshots.containsKey(actionCount);
+  }
+
+  /**
+   * Takes ownership of snapshot, it goes back to the pool once evicted
+   */
+  public void put(int actionCount, Bitmap snapshot){
+    long size = snapshot.getByteCount();
+    if(size>mMaxBytes){
+      mPool.release(snapshot);
+      return;
+    }
+    remove(actionCount);
+    mSnapshots.put(actionCount, snapshot);
+    mBytes += size;
+    trimToSize(mMaxBytes);
+  }
+
+  /**
+   * @return the largest snapshot key not greater than actionCount, or 0 when there is none
+   */
+  public int floorKey(int actionCount){
+    int floor = 0;
+    for (Integer key : mSnapshots.keySet()) {
+      if(key<=actionCount && key>floor){
+        floor = key;
+      }
+    }
+    return floor;
+  }
+
+  public Bitmap get(int actionCount){
+    return mSnapshots.get(actionCount);
+  }
+
+  /**
+   * Drops every snapshot that contains actions from position actionCount onwards, used when the
+   * history diverges from what was rasterized.
+   */
+  public void invalidateFrom(int actionCount){
+    Iterator<Map.Entry<Integer, Bitmap>> iterator = mSnapshots.entrySet().iterator();
+    while (iterator.hasNext()){
+      Map.Entry<Integer, Bitmap> entry = iterator.next();
+      if(entry.getKey()>=actionCount){
+        release(entry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Changes the byte budget, evicting snapshots right away when it shrinks
+   */
+  public void setMaxBytes(long maxBytes){
+    mMaxBytes = maxBytes;
+    trimToSize(maxBytes);
+  }
+
+  public void clear(){
+    trimToSize(0);
+  }
+
+  public long getByteCount(){
+    return mBytes;
+  }
+
+  /**
+   * Evicts the least recently used snapshots until at most maxBytes are left
+   */
+  public void trimToSize(long maxBytes){
+    Iterator<Map.Entry<Integer, Bitmap>> iterator = mSnapshots.entrySet().iterator();
+    while (mBytes>maxBytes && iterator.hasNext()){
+      release(iterator.next().getValue());
+      iterator.remove();
+    }
+  }
+
+  private void remove(int actionCount){
+    Bitmap removed = mSnapshots.remove(actionCount);
+    if(removed!=null){
+      release(removed);
+    }
+  }
+
+  private void release(Bitmap snapshot){
+    mBytes -= snapshot.getByteCount();
+    mPool.release(snapshot);
+  }
+}
@@ -0,0 +1,347 @@
+package com.bnsantos.drawing;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Memory budget shared by the tiles of unbounded {@link TiledCanvas}es.
+ *
+ * Tiles holding a bitmap are kept in access order. Once they take more than the budget the least
+ * recently used ones are spilled to a {@link TileDiskCache} and their bitmaps go back to the pool.
+ * A tile keeps its copy on disk until it is drawn over, so spilling it again costs nothing. Dirty
+ * tiles are about to be replayed anyway, they are dropped instead of written.
+ *
+ * Disk and zlib stay off the main thread: spilling only copies the pixels out before releasing the
+ * bitmap, and spilled tiles are read back through {@link #requestLoad(TiledCanvas.Tile)}, which hands
+ * them to the {@link Listener} once they are in memory again. Both run in order on a single I/O
+ * thread, so a tile read back right after it was spilled finds its file. A spilled tile needed before
+ * its read lands is never waited for, {@link #markForReplay(TiledCanvas.Tile)} has it replayed from
+ * history instead. Main thread only.
+ */
+class TileStore {
+  private static final String TAG = "TileStore";
+  // pixel buffers kept for reuse, the ones of queued writes are allocated past it
+  private static final int MAX_FREE_BUFFERS = 4;
+
+  private final int mTileSize;
+  private final long mMaxBytes;
+  private final BitmapPool mPool;
+  private final TileDiskCache mDisk;
+  private final Handler mMainHandler;
+  private final LinkedHashMap<TiledCanvas.Tile, Boolean> mResident;
+  private final ArrayDeque<byte[]> mFreeBuffers = new ArrayDeque<>();
+  private ExecutorService mExecutor;
+  private Listener mListener;
+  private long mBytes;
+  private volatile long mDiskBytes;
+  private int mNextCanvasId;
+
+  /**
+   * @param directory where tiles are spilled, whatever an earlier process left there is deleted
+   */
+  TileStore(int tileSize, long maxBytes, BitmapPool pool, File directory) throws IOException {
+    mTileSize = tileSize;
+    mMaxBytes = maxBytes;
+    mPool = pool;
+    mDisk = new TileDiskCache(directory);
+    mMainHandler = new Handler(Looper.getMainLooper());
+    mResident = new LinkedHashMap<>(64, 0.75f, true);
+  }
+
+  public void setListener(Listener listener){
+    mListener = listener;
+  }
+
+  public int getTileSize(){
+    return mTileSize;
+  }
+
+  /**
+   * @return id telling the tiles of a new canvas apart from the ones of the others in their keys
+   */
+  public int newCanvasId(){
+    return mNextCanvasId++;
+  }
+
+  /**
+   * Tile columns and rows are kept to 24 bits, some 4 billion pixels each way with the default tile size
+   */
+  public static long key(int canvasId, int column, int row){
+    return ((long) canvasId << 48) | ((column & 0xffffffL) << 24) | (row & 0xffffffL);
+  }
+
+  /**
+   * @return the tile bitmap when it is in memory, without reading it back from disk
+   */
+  public Bitmap peek(TiledCanvas.Tile tile){
+    if(tile.bitmap!=null){
+      mResident.get(tile);
+    }
+    return tile.bitmap;
+  }
+
+  /**
+   * Reads a spilled tile back in the background, the listener hears about it once it is in memory.
+   * Does nothing for tiles in memory, never drawn or already being read.
+   */
+  public void requestLoad(final TiledCanvas.Tile tile){
+    if(tile.bitmap!=null || !tile.spilled || tile.loading){
+      return;
+    }
+    tile.loading = true;
+    final int version = tile.version;
+    final long key = tile.key;
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        final byte[] pixels = obtainBuffer();
+        final int length = read(key, pixels);
+        mMainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            tile.loading = false;
+            if(tile.version==version && tile.bitmap==null){
+              loaded(tile, pixels, length);
+              if(mListener!=null){
+                mListener.onTileLoaded(tile);
+              }
+            }
+            recycleBuffer(pixels);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Makes bitmap the tile contents, the previous one goes back to the pool
+   *
+   * @param canvas drawing into bitmap, null to create one
+   */
+  public void put(TiledCanvas.Tile tile, Bitmap bitmap, Canvas canvas){
+    if(tile.bitmap!=null){
+      mBytes -= tile.bitmap.getByteCount();
+      mPool.release(tile.bitmap);
+    }
+    tile.bitmap = bitmap;
+    tile.canvas = canvas!=null ? canvas : new Canvas(bitmap);
+    mResident.put(tile, Boolean.TRUE);
+    mBytes += bitmap.getByteCount();
+    trimToSize(mMaxBytes);
+  }
+
+  /**
+   * Drops the copy on disk of a tile about to be drawn over, a read of it in flight is discarded
+   */
+  public void modified(TiledCanvas.Tile tile){
+    tile.version++;
+    if(tile.spilled){
+      tile.spilled = false;
+      removeFile(tile.key);
+    }
+  }
+
+  /**
+   * Drops the copy on disk of a tile that isn't in memory and marks it dirty, for when its contents are
+   * needed right away: it is replayed from history rather than read back on the calling thread
+   */
+  public void markForReplay(TiledCanvas.Tile tile){
+    modified(tile);
+    tile.dirty = true;
+  }
+
+  /**
+   * Forgets a tile its canvas no longer holds, releasing its bitmap and its copy on disk
+   */
+  public void remove(TiledCanvas.Tile tile){
+    if(tile.bitmap!=null){
+      mResident.remove(tile);
+      mBytes -= tile.bitmap.getByteCount();
+      mPool.release(tile.bitmap);
+      tile.bitmap = null;
+      tile.canvas = null;
+    }
+    modified(tile);
+  }
+
+  /**
+   * Spills the least recently used tiles until the ones in memory take at most maxBytes. Their pixels
+   * are copied out and written in the background, the bitmaps are back in the pool right away.
+   */
+  public void trimToSize(long maxBytes){
+    Iterator<Map.Entry<TiledCanvas.Tile, Boolean>> entries = mResident.entrySet().iterator();
+    while (mBytes>maxBytes && entries.hasNext()){
+      TiledCanvas.Tile tile = entries.next().getKey();
+      if(tile.dirty){
+        modified(tile);
+      }else if(!tile.spilled){
+        spill(tile);
+      }
+      entries.remove();
+      mBytes -= tile.bitmap.getByteCount();
+      mPool.release(tile.bitmap);
+      tile.bitmap = null;
+      tile.canvas = null;
+    }
+  }
+
+  /**
+   * @return bytes held by the tiles in memory, pixels queued to be written aren't counted
+   */
+  public long getByteCount(){
+    return mBytes;
+  }
+
+  /**
+   * @return bytes the spilled tiles take on disk, as of the last write that completed
+   */
+  public long getDiskByteCount(){
+    return mDiskBytes;
+  }
+
+  /**
+   * Lets the I/O thread finish the spills and loads queued and stop, a later one starts it again
+   */
+  public void shutdown(){
+    if(mExecutor!=null){
+      mExecutor.shutdown();
+      mExecutor = null;
+    }
+  }
+
+  private void spill(final TiledCanvas.Tile tile){
+    final byte[] pixels = obtainBuffer();
+    final ByteBuffer buffer = ByteBuffer.wrap(pixels);
+    tile.bitmap.copyPixelsToBuffer(buffer);
+    tile.spilled = true;
+    final int version = tile.version;
+    final long key = tile.key;
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          mDisk.write(key, pixels, buffer.position());
+        } catch (IOException e){
+          Log.w(TAG, "Can't spill tile, it is replayed instead", e);
+          mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+              if(tile.version==version && tile.bitmap==null){
+                markForReplay(tile);
+              }
+            }
+          });
+        } finally {
+          mDiskBytes = mDisk.getByteCount();
+          recycleBuffer(pixels);
+        }
+      }
+    });
+  }
+
+  /**
+   * Makes the pixels read for tile its contents, a tile that couldn't be read is marked for replay
+   */
+  private void loaded(TiledCanvas.Tile tile, byte[] pixels, int length){
+    if(length<0){
+      markForReplay(tile);
+      return;
+    }
+    Bitmap bitmap = mPool.acquire(mTileSize, mTileSize, Bitmap.Config.ARGB_8888);
+    bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels, 0, length));
+    put(tile, bitmap, null);
+  }
+
+  /**
+   * I/O thread only
+   *
+   * @return bytes read, -1 when the tile was lost
+   */
+  private int read(long key, byte[] pixels){
+    try {
+      int length = mDisk.read(key, pixels);
+      if(length<0){
+        Log.w(TAG, "Spilled tile wasn't written, it is replayed instead");
+      }
+      return length;
+    } catch (IOException e){
+      Log.w(TAG, "Lost spilled tile, it is replayed instead", e);
+      mDisk.remove(key);
+      mDiskBytes = mDisk.getByteCount();
+      return -1;
+    }
+  }
+
+  private void removeFile(final long key){
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        mDisk.remove(key);
+        mDiskBytes = mDisk.getByteCount();
+      }
+    });
+  }
+
+  private void execute(Runnable job){
+    if(mExecutor==null){
+      mExecutor = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+    }
+    mExecutor.execute(job);
+  }
+
+  private byte[] obtainBuffer(){
+    synchronized (mFreeBuffers){
+      byte[] buffer = mFreeBuffers.poll();
+      if(buffer!=null){
+        return buffer;
+      }
+    }
+    return new byte[mTileSize*mTileSize*4];
+  }
+
+  private void recycleBuffer(byte[] buffer){
+    synchronized (mFreeBuffers){
+      if(mFreeBuffers.size()<MAX_FREE_BUFFERS){
+        mFreeBuffers.push(buffer);
+      }
+    }
+  }
+
+  private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+          runnable.run();
+        }
+      }, "DrawingTileStore");
+      thread.setDaemon(true);
+      return thread;
+    }
+  };
+
+  interface Listener {
+    /**
+     * A tile requested through {@link #requestLoad(TiledCanvas.Tile)} is in memory again, or is dirty
+     * when its copy on disk was lost
+     */
+    void onTileLoaded(TiledCanvas.Tile tile);
+  }
+}
@@ -0,0 +1,507 @@
+package com.bnsantos.drawing;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drawing surface split in fixed size tiles, each one with its own bitmap and dirty flag.
+ *
+ * Everything is addressed in view coordinates, the tile canvases are translated before drawing so
+ * actions don't need to know about tiles. History changes mark only the tiles under the affected
+ * bounds as dirty. Dirty tiles are repainted into back buffers from {@link #prepareDirtyTiles(Bitmap, Paint)},
+ * which can be rendered on any thread and are swapped in on the main thread.
+ *
+ * Unbounded canvases have no size: tiles are created where something is drawn, at any coordinates,
+ * and their bitmaps are held by a {@link TileStore}, which spills them to disk past its budget. Drawing
+ * them looks up only the tiles under the clip and skips spilled ones, requesting them to be read back.
+ */
+class TiledCanvas {
+  public static final int DEFAULT_TILE_SIZE = 256;
+
+  private final int mWidth, mHeight;
+  private final int mTileSize;
+  private final int mColumns, mRows;
+  private final BitmapPool mPool;
+  // every tile of a bounded canvas by row then column, null for unbounded ones
+  private final Tile[] mGrid;
+  // unbounded canvases only, tiles created so far by key
+  private final TileStore mStore;
+  private final int mStoreId;
+  private final LongSparseMap<Tile> mSparse;
+  private final Bounds mRenderArea = new Bounds();
+  private boolean mHasRenderArea;
+  private final Rect mClipBounds = new Rect();
+
+  TiledCanvas(int width, int height, int tileSize, BitmapPool pool) {
+    mWidth = width;
+    mHeight = height;
+    mTileSize = tileSize;
+    mPool = pool;
+    mColumns = (width + tileSize - 1)/tileSize;
+    mRows = (height + tileSize - 1)/tileSize;
+    mStore = null;
+    mStoreId = 0;
+    mSparse = null;
+    mGrid = new Tile[mColumns*mRows];
+    for (int row = 0; row < mRows; row++) {
+      for (int column = 0; column < mColumns; column++) {
+        int left = column*tileSize;
+        int top = row*tileSize;
+        Rect bounds = new Rect(left, top, Math.min(left + tileSize, width), Math.min(top + tileSize, height));
+        Tile tile = new Tile(bounds, row*mColumns + column);
+        tile.bitmap = pool.acquire(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888);
+        tile.canvas = new Canvas(tile.bitmap);
+        mGrid[row*mColumns + column] = tile;
+      }
+    }
+  }
+
+  /**
+   * Unbounded canvas of store's tile size, starts without any tile
+   */
+  TiledCanvas(TileStore store, BitmapPool pool) {
+    mWidth = 0;
+    mHeight = 0;
+    mTileSize = store.getTileSize();
+    mPool = pool;
+    mColumns = 0;
+    mRows = 0;
+    mGrid = null;
+    mStore = store;
+    mStoreId = store.newCanvasId();
+    mSparse = new LongSparseMap<>();
+  }
+
+  public boolean isUnbounded(){
+    return mStore!=null;
+  }
+
+  /**
+   * @return width of a bounded canvas, 0 for unbounded ones
+   */
+  public int getWidth(){
+    return mWidth;
+  }
+
+  public int getHeight(){
+    return mHeight;
+  }
+
+  /**
+   * Blits the tiles that fall inside the target clip
+   */
+  public void draw(Canvas target, Paint paint){
+    draw(target, paint, true);
+  }
+
+  /**
+   * Only tiles in memory are drawn, spilled ones are left out until the store has read them back
+   *
+   * @param loadSpilled whether spilled tiles under the clip are requested from the store
+   */
+  public void draw(Canvas target, Paint paint, boolean loadSpilled){
+    if(!target.getClipBounds(mClipBounds)){
+      return;
+    }
+    if(mGrid!=null){
+      // the array, iterating a list would allocate on every frame
+      for (Tile tile : mGrid) {
+        if(Rect.intersects(tile.bounds, mClipBounds)){
+          target.drawBitmap(tile.bitmap, tile.bounds.left, tile.bounds.top, paint);
+        }
+      }
+      return;
+    }
+    int firstColumn = (int) Math.floor(mClipBounds.left/(float) mTileSize);
+    int lastColumn = (int) Math.floor((mClipBounds.right - 1)/(float) mTileSize);
+    int firstRow = (int) Math.floor(mClipBounds.top/(float) mTileSize);
+    int lastRow = (int) Math.floor((mClipBounds.bottom - 1)/(float) mTileSize);
+    if((long) (lastColumn - firstColumn + 1)*(lastRow - firstRow + 1)>mSparse.size()){
+      // zoomed far out the clip spans more tile slots than there are tiles
+      for (int i = 0; i < mSparse.size(); i++) {
+        Tile tile = mSparse.valueAt(i);
+        if(Rect.intersects(tile.bounds, mClipBounds)){
+          drawSparse(target, paint, tile, loadSpilled);
+        }
+      }
+      return;
+    }
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int column = firstColumn; column <= lastColumn; column++) {
+        Tile tile = mSparse.get(TileStore.key(mStoreId, column, row));
+        if(tile!=null){
+          drawSparse(target, paint, tile, loadSpilled);
+        }
+      }
+    }
+  }
+
+  /**
+   * Draws every tile, dirty or not, used to rasterize the whole surface into a single bitmap. Only meant
+   * for bounded canvases, unbounded ones leave out their spilled tiles.
+   */
+  public void compose(Canvas target, Paint paint){
+    for (int i = 0; i < tileCount(); i++) {
+      Tile tile = tileAtIndex(i);
+      Bitmap bitmap = mStore!=null ? mStore.peek(tile) : tile.bitmap;
+      if(bitmap!=null){
+        target.drawBitmap(bitmap, tile.bounds.left, tile.bounds.top, paint);
+      }
+    }
+  }
+
+  public void drawAction(Action action, Bounds bounds, ActionRenderer<Canvas> renderer){
+    int firstColumn = firstColumn(bounds), lastColumn = lastColumn(bounds);
+    int firstRow = firstRow(bounds), lastRow = lastRow(bounds);
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int column = firstColumn; column <= lastColumn; column++) {
+        Tile tile = writable(tileAt(column, row), true);
+        if(tile==null){
+          continue;
+        }
+        tile.canvas.save();
+        tile.canvas.translate(-tile.bounds.left, -tile.bounds.top);
+        renderer.draw(tile.canvas, action);
+        tile.canvas.restore();
+      }
+    }
+  }
+
+  /**
+   * Lets renderer draw over the tiles intersecting bounds, without clearing them first
+   */
+  public void render(Bounds bounds, TileRenderer renderer){
+    render(bounds, renderer, true);
+  }
+
+  /**
+   * Lets renderer paint the tiles intersecting bounds all over, so spilled ones aren't read back first
+   */
+  public void repaint(Bounds bounds, TileRenderer renderer){
+    render(bounds, renderer, false);
+  }
+
+  /**
+   * Lets renderer repaint the dirty tiles of the render area in place, on the calling thread. Used for
+   * the composite, which renders from other tiles and is quick enough for the main thread.
+   */
+  public void renderDirty(TileRenderer renderer){
+    for (int i = 0; i < tileCount(); i++) {
+      Tile tile = tileAtIndex(i);
+      if(tile.dirty && inRenderArea(tile)){
+        renderTile(writable(tile, false), renderer);
+        tile.dirty = false;
+      }
+    }
+  }
+
+  /**
+   * Marks the tiles under bounds for replay, unbounded canvases create the ones they don't have yet
+   */
+  public void invalidate(Bounds bounds){
+    int firstColumn = firstColumn(bounds), lastColumn = lastColumn(bounds);
+    int firstRow = firstRow(bounds), lastRow = lastRow(bounds);
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int column = firstColumn; column <= lastColumn; column++) {
+        tileAt(column, row).dirty = true;
+      }
+    }
+  }
+
+  public void invalidateAll(){
+    for (int i = 0; i < tileCount(); i++) {
+      tileAtIndex(i).dirty = true;
+    }
+  }
+
+  /**
+   * Empties every tile without replaying anything, for when history and base layer were cleared.
+   * Rendering in flight for this canvas must be cancelled first.
+   */
+  public void clear(){
+    if(mStore==null){
+      for (Tile tile : mGrid) {
+        tile.bitmap.eraseColor(Color.TRANSPARENT);
+        tile.dirty = false;
+      }
+      return;
+    }
+    for (int i = 0; i < mSparse.size(); i++) {
+      mStore.remove(mSparse.valueAt(i));
+    }
+    mSparse.clear();
+  }
+
+  /**
+   * Limits the dirty tiles rendered to the ones intersecting area, the others stay dirty until
+   * they are in the area. Unbounded canvases use it to render only around what is in view.
+   *
+   * @param area null to render every dirty tile
+   */
+  public void setRenderArea(Bounds area){
+    mHasRenderArea = area!=null;
+    if(area!=null){
+      mRenderArea.set(area);
+    }
+  }
+
+  /**
+   * @return whether any tile in the render area is dirty
+   */
+  public boolean hasDirtyTiles(){
+    for (int i = 0; i < tileCount(); i++) {
+      Tile tile = tileAtIndex(i);
+      if(tile.dirty && inRenderArea(tile)){
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Pairs every dirty tile of the render area with a back buffer from the pool, already painted with base
+   */
+  public List<TileBuffer> prepareDirtyTiles(Bitmap base, Paint paint){
+    List<TileBuffer> buffers = new ArrayList<>();
+    for (int i = 0; i < tileCount(); i++) {
+      Tile tile = tileAtIndex(i);
+      if(tile.dirty && inRenderArea(tile)){
+        TileBuffer buffer = new TileBuffer(tile, mPool.acquire(tile.bounds.width(), tile.bounds.height(), Bitmap.Config.ARGB_8888));
+        if(base!=null){
+          buffer.canvas.drawBitmap(base, -tile.bounds.left, -tile.bounds.top, paint);
+        }
+        buffers.add(buffer);
+      }
+    }
+    return buffers;
+  }
+
+  /**
+   * Lets renderer draw over a back buffer. Doesn't touch the front tiles, so it is safe off the main thread.
+   */
+  public void render(TileBuffer buffer, TileRenderer renderer){
+    buffer.canvas.save();
+    buffer.canvas.translate(-buffer.tile.bounds.left, -buffer.tile.bounds.top);
+    renderer.renderTile(buffer.canvas, buffer.tile.bounds);
+    buffer.canvas.restore();
+  }
+
+  /**
+   * Makes the rendered back buffers the front tiles, returning the previous bitmaps to the pool
+   */
+  public void swap(List<TileBuffer> buffers){
+    for (TileBuffer buffer : buffers) {
+      Tile tile = buffer.tile;
+      tile.dirty = false;
+      if(mStore==null){
+        mPool.release(tile.bitmap);
+        tile.bitmap = buffer.bitmap;
+        tile.canvas = buffer.canvas;
+      }else if(holds(tile)){
+        mStore.modified(tile);
+        mStore.put(tile, buffer.bitmap, buffer.canvas);
+      }else{
+        // cleared while it was rendered, it must not get back in the store
+        mPool.release(buffer.bitmap);
+      }
+    }
+  }
+
+  public void discard(List<TileBuffer> buffers){
+    for (TileBuffer buffer : buffers) {
+      mPool.release(buffer.bitmap);
+    }
+  }
+
+  /**
+   * @return bytes held by the front tile bitmaps, back buffers in flight aren't counted
+   */
+  public long getByteCount(){
+    long bytes = 0;
+    for (int i = 0; i < tileCount(); i++) {
+      Tile tile = tileAtIndex(i);
+      if(tile.bitmap!=null){
+        bytes += tile.bitmap.getByteCount();
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Hands every tile bitmap back to the pool, the canvas can't be used afterwards
+   */
+  public void release(){
+    if(mStore!=null){
+      clear();
+      return;
+    }
+    for (Tile tile : mGrid) {
+      mPool.release(tile.bitmap);
+    }
+  }
+
+  /**
+   * @return whether tile is one of this canvas', tiles of a cleared unbounded canvas no longer are
+   */
+  public boolean holds(Tile tile){
+    if(mStore==null){
+      return tile.key<mGrid.length && mGrid[(int) tile.key]==tile;
+    }
+    return mSparse.get(tile.key)==tile;
+  }
+
+  private void drawSparse(Canvas target, Paint paint, Tile tile, boolean loadSpilled){
+    Bitmap bitmap = mStore.peek(tile);
+    if(bitmap!=null){
+      target.drawBitmap(bitmap, tile.bounds.left, tile.bounds.top, paint);
+    }else if(loadSpilled){
+      mStore.requestLoad(tile);
+    }
+  }
+
+  private int tileCount(){
+    return mGrid!=null ? mGrid.length : mSparse.size();
+  }
+
+  /**
+   * Walks the tiles by index, iterating a collection would allocate on every frame
+   */
+  private Tile tileAtIndex(int index){
+    return mGrid!=null ? mGrid[index] : mSparse.valueAt(index);
+  }
+
+  private Tile tileAt(int column, int row){
+    if(mStore==null){
+      return mGrid[row*mColumns + column];
+    }
+    long key = TileStore.key(mStoreId, column, row);
+    Tile tile = mSparse.get(key);
+    if(tile==null){
+      int left = column*mTileSize;
+      int top = row*mTileSize;
+      tile = new Tile(new Rect(left, top, left + mTileSize, top + mTileSize), key);
+      mSparse.put(key, tile);
+    }
+    return tile;
+  }
+
+  private void render(Bounds bounds, TileRenderer renderer, boolean keepContents){
+    int firstColumn = firstColumn(bounds), lastColumn = lastColumn(bounds);
+    int firstRow = firstRow(bounds), lastRow = lastRow(bounds);
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int column = firstColumn; column <= lastColumn; column++) {
+        Tile tile = writable(tileAt(column, row), keepContents);
+        if(tile!=null){
+          renderTile(tile, renderer);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param keepContents whether what the tile holds is drawn over, otherwise it is painted all over
+   * @return tile ready to be drawn over, or null for an unbounded tile that is spilled or waiting for
+   *         its replay. Reading it back would block, so it is left to a replay from history, which
+   *         includes whatever was about to be drawn once it is committed.
+   */
+  private Tile writable(Tile tile, boolean keepContents){
+    if(mStore!=null){
+      Bitmap bitmap = mStore.peek(tile);
+      if(bitmap==null && keepContents && (tile.spilled || tile.dirty)){
+        mStore.markForReplay(tile);
+        return null;
+      }
+      if(bitmap==null){
+        mStore.put(tile, mPool.acquire(mTileSize, mTileSize, Bitmap.Config.ARGB_8888), null);
+      }
+      mStore.modified(tile);
+    }
+    return tile;
+  }
+
+  private boolean inRenderArea(Tile tile){
+    return !mHasRenderArea || mRenderArea.intersects(tile.bounds.left, tile.bounds.top, tile.bounds.right, tile.bounds.bottom);
+  }
+
+  private void renderTile(Tile tile, TileRenderer renderer){
+    tile.canvas.save();
+    tile.canvas.translate(-tile.bounds.left, -tile.bounds.top);
+    renderer.renderTile(tile.canvas, tile.bounds);
+    tile.canvas.restore();
+  }
+
+  private int firstColumn(Bounds bounds){
+    return clamp((int) Math.floor(bounds.left/mTileSize), mColumns);
+  }
+
+  private int lastColumn(Bounds bounds){
+    return clamp((int) Math.floor(bounds.right/mTileSize), mColumns);
+  }
+
+  private int firstRow(Bounds bounds){
+    return clamp((int) Math.floor(bounds.top/mTileSize), mRows);
+  }
+
+  private int lastRow(Bounds bounds){
+    return clamp((int) Math.floor(bounds.bottom/mTileSize), mRows);
+  }
+
+  private int clamp(int index, int count){
+    if(mStore!=null){
+      return index;
+    }
+    return Math.max(0, Math.min(index, count - 1));
+  }
+
+  /**
+   * Bitmap and canvas are null while a tile of an unbounded canvas is spilled or was never drawn. The
+   * other fields after dirty are kept by the {@link TileStore}.
+   */
+  static class Tile {
+    final Rect bounds;
+    final long key;
+    Bitmap bitmap;
+    Canvas canvas;
+    boolean dirty;
+    // has a current copy on disk, or one queued to be written
+    boolean spilled;
+    boolean loading;
+    // bumped when drawn over or removed, reads started before are discarded
+    int version;
+
+    Tile(Rect bounds, long key) {
+      this.bounds = bounds;
+      this.key = key;
+    }
+  }
+
+  static class TileBuffer {
+    private final Tile tile;
+    private final Bitmap bitmap;
+    private final Canvas canvas;
+
+    private TileBuffer(Tile tile, Bitmap bitmap) {
+      this.tile = tile;
+      this.bitmap = bitmap;
+      this.canvas = new Canvas(bitmap);
+    }
+
+    public Rect getBounds(){
+      return tile.bounds;
+    }
+  }
+
+  interface TileRenderer {
+    /**
+     * @param canvas canvas translated to view coordinates and limited to the tile
+     * @param tileBounds tile area in view coordinates
+     */
+    void renderTile(Canvas canvas, Rect tileBounds);
+  }
+}
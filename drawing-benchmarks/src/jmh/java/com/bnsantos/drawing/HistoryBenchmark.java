@@ -0,0 +1,82 @@
+package com.bnsantos.drawing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Undo/redo and hit testing against a history of short strokes scattered over a large canvas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HistoryBenchmark {
+  private static final int CANVAS_SIZE = 4096;
+
+  @Param({"100", "1000", "10000"})
+  public int actions;
+
+  private DrawingHistory mHistory;
+  private final List<Action> mFound = new ArrayList<>();
+  private float[] mProbes;
+  private int mProbe;
+
+  @Setup
+  public void setup() {
+    StyleTable styles = new StyleTable();
+    Random random = new Random(42);
+    mHistory = new DrawingHistory();
+    for (int i = 0; i < actions; i++) {
+      Stroke stroke = new Stroke(styles, styles.intern(random.nextInt(), 2f + random.nextInt(20), false, false), true);
+      float x = random.nextFloat()*CANVAS_SIZE;
+      float y = random.nextFloat()*CANVAS_SIZE;
+      stroke.start(x, y, 0);
+      for (int j = 1; j < 32; j++) {
+        stroke.addPoint(x + j*3, y + random.nextFloat()*20, j);
+      }
+      stroke.finish();
+      mHistory.add(stroke);
+    }
+    mProbes = new float[1024];
+    for (int i = 0; i < mProbes.length; i++) {
+      mProbes[i] = random.nextFloat()*CANVAS_SIZE;
+    }
+  }
+
+  @Benchmark
+  public Action undoRedo() {
+    mHistory.undo();
+    return mHistory.redo();
+  }
+
+  @Benchmark
+  public int hitTestPoint() {
+    mFound.clear();
+    mHistory.query(nextProbe(), nextProbe(), mFound);
+    return mFound.size();
+  }
+
+  @Benchmark
+  public int hitTestArea() {
+    float x = nextProbe();
+    float y = nextProbe();
+    mFound.clear();
+    mHistory.query(x, y, x + 256, y + 256, mFound);
+    return mFound.size();
+  }
+
+  private float nextProbe() {
+    mProbe = (mProbe + 1) & (mProbes.length - 1);
+    return mProbes[mProbe];
+  }
+}
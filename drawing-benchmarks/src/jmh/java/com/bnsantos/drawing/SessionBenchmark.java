@@ -0,0 +1,66 @@
+package com.bnsantos.drawing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and restoring a whole session in memory, the cost paid on every journal compaction and on
+ * every restore
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SessionBenchmark {
+  @Param({"100", "1000"})
+  public int actions;
+
+  private StyleTable mStyles;
+  private DrawingHistory mHistory;
+  private byte[] mSession;
+  private ByteArrayOutputStream mOut;
+
+  @Setup
+  public void setup() throws IOException {
+    mStyles = new StyleTable();
+    mHistory = new DrawingHistory();
+    int pencil = mStyles.intern(0xff000000, 8f, false, false);
+    int eraser = mStyles.intern(0, 30f, false, true);
+    for (int i = 0; i < actions; i++) {
+      Stroke stroke = new Stroke(mStyles, i%10==0 ? eraser : pencil, true);
+      stroke.start(0, i, 0);
+      for (int j = 1; j < 200; j++) {
+        stroke.addPoint(StrokeBenchmark.sampleX(j), StrokeBenchmark.sampleY(j) + i, j);
+      }
+      stroke.finish();
+      mHistory.add(stroke);
+    }
+    mOut = new ByteArrayOutputStream();
+    mSession = write();
+  }
+
+  @Benchmark
+  public byte[] write() throws IOException {
+    mOut.reset();
+    DrawingSession.write(new SessionWriter(Channels.newChannel(mOut)), 1080, 1920, null, null, mStyles, mHistory);
+    return mOut.toByteArray();
+  }
+
+  @Benchmark
+  public int read() throws IOException {
+    SessionRestorer restorer = new SessionRestorer(new StyleTable());
+    new SessionReader(Channels.newChannel(new ByteArrayInputStream(mSession))).read(restorer);
+    return restorer.getLayers().getActionCount();
+  }
+}
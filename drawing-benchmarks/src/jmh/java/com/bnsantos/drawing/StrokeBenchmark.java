@@ -0,0 +1,63 @@
+package com.bnsantos.drawing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending touch samples to a stroke and simplifying it once the finger lifts, the work done for
+ * every pencil stroke on the main thread
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StrokeBenchmark {
+  @Param({"64", "1024", "16384"})
+  public int samples;
+
+  private StyleTable mStyles;
+  private int mStyleId;
+  private StrokeSimplifier mSimplifier;
+  private final Bounds mBounds = new Bounds();
+
+  @Setup
+  public void setup() {
+    mStyles = new StyleTable();
+    mStyleId = mStyles.intern(0xff000000, 8f, false, false);
+    mSimplifier = new StrokeSimplifier(1f);
+  }
+
+  @Benchmark
+  public Stroke append() {
+    Stroke stroke = new Stroke(mStyles, mStyleId, true);
+    stroke.start(0, 0, 0);
+    for (int i = 1; i < samples; i++) {
+      stroke.addPoint(sampleX(i), sampleY(i), i);
+      stroke.getLastSegmentBounds(mBounds);
+    }
+    return stroke;
+  }
+
+  @Benchmark
+  public int appendAndSimplify() {
+    Stroke stroke = append();
+    int simplified = mSimplifier.simplify(stroke.points, stroke.smooth);
+    stroke.finish();
+    return simplified;
+  }
+
+  static float sampleX(int i) {
+    return i*0.5f + (float) Math.sin(i*0.05)*40f;
+  }
+
+  static float sampleY(int i) {
+    return 500f + (float) Math.cos(i*0.03)*200f;
+  }
+}
@@ -0,0 +1,14 @@
+package com.bnsantos.drawing;
+
+/**
+ * Committed element of a drawing. Actions are plain geometry plus a style id from a
+ * {@link StyleTable}, rendering is up to the platform.
+ */
+public interface Action{
+  int getStyleId();
+
+  /**
+   * Area touched by this action, including half of the stroke width on every side
+   */
+  void getBounds(Bounds bounds);
+}
@@ -0,0 +1,475 @@
+package com.bnsantos.drawing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the edits made to a drawing, so the work survives the process being killed.
+ *
+ * The journal is a session snapshot plus the records appended after it. Records are encoded on the
+ * caller's thread and handed to a background thread, which batches them and syncs them to storage at
+ * most once per {@link #SYNC_INTERVAL_MS}. Compaction replaces the snapshot and empties the log, so
+ * recovery never replays more than the records since the last compaction. The snapshot can be written
+ * on the background thread too, the caller only captures the state it is written from.
+ *
+ * Every record is framed with its length and a CRC, recovery stops at the first torn or damaged one.
+ * Snapshot and log carry a generation number: a log left behind by a compaction interrupted halfway
+ * belongs to an older generation and is ignored, as the snapshot already includes it.
+ */
+public class ActionJournal implements Closeable {
+  public static final byte RECORD_STYLE = 1;
+  /**
+   * Action without a layer index, only found in journals written before layers and read as layer 0
+   */
+  public static final byte RECORD_ACTION = 2;
+  public static final byte RECORD_UNDO = 3;
+  public static final byte RECORD_REDO = 4;
+  public static final byte RECORD_CLEAR = 5;
+  public static final byte RECORD_LAYER_ACTION = 6;
+
+  static final long SYNC_INTERVAL_MS = 1000;
+  private static final long CLOSE_TIMEOUT_MS = 2000;
+  private static final int MAGIC = 0x5344524a;
+  private static final int HEADER_SIZE = 12;
+
+  private final File mSnapshotFile;
+  private final File mJournalFile;
+  private final ScheduledThreadPoolExecutor mExecutor;
+
+  // encoding, caller thread only
+  private final ByteArrayOutputStream mRecord;
+  private final SessionWriter mRecordWriter;
+  private final CRC32 mCrc;
+
+  // writing, journal thread only
+  private final ByteArrayOutputStream mPending;
+  private FileChannel mChannel;
+  private long mGeneration = -1;
+  private boolean mSyncScheduled;
+  private volatile IOException mFailure;
+
+  public ActionJournal(File directory) {
+    if(!directory.exists() && !directory.mkdirs()){
+      mFailure = new IOException("Can't create " + directory);
+    }
+    mSnapshotFile = new File(directory, "snapshot.sdrw");
+    mJournalFile = new File(directory, "journal.log");
+    mExecutor = new ScheduledThreadPoolExecutor(1, THREAD_FACTORY);
+    // close() syncs right away, a sync still waiting for its interval is redundant then
+    mExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    mRecord = new ByteArrayOutputStream();
+    mRecordWriter = new SessionWriter(Channels.newChannel(mRecord));
+    mCrc = new CRC32();
+    mPending = new ByteArrayOutputStream();
+  }
+
+  /**
+   * Starts a record, its payload is written through the returned writer before {@link #commitRecord()}
+   */
+  public SessionWriter beginRecord(byte type){
+    mRecord.reset();
+    mRecord.write(type);
+    return mRecordWriter;
+  }
+
+  public void commitRecord() throws IOException {
+    mRecordWriter.flush();
+    byte[] payload = mRecord.toByteArray();
+    mCrc.reset();
+    mCrc.update(payload);
+    final ByteBuffer framed = ByteBuffer.allocate(8 + payload.length);
+    framed.putInt(payload.length);
+    framed.putInt((int) mCrc.getValue());
+    framed.put(payload);
+    submit(new Runnable() {
+      @Override
+      public void run() {
+        mPending.write(framed.array(), 0, framed.capacity());
+        if(!mSyncScheduled){
+          mSyncScheduled = true;
+          mExecutor.schedule(mSyncTask, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+      }
+    });
+  }
+
+  public void appendEvent(byte type) throws IOException {
+    beginRecord(type);
+    commitRecord();
+  }
+
+  /**
+   * Makes snapshot the new starting point and drops every record appended before this call
+   *
+   * @param snapshot session written by {@link SessionWriter} with the complete current state
+   */
+  public void compact(final byte[] snapshot){
+    compact(new SnapshotWriter() {
+      @Override
+      public void write(WritableByteChannel channel) throws IOException {
+        writeFully(channel, ByteBuffer.wrap(snapshot));
+      }
+    });
+  }
+
+  /**
+   * Like {@link #compact(byte[])}, but the snapshot is written on the journal thread. It must hold the
+   * state as of this call, records appended afterwards are kept on top of it.
+   *
+   * @return false when the journal is closed and snapshot will never be written
+   */
+  public boolean compact(final SnapshotWriter snapshot){
+    return submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          long generation = currentGeneration() + 1;
+          File temp = new File(mSnapshotFile.getPath() + ".tmp");
+          FileOutputStream out = new FileOutputStream(temp);
+          try {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putLong(generation).flip();
+            writeFully(out.getChannel(), header);
+            snapshot.write(out.getChannel());
+            out.getChannel().force(true);
+          } finally {
+            out.close();
+          }
+          if(!temp.renameTo(mSnapshotFile)){
+            throw new IOException("Can't replace " + mSnapshotFile);
+          }
+          mGeneration = generation;
+
+          mPending.reset();
+          FileChannel channel = openChannel();
+          channel.truncate(0);
+          ByteBuffer journalHeader = ByteBuffer.allocate(HEADER_SIZE);
+          journalHeader.putInt(MAGIC).putLong(generation).flip();
+          writeFully(channel, journalHeader);
+          channel.force(false);
+        } catch (IOException e) {
+          mFailure = e;
+        }
+      }
+    });
+  }
+
+  /**
+   * Writes and syncs the pending records now instead of waiting for the next interval
+   */
+  public void sync(){
+    submit(mSyncTask);
+  }
+
+  /**
+   * Deletes the snapshot and log, once the drawing no longer needs to be recovered
+   */
+  public void discard(){
+    submit(new Runnable() {
+      @Override
+      public void run() {
+        mPending.reset();
+        closeChannel();
+        if((mSnapshotFile.exists() && !mSnapshotFile.delete()) || (mJournalFile.exists() && !mJournalFile.delete())){
+          mFailure = new IOException("Can't delete journal files");
+        }
+        mGeneration = 0;
+      }
+    });
+  }
+
+  /**
+   * Syncs the pending records and waits briefly for the journal thread to finish
+   */
+  @Override
+  public void close(){
+    if(mExecutor.isShutdown()){
+      return;
+    }
+    sync();
+    submit(new Runnable() {
+      @Override
+      public void run() {
+        closeChannel();
+      }
+    });
+    mExecutor.shutdown();
+    try {
+      mExecutor.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return last error hit while writing in the background, journaling is best effort
+   */
+  public IOException getFailure(){
+    return mFailure;
+  }
+
+  /**
+   * @return whether the files left by a previous run hold any drawing. Must be called before
+   *         anything is appended or compacted.
+   */
+  public boolean hasRecoverableSession(){
+    ContentProbe probe = new ContentProbe();
+    try {
+      recover(probe);
+    } catch (IOException e) {
+      return false;
+    }
+    return probe.hasContent;
+  }
+
+  /**
+   * Replays the snapshot and then every intact record of the same generation into replayer. Must be
+   * called before anything is appended or compacted.
+   *
+   * @return false when there was nothing to recover
+   */
+  public boolean recover(Replayer replayer) throws IOException {
+    if(!mSnapshotFile.exists()){
+      return false;
+    }
+    long generation;
+    FileInputStream snapshot = new FileInputStream(mSnapshotFile);
+    try {
+      FileChannel channel = snapshot.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(8);
+      readFully(channel, header);
+      generation = header.getLong(0);
+      new SessionReader(channel).read(replayer);
+    } finally {
+      snapshot.close();
+    }
+
+    if(mJournalFile.length()<HEADER_SIZE){
+      return true;
+    }
+    ByteBuffer records;
+    FileInputStream journal = new FileInputStream(mJournalFile);
+    try {
+      FileChannel channel = journal.getChannel();
+      records = ByteBuffer.allocate((int) channel.size());
+      readFully(channel, records);
+    } finally {
+      journal.close();
+    }
+    records.flip();
+    if(records.getInt()!=MAGIC || records.getLong()!=generation){
+      return true;
+    }
+    CRC32 crc = new CRC32();
+    while (records.remaining()>=8){
+      int length = records.getInt();
+      int checksum = records.getInt();
+      if(length<1 || length>records.remaining()){
+        break;
+      }
+      crc.reset();
+      crc.update(records.array(), records.position(), length);
+      if((int) crc.getValue()!=checksum){
+        break;
+      }
+      ByteBuffer payload = ByteBuffer.wrap(records.array(), records.position(), length).slice();
+      records.position(records.position() + length);
+      replay(payload, replayer);
+    }
+    return true;
+  }
+
+  private void replay(ByteBuffer payload, Replayer replayer) throws IOException {
+    byte type = payload.get();
+    switch (type){
+      case RECORD_STYLE:
+        new SessionReader(payload).readStyle(replayer);
+        break;
+      case RECORD_ACTION:
+        new SessionReader(payload).readAction(replayer, 0, Integer.MAX_VALUE);
+        break;
+      case RECORD_LAYER_ACTION:
+        new SessionReader(payload).readLayerAction(replayer, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        break;
+      case RECORD_UNDO:
+        replayer.onUndo();
+        break;
+      case RECORD_REDO:
+        replayer.onRedo();
+        break;
+      case RECORD_CLEAR:
+        replayer.onClear();
+        break;
+      default:
+        throw new IOException("Unknown journal record " + type);
+    }
+  }
+
+  private final Runnable mSyncTask = new Runnable() {
+    @Override
+    public void run() {
+      mSyncScheduled = false;
+      if(mPending.size()==0){
+        return;
+      }
+      try {
+        FileChannel channel = openChannel();
+        writeFully(channel, ByteBuffer.wrap(mPending.toByteArray()));
+        channel.force(false);
+      } catch (IOException e) {
+        mFailure = e;
+      }
+      mPending.reset();
+    }
+  };
+
+  private boolean submit(Runnable task){
+    if(mExecutor.isShutdown()){
+      return false;
+    }
+    mExecutor.execute(task);
+    return true;
+  }
+
+  private long currentGeneration() throws IOException {
+    if(mGeneration<0){
+      mGeneration = 0;
+      if(mSnapshotFile.length()>=8){
+        FileInputStream in = new FileInputStream(mSnapshotFile);
+        try {
+          ByteBuffer header = ByteBuffer.allocate(8);
+          readFully(in.getChannel(), header);
+          mGeneration = header.getLong(0);
+        } finally {
+          in.close();
+        }
+      }
+    }
+    return mGeneration;
+  }
+
+  private FileChannel openChannel() throws IOException {
+    if(mChannel==null){
+      mChannel = new RandomAccessFile(mJournalFile, "rw").getChannel();
+    }
+    mChannel.position(mChannel.size());
+    return mChannel;
+  }
+
+  private void closeChannel(){
+    if(mChannel!=null){
+      try {
+        mChannel.close();
+      } catch (IOException e) {
+        mFailure = e;
+      }
+      mChannel = null;
+    }
+  }
+
+  private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()){
+      channel.write(buffer);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()){
+      if(channel.read(buffer)<0){
+        throw new IOException("Journal ended early");
+      }
+    }
+  }
+
+  private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "DrawingJournal");
+      thread.setDaemon(true);
+      return thread;
+    }
+  };
+
+  /**
+   * Writes a compaction snapshot on the journal thread
+   */
+  public interface SnapshotWriter {
+    /**
+     * @param channel receives a session written by {@link SessionWriter}, it must be left open
+     */
+    void write(WritableByteChannel channel) throws IOException;
+  }
+
+  /**
+   * Receives the snapshot as a session, then the journaled edits in the order they were made
+   */
+  public interface Replayer extends SessionReader.Handler {
+    void onUndo();
+
+    void onRedo();
+
+    void onClear();
+  }
+
+  private static class ContentProbe implements Replayer {
+    boolean hasContent;
+
+    @Override
+    public void onHeader(int width, int height, String background) {
+    }
+
+    @Override
+    public void onStyle(int color, float width, boolean fill, boolean erase) {
+    }
+
+    @Override
+    public void onLayer(int id, boolean visible, boolean active, float opacity, byte[] baseLayer) {
+      hasContent |= baseLayer!=null;
+    }
+
+    @Override
+    public void onHistory(int actionCount, int undoCount) {
+      hasContent |= actionCount>0;
+    }
+
+    @Override
+    public void onStroke(int layer, int styleId, boolean smooth, StrokePoints points) {
+      hasContent = true;
+    }
+
+    @Override
+    public void onCircle(int layer, int styleId, float centerX, float centerY, float radius) {
+      hasContent = true;
+    }
+
+    @Override
+    public void onRectangle(int layer, int styleId, float left, float top, float right, float bottom) {
+      hasContent = true;
+    }
+
+    @Override
+    public void onUndo() {
+    }
+
+    @Override
+    public void onRedo() {
+    }
+
+    @Override
+    public void onClear() {
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package com.bnsantos.drawing;
+
+/**
+ * Draws actions of the core model on a platform surface, an Android Canvas on the device or a Java2D
+ * Graphics2D on the JVM.
+ *
+ * Implementations look styles up in the {@link StyleTable} the actions were interned into. Erasing
+ * styles clear what is under them instead of painting.
+ *
+ * @param <T> surface drawn on
+ */
+public interface ActionRenderer<T> {
+  /**
+   * @throws IllegalArgumentException for an action type the renderer doesn't know
+   */
+  void draw(T target, Action action);
+}
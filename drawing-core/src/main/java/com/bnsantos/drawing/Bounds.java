@@ -0,0 +1,110 @@
+package com.bnsantos.drawing;
+
+/**
+ * Mutable float rectangle for bounds math, with the same semantics as Android's RectF so actions and
+ * their bounds can be used off the device. Empty when right <= left or bottom <= top.
+ */
+public class Bounds {
+  public float left, top, right, bottom;
+
+  public Bounds() {
+  }
+
+  public Bounds(float left, float top, float right, float bottom) {
+    set(left, top, right, bottom);
+  }
+
+  public void set(float left, float top, float right, float bottom){
+    this.left = left;
+    this.top = top;
+    this.right = right;
+    this.bottom = bottom;
+  }
+
+  public void set(Bounds other){
+    set(other.left, other.top, other.right, other.bottom);
+  }
+
+  public void setEmpty(){
+    set(0, 0, 0, 0);
+  }
+
+  public boolean isEmpty(){
+    return left>=right || top>=bottom;
+  }
+
+  public float width(){
+    return right - left;
+  }
+
+  public float height(){
+    return bottom - top;
+  }
+
+  /**
+   * Grows to include the point, even when currently empty
+   */
+  public void union(float x, float y){
+    if(x<left){
+      left = x;
+    }else if(x>right){
+      right = x;
+    }
+    if(y<top){
+      top = y;
+    }else if(y>bottom){
+      bottom = y;
+    }
+  }
+
+  /**
+   * Grows to include the rectangle, an empty one is ignored and replaces this one when it is empty
+   */
+  public void union(float left, float top, float right, float bottom){
+    if(left>=right || top>=bottom){
+      return;
+    }
+    if(isEmpty()){
+      set(left, top, right, bottom);
+      return;
+    }
+    this.left = Math.min(this.left, left);
+    this.top = Math.min(this.top, top);
+    this.right = Math.max(this.right, right);
+    this.bottom = Math.max(this.bottom, bottom);
+  }
+
+  public void union(Bounds other){
+    union(other.left, other.top, other.right, other.bottom);
+  }
+
+  /**
+   * Moves every side inwards, negative values grow the bounds
+   */
+  public void inset(float dx, float dy){
+    left += dx;
+    top += dy;
+    right -= dx;
+    bottom -= dy;
+  }
+
+  /**
+   * @return whether both are non empty and overlap, touching edges don't count
+   */
+  public boolean intersects(float left, float top, float right, float bottom){
+    return this.left<right && left<this.right && this.top<bottom && top<this.bottom;
+  }
+
+  public boolean intersects(Bounds other){
+    return intersects(other.left, other.top, other.right, other.bottom);
+  }
+
+  public boolean contains(float x, float y){
+    return left<right && top<bottom && x>=left && x<right && y>=top && y<bottom;
+  }
+
+  @Override
+  public String toString() {
+    return "Bounds(" + left + ", " + top + ", " + right + ", " + bottom + ")";
+  }
+}
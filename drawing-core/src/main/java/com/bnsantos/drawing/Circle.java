@@ -0,0 +1,38 @@
+package com.bnsantos.drawing;
+
+/**
+ * Circle dragged from one point to the opposite side of its diameter
+ */
+public class Circle implements Action {
+  public final StyleTable styles;
+  public final int styleId;
+  public float centerX, centerY;
+  public float startX, startY;
+  public float radius;
+
+  public Circle(StyleTable styles, int styleId, float x, float y) {
+    this.styles = styles;
+    this.styleId = styleId;
+    this.startX = x;
+    this.startY = y;
+    this.centerX = x;
+    this.centerY = y;
+  }
+
+  public void setRadius(float currentX, float currentY) {
+    this.radius = (float) Math.sqrt(Math.pow(startX - currentX, 2) + Math.pow(startY- currentY, 2))/2.0f;
+    this.centerX = (this.startX + currentX)/2.0f;
+    this.centerY = (this.startY + currentY)/2.0f;
+  }
+
+  @Override
+  public int getStyleId() {
+    return styleId;
+  }
+
+  @Override
+  public void getBounds(Bounds bounds) {
+    float extent = radius + styles.getWidth(styleId)/2.0f;
+    bounds.set(centerX - extent, centerY - extent, centerX + extent, centerY + extent);
+  }
+}
@@ -0,0 +1,187 @@
+package com.bnsantos.drawing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Undo and redo stacks of a drawing, with a {@link SpatialGrid} over the committed actions for hit
+ * testing and an estimate of the memory they hold.
+ *
+ * Positions count from the oldest committed action. Not thread safe, readers on other threads work
+ * on a copy from {@link #copyActions()}.
+ */
+public class DrawingHistory {
+  static final int ACTION_OVERHEAD_BYTES = 48;
+
+  private final List<Action> mActions = new ArrayList<>();
+  private final List<Action> mUndone = new ArrayList<>();
+  private final SpatialGrid<Action> mIndex = new SpatialGrid<>();
+  private final Bounds mBounds = new Bounds();
+  private long mBytes;
+
+  /**
+   * Appends a committed action, the redo stack is left as it is
+   */
+  public void add(Action action){
+    mActions.add(action);
+    mBytes += estimateBytes(action);
+    action.getBounds(mBounds);
+    mIndex.insert(action, mBounds.left, mBounds.top, mBounds.right, mBounds.bottom);
+  }
+
+  /**
+   * @return the action moved to the redo stack, null when there was none
+   */
+  public Action undo(){
+    if(mActions.isEmpty()){
+      return null;
+    }
+    Action action = mActions.remove(mActions.size() - 1);
+    mBytes -= estimateBytes(action);
+    mIndex.remove(action);
+    mUndone.add(action);
+    return action;
+  }
+
+  /**
+   * @return the action committed again, null when there was none
+   */
+  public Action redo(){
+    if(mUndone.isEmpty()){
+      return null;
+    }
+    Action action = mUndone.remove(mUndone.size() - 1);
+    add(action);
+    return action;
+  }
+
+  /**
+   * Puts an action on top of the redo stack, when restoring a saved one
+   */
+  void pushUndone(Action action){
+    mUndone.add(action);
+  }
+
+  public void clearRedo(){
+    mUndone.clear();
+  }
+
+  public void clear(){
+    mActions.clear();
+    mUndone.clear();
+    mIndex.clear();
+    mBytes = 0;
+  }
+
+  /**
+   * Replaces both stacks, oldest first
+   */
+  public void set(List<Action> actions, List<Action> undone){
+    clear();
+    for (Action action : actions) {
+      add(action);
+    }
+    mUndone.addAll(undone);
+  }
+
+  /**
+   * Drops the oldest count actions, once they have been flattened somewhere else
+   */
+  public void removeOldest(int count){
+    List<Action> removed = mActions.subList(0, count);
+    for (Action action : removed) {
+      mIndex.remove(action);
+      mBytes -= estimateBytes(action);
+    }
+    removed.clear();
+  }
+
+  /**
+   * @return how many of the oldest actions to flatten to bring the history back within policy,
+   *         always keeping the newest one
+   */
+  public int countToFlatten(HistoryPolicy policy){
+    if(!policy.isExceeded(mActions.size(), mBytes)){
+      return 0;
+    }
+    int count = 0;
+    long bytes = mBytes;
+    while (count < mActions.size() - 1 && !policy.isWithinTarget(mActions.size() - count, bytes)){
+      bytes -= estimateBytes(mActions.get(count));
+      count++;
+    }
+    return count;
+  }
+
+  public int size(){
+    return mActions.size();
+  }
+
+  public Action get(int position){
+    return mActions.get(position);
+  }
+
+  public boolean canUndo(){
+    return !mActions.isEmpty();
+  }
+
+  public boolean canRedo(){
+    return !mUndone.isEmpty();
+  }
+
+  /**
+   * @return read only view of the committed actions, oldest first
+   */
+  public List<Action> getActions(){
+    return Collections.unmodifiableList(mActions);
+  }
+
+  /**
+   * @return read only view of the redo stack, bottom first
+   */
+  public List<Action> getUndone(){
+    return Collections.unmodifiableList(mUndone);
+  }
+
+  public List<Action> copyActions(){
+    return new ArrayList<>(mActions);
+  }
+
+  /**
+   * @return estimated memory held by the committed actions
+   */
+  public long getByteCount(){
+    return mBytes;
+  }
+
+  public long getUndoneByteCount(){
+    long bytes = 0;
+    for (Action action : mUndone) {
+      bytes += estimateBytes(action);
+    }
+    return bytes;
+  }
+
+  /**
+   * Committed actions whose bounds intersect the area, oldest first
+   */
+  public void query(float left, float top, float right, float bottom, Collection<? super Action> out){
+    mIndex.query(left, top, right, bottom, out);
+  }
+
+  /**
+   * Committed actions whose bounds contain the point, oldest first
+   */
+  public void query(float x, float y, Collection<? super Action> out){
+    mIndex.query(x, y, out);
+  }
+
+  public static long estimateBytes(Action action){
+    if(action instanceof Stroke){
+      return ACTION_OVERHEAD_BYTES + ((Stroke) action).points.capacity()*8L;
+    }
+    return ACTION_OVERHEAD_BYTES;
+  }
+}
@@ -0,0 +1,119 @@
+package com.bnsantos.drawing;
+
+/**
+ * Field performance of a drawing view, collected in {@link Histogram}s.
+ *
+ * Disabled by default. While disabled the recording sites skip reading the clock as well, so the
+ * only cost left is a volatile read. Histograms may be read from any thread at any time.
+ */
+public class DrawingMetrics {
+  private volatile boolean mEnabled;
+
+  private final Histogram mInputLatencyMicros = new Histogram();
+  private final Histogram mDrawMicros = new Histogram();
+  private final Histogram mReplayMicros = new Histogram();
+  private final Histogram mReplayedActions = new Histogram();
+  private final Histogram mEncodeMillis = new Histogram();
+  private final Histogram mBitmapAllocationBytes = new Histogram();
+
+  public boolean isEnabled(){
+    return mEnabled;
+  }
+
+  public void setEnabled(boolean enabled){
+    mEnabled = enabled;
+  }
+
+  /**
+   * @return time from a touch event to the start of the next frame drawn after it
+   */
+  public Histogram getInputLatencyMicros(){
+    return mInputLatencyMicros;
+  }
+
+  /**
+   * @return time spent in onDraw
+   */
+  public Histogram getDrawMicros(){
+    return mDrawMicros;
+  }
+
+  /**
+   * @return time spent replaying history into a tile in the background
+   */
+  public Histogram getReplayMicros(){
+    return mReplayMicros;
+  }
+
+  /**
+   * @return actions replayed into each tile
+   */
+  public Histogram getReplayedActions(){
+    return mReplayedActions;
+  }
+
+  /**
+   * @return time taken to write each export
+   */
+  public Histogram getEncodeMillis(){
+    return mEncodeMillis;
+  }
+
+  /**
+   * @return size of every bitmap allocated instead of taken from the pool, the count is the number
+   *         of allocations
+   */
+  public Histogram getBitmapAllocationBytes(){
+    return mBitmapAllocationBytes;
+  }
+
+  void recordInputLatency(long nanos){
+    if(mEnabled){
+      mInputLatencyMicros.record(nanos/1000);
+    }
+  }
+
+  void recordDraw(long nanos){
+    if(mEnabled){
+      mDrawMicros.record(nanos/1000);
+    }
+  }
+
+  void recordReplay(long nanos, int actions){
+    if(mEnabled){
+      mReplayMicros.record(nanos/1000);
+      mReplayedActions.record(actions);
+    }
+  }
+
+  public void recordEncode(long millis){
+    if(mEnabled){
+      mEncodeMillis.record(millis);
+    }
+  }
+
+  void recordBitmapAllocation(long bytes){
+    if(mEnabled){
+      mBitmapAllocationBytes.record(bytes);
+    }
+  }
+
+  public void reset(){
+    mInputLatencyMicros.reset();
+    mDrawMicros.reset();
+    mReplayMicros.reset();
+    mReplayedActions.reset();
+    mEncodeMillis.reset();
+    mBitmapAllocationBytes.reset();
+  }
+
+  @Override
+  public String toString() {
+    return "input latency us: " + mInputLatencyMicros
+        + "\ndraw us: " + mDrawMicros
+        + "\nreplay us: " + mReplayMicros
+        + "\nreplayed actions: " + mReplayedActions
+        + "\nencode ms: " + mEncodeMillis
+        + "\nbitmap allocations: " + mBitmapAllocationBytes;
+  }
+}
@@ -0,0 +1,106 @@
+package com.bnsantos.drawing;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a whole drawing, styles, layers, history and redo stack, through a {@link SessionWriter}.
+ * {@link SessionRestorer} reads it back.
+ */
+public final class DrawingSession {
+
+  private DrawingSession() {
+  }
+
+  /**
+   * Writes a drawing made of a single layer
+   *
+   * @param background reference to the image under the drawing, may be null
+   * @param baseLayer PNG of the actions flattened out of the history, may be null
+   */
+  public static void write(SessionWriter writer, int width, int height, String background, byte[] baseLayer,
+                           StyleTable styles, DrawingHistory history) throws IOException {
+    writer.writeHeader(width, height, background);
+    writeStyles(writer, styles);
+    writer.writeLayerCount(1);
+    writer.writeLayer(0, true, true, 1f, baseLayer);
+    List<Action> actions = history.getActions();
+    List<Action> undone = history.getUndone();
+    writer.writeHistory(actions.size(), undone.size());
+    for (Action action : actions) {
+      writeAction(writer, 0, action);
+    }
+    for (Action action : undone) {
+      writeAction(writer, 0, action);
+    }
+    writer.close();
+  }
+
+  /**
+   * @param background reference to the image under the drawing, may be null
+   * @param baseLayers PNG of the actions flattened out of each layer's history, in layer order.
+   *                   Entries may be null.
+   */
+  public static void write(SessionWriter writer, int width, int height, String background, StyleTable styles,
+                           LayerStack layers, List<byte[]> baseLayers) throws IOException {
+    write(writer, new SessionSnapshot(width, height, background, styles, layers), baseLayers);
+  }
+
+  /**
+   * Writes a drawing as it was when snapshot was taken, safe on any thread
+   *
+   * @param baseLayers PNG of the actions flattened out of each layer's history when the snapshot was
+   *                   taken, in layer order. Entries may be null.
+   */
+  public static void write(SessionWriter writer, SessionSnapshot snapshot, List<byte[]> baseLayers) throws IOException {
+    writer.writeHeader(snapshot.width, snapshot.height, snapshot.background);
+    writer.writeStyleCount(snapshot.colors.length);
+    for (int i = 0; i < snapshot.colors.length; i++) {
+      writer.writeStyle(snapshot.colors[i], snapshot.widths[i], snapshot.fills[i], snapshot.erases[i]);
+    }
+    int layerCount = snapshot.getLayerCount();
+    writer.writeLayerCount(layerCount);
+    for (int i = 0; i < layerCount; i++) {
+      writer.writeLayer(snapshot.layerIds[i], snapshot.visible[i], i==snapshot.activeLayer, snapshot.opacities[i], baseLayers.get(i));
+    }
+
+    // every layer holds its own actions, the stack knows in what order they were made
+    writer.writeHistory(snapshot.commitOrder.length, snapshot.redoOrder.length);
+    int[] next = new int[layerCount];
+    for (int index : snapshot.commitOrder) {
+      writeAction(writer, index, snapshot.actions.get(index).get(next[index]++));
+    }
+    Arrays.fill(next, 0);
+    for (int index : snapshot.redoOrder) {
+      writeAction(writer, index, snapshot.undone.get(index).get(next[index]++));
+    }
+    writer.close();
+  }
+
+  private static void writeStyles(SessionWriter writer, StyleTable styles) throws IOException {
+    writer.writeStyleCount(styles.size());
+    for (int i = 0; i < styles.size(); i++) {
+      writer.writeStyle(styles.getColor(i), styles.getWidth(i), styles.isFill(i), styles.isErase(i));
+    }
+  }
+
+  /**
+   * @param layer position of the action's layer, 0 being the bottom
+   */
+  public static void writeAction(SessionWriter writer, int layer, Action action) throws IOException {
+    writer.writeLayerIndex(layer);
+    if(action instanceof Stroke){
+      Stroke stroke = (Stroke) action;
+      writer.writeStroke(stroke.styleId, stroke.smooth, stroke.points);
+    }else if(action instanceof Circle){
+      Circle circle = (Circle) action;
+      writer.writeCircle(circle.styleId, circle.centerX, circle.centerY, circle.radius);
+    }else if(action instanceof Rectangle){
+      Rectangle rectangle = (Rectangle) action;
+      writer.writeRectangle(rectangle.styleId, rectangle.left(), rectangle.top(), rectangle.right(), rectangle.bottom());
+    }else{
+      throw new IOException("Can't save " + action.getClass().getSimpleName());
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.bnsantos.drawing;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative long values, safe to record into from any thread.
+ *
+ * Values below {@link #LINEAR_LIMIT} get a bucket each, larger ones share {@link #SUB_BUCKETS}
+ * buckets per power of two, so any value is reported within 12.5% of what was recorded. Recording is
+ * a couple of atomic increments and never allocates. Reads aren't a consistent snapshot while other
+ * threads keep recording, which is fine for monitoring.
+ */
+public class Histogram {
+  static final int LINEAR_LIMIT = 16;
+  static final int SUB_BUCKETS = 8;
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - 4)*SUB_BUCKETS;
+
+  private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong mCount = new AtomicLong();
+  private final AtomicLong mSum = new AtomicLong();
+  private final AtomicLong mMax = new AtomicLong();
+
+  public void record(long value){
+    if(value<0){
+      value = 0;
+    }
+    mBuckets.incrementAndGet(bucketOf(value));
+    mCount.incrementAndGet();
+    mSum.addAndGet(value);
+    long max = mMax.get();
+    while (value>max && !mMax.compareAndSet(max, value)){
+      max = mMax.get();
+    }
+  }
+
+  public long getCount(){
+    return mCount.get();
+  }
+
+  public long getMax(){
+    return mMax.get();
+  }
+
+  public double getMean(){
+    long count = mCount.get();
+    return count>0 ? mSum.get()/(double) count : 0;
+  }
+
+  /**
+   * @param percentile 0-100
+   * @return upper bound of the bucket holding that percentile, never above the max, 0 when empty
+   */
+  public long getPercentile(double percentile){
+    long count = mCount.get();
+    if(count==0){
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(count*Math.min(percentile, 100)/100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += mBuckets.get(i);
+      if(seen>=rank){
+        return Math.min(upperBoundOf(i), mMax.get());
+      }
+    }
+    return mMax.get();
+  }
+
+  /**
+   * Clears every value, values recorded concurrently may be kept or dropped
+   */
+  public void reset(){
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      mBuckets.set(i, 0);
+    }
+    mCount.set(0);
+    mSum.set(0);
+    mMax.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + " p50=" + getPercentile(50) + " p90=" + getPercentile(90)
+        + " p99=" + getPercentile(99) + " max=" + getMax();
+  }
+
+  static int bucketOf(long value){
+    if(value<LINEAR_LIMIT){
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_LIMIT + (exponent - 4)*SUB_BUCKETS + subBucket;
+  }
+
+  static long upperBoundOf(int bucket){
+    if(bucket<LINEAR_LIMIT){
+      return bucket;
+    }
+    int exponent = (bucket - LINEAR_LIMIT)/SUB_BUCKETS + 4;
+    long subBucket = (bucket - LINEAR_LIMIT)%SUB_BUCKETS;
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return (1L << exponent) + (subBucket + 1)*width - 1;
+  }
+}
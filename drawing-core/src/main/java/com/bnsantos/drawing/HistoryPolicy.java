@@ -0,0 +1,47 @@
+package com.bnsantos.drawing;
+
+/**
+ * Limits on how much undoable history a drawing keeps, by number of actions and by their estimated
+ * size in memory.
+ *
+ * Once either limit is exceeded the oldest actions are flattened into the base layer until the
+ * history is back to three quarters of both limits, so flattening happens in batches instead of on
+ * every new action. Has no Android dependencies.
+ */
+public class HistoryPolicy {
+  public static final HistoryPolicy UNBOUNDED = new HistoryPolicy(Integer.MAX_VALUE, Long.MAX_VALUE);
+
+  private final int mMaxActions;
+  private final long mMaxBytes;
+
+  public HistoryPolicy(int maxActions, long maxBytes) {
+    if(maxActions<1 || maxBytes<1){
+      throw new IllegalArgumentException("Limits must be positive");
+    }
+    mMaxActions = maxActions;
+    mMaxBytes = maxBytes;
+  }
+
+  public int getMaxActions(){
+    return mMaxActions;
+  }
+
+  public long getMaxBytes(){
+    return mMaxBytes;
+  }
+
+  public boolean isExceeded(int actionCount, long bytes){
+    return actionCount>mMaxActions || bytes>mMaxBytes;
+  }
+
+  /**
+   * @return whether a history of this size can stop flattening
+   */
+  public boolean isWithinTarget(int actionCount, long bytes){
+    return actionCount<=target(mMaxActions) && bytes<=target(mMaxBytes);
+  }
+
+  private static long target(long limit){
+    return Math.max(1, limit - limit/4);
+  }
+}
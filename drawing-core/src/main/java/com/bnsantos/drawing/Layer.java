@@ -0,0 +1,49 @@
+package com.bnsantos.drawing;
+
+/**
+ * One layer of a drawing: its own history, drawn and erased independently of the other layers, and
+ * how it is composed over the layers below it. Has no Android dependencies.
+ */
+public class Layer {
+  private final int mId;
+  private final DrawingHistory mHistory = new DrawingHistory();
+  private boolean mVisible = true;
+  private float mOpacity = 1f;
+
+  /**
+   * @param id stays the same when layers are reordered, unique within a {@link LayerStack}
+   */
+  public Layer(int id) {
+    mId = id;
+  }
+
+  public int getId(){
+    return mId;
+  }
+
+  /**
+   * Changed through the owning {@link LayerStack}, which keeps the order of edits across layers
+   */
+  public DrawingHistory getHistory(){
+    return mHistory;
+  }
+
+  public boolean isVisible(){
+    return mVisible;
+  }
+
+  public void setVisible(boolean visible){
+    mVisible = visible;
+  }
+
+  public float getOpacity(){
+    return mOpacity;
+  }
+
+  /**
+   * @param opacity clamped to 0, fully transparent, to 1, opaque
+   */
+  public void setOpacity(float opacity){
+    mOpacity = Math.max(0f, Math.min(opacity, 1f));
+  }
+}
@@ -0,0 +1,24 @@
+package com.bnsantos.drawing;
+
+import java.util.List;
+
+/**
+ * Copy of what a layer shows, handed to exports that run off the main thread
+ */
+public class LayerContent {
+  /**
+   * Committed actions, oldest first, not modified afterwards
+   */
+  public final List<Action> actions;
+  public final float opacity;
+  /**
+   * PNG of the actions flattened out of the layer's history, null when there is none
+   */
+  public final byte[] baseLayer;
+
+  public LayerContent(List<Action> actions, float opacity, byte[] baseLayer) {
+    this.actions = actions;
+    this.opacity = opacity;
+    this.baseLayer = baseLayer;
+  }
+}
@@ -0,0 +1,311 @@
+package com.bnsantos.drawing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered layers of a drawing, bottom first, with a single undo and redo order across all of them.
+ *
+ * Every layer keeps its own {@link DrawingHistory}, so replaying a layer never touches the actions of
+ * the others. The stack records which layer each committed and undone action belongs to, so undo
+ * always takes back the newest edit whatever layer it was made on, and the history policy bounds
+ * the actions of every layer together. Not thread safe.
+ */
+public class LayerStack {
+  private final List<Layer> mLayers = new ArrayList<>();
+  // layer of every committed action, oldest first
+  private final List<Layer> mCommitOrder = new ArrayList<>();
+  // layer of every undone action, bottom of the redo stack first
+  private final List<Layer> mRedoOrder = new ArrayList<>();
+  private Layer mActive;
+  private int mNextId;
+
+  /**
+   * Starts with a single empty layer
+   */
+  public LayerStack() {
+    this(Collections.singletonList(new Layer(0)), null);
+  }
+
+  /**
+   * @param layers bottom first, at least one
+   * @param active layer edits go to, null for the top one
+   */
+  LayerStack(List<Layer> layers, Layer active) {
+    if(layers.isEmpty()){
+      throw new IllegalArgumentException("A drawing has at least one layer");
+    }
+    for (Layer layer : layers) {
+      mLayers.add(layer);
+      mNextId = Math.max(mNextId, layer.getId() + 1);
+    }
+    mActive = active!=null ? active : mLayers.get(mLayers.size() - 1);
+  }
+
+  /**
+   * @return new empty layer on top of the others
+   */
+  public Layer addLayer(){
+    Layer layer = new Layer(mNextId++);
+    mLayers.add(layer);
+    return layer;
+  }
+
+  /**
+   * Drops layer with all its actions, undone ones included. The layer below becomes the active one
+   * when it was.
+   *
+   * @throws IllegalStateException when it is the only layer
+   */
+  public void removeLayer(Layer layer){
+    int index = mLayers.indexOf(layer);
+    if(index<0){
+      return;
+    }
+    if(mLayers.size()==1){
+      throw new IllegalStateException("Can't remove the only layer");
+    }
+    mLayers.remove(index);
+    mCommitOrder.removeAll(Collections.singleton(layer));
+    mRedoOrder.removeAll(Collections.singleton(layer));
+    if(mActive==layer){
+      mActive = mLayers.get(Math.max(0, index - 1));
+    }
+  }
+
+  /**
+   * @param position new index of layer, 0 being the bottom
+   */
+  public void moveLayer(Layer layer, int position){
+    if(mLayers.remove(layer)){
+      mLayers.add(Math.max(0, Math.min(position, mLayers.size())), layer);
+    }
+  }
+
+  public int size(){
+    return mLayers.size();
+  }
+
+  public Layer get(int index){
+    return mLayers.get(index);
+  }
+
+  public int indexOf(Layer layer){
+    return mLayers.indexOf(layer);
+  }
+
+  /**
+   * @return read only view of the layers, bottom first
+   */
+  public List<Layer> getLayers(){
+    return Collections.unmodifiableList(mLayers);
+  }
+
+  public Layer getActive(){
+    return mActive;
+  }
+
+  public void setActive(Layer layer){
+    if(mLayers.contains(layer)){
+      mActive = layer;
+    }
+  }
+
+  /**
+   * Appends a new action to layer, dropping the redo stacks of every layer
+   */
+  public void commit(Layer layer, Action action){
+    layer.getHistory().add(action);
+    mCommitOrder.add(layer);
+    clearRedo();
+  }
+
+  /**
+   * @return layer whose newest action moved to its redo stack, null when there was nothing to undo
+   */
+  public Layer undo(){
+    if(mCommitOrder.isEmpty()){
+      return null;
+    }
+    Layer layer = mCommitOrder.remove(mCommitOrder.size() - 1);
+    layer.getHistory().undo();
+    mRedoOrder.add(layer);
+    return layer;
+  }
+
+  /**
+   * @return layer whose last undone action was committed again, null when there was nothing to redo
+   */
+  public Layer redo(){
+    if(mRedoOrder.isEmpty()){
+      return null;
+    }
+    Layer layer = mRedoOrder.remove(mRedoOrder.size() - 1);
+    layer.getHistory().redo();
+    mCommitOrder.add(layer);
+    return layer;
+  }
+
+  public void clearRedo(){
+    for (Layer layer : mLayers) {
+      layer.getHistory().clearRedo();
+    }
+    mRedoOrder.clear();
+  }
+
+  /**
+   * Empties the history of every layer, the layers themselves stay
+   */
+  public void clear(){
+    for (Layer layer : mLayers) {
+      layer.getHistory().clear();
+    }
+    mCommitOrder.clear();
+    mRedoOrder.clear();
+  }
+
+  public boolean canUndo(){
+    return !mCommitOrder.isEmpty();
+  }
+
+  public boolean canRedo(){
+    return !mRedoOrder.isEmpty();
+  }
+
+  /**
+   * @return committed actions across every layer
+   */
+  public int getActionCount(){
+    return mCommitOrder.size();
+  }
+
+  /**
+   * @return read only view of the layer of every committed action, oldest first
+   */
+  public List<Layer> getCommitOrder(){
+    return Collections.unmodifiableList(mCommitOrder);
+  }
+
+  /**
+   * @return read only view of the layer of every undone action, bottom of the redo stack first
+   */
+  public List<Layer> getRedoOrder(){
+    return Collections.unmodifiableList(mRedoOrder);
+  }
+
+  /**
+   * @return estimated memory held by the committed actions of every layer
+   */
+  public long getByteCount(){
+    long bytes = 0;
+    for (Layer layer : mLayers) {
+      bytes += layer.getHistory().getByteCount();
+    }
+    return bytes;
+  }
+
+  public long getUndoneByteCount(){
+    long bytes = 0;
+    for (Layer layer : mLayers) {
+      bytes += layer.getHistory().getUndoneByteCount();
+    }
+    return bytes;
+  }
+
+  /**
+   * @return how many of the oldest actions, whatever their layer, to flatten to bring the history
+   *         back within policy, always keeping the newest one
+   */
+  public int countToFlatten(HistoryPolicy policy){
+    int actions = mCommitOrder.size();
+    long bytes = getByteCount();
+    if(!policy.isExceeded(actions, bytes)){
+      return 0;
+    }
+    int[] next = new int[mLayers.size()];
+    int count = 0;
+    while (count < actions - 1 && !policy.isWithinTarget(actions - count, bytes)){
+      bytes -= DrawingHistory.estimateBytes(nextOldest(count, next));
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * @return how many of the oldest actions hold at least bytes, or all but the newest one when they
+   *         hold less
+   */
+  public int countToRelease(long bytes){
+    int[] next = new int[mLayers.size()];
+    int count = 0;
+    long released = 0;
+    while (count < mCommitOrder.size() - 1 && released < bytes){
+      released += DrawingHistory.estimateBytes(nextOldest(count, next));
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * @return estimated memory held by the oldest count actions
+   */
+  public long getOldestByteCount(int count){
+    int[] next = new int[mLayers.size()];
+    long bytes = 0;
+    for (int i = 0; i < count; i++) {
+      bytes += DrawingHistory.estimateBytes(nextOldest(i, next));
+    }
+    return bytes;
+  }
+
+  /**
+   * @return how many of the oldest count actions belong to layer, they are its oldest ones
+   */
+  public int countOldest(Layer layer, int count){
+    int found = 0;
+    for (int i = 0; i < count; i++) {
+      if(mCommitOrder.get(i)==layer){
+        found++;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Drops the oldest count actions from their layers, once they have been flattened somewhere else
+   */
+  public void removeOldest(int count){
+    for (Layer layer : mLayers) {
+      int found = countOldest(layer, count);
+      if(found>0){
+        layer.getHistory().removeOldest(found);
+      }
+    }
+    mCommitOrder.subList(0, count).clear();
+  }
+
+  /**
+   * Appends a saved committed action without touching the redo stacks
+   */
+  void restore(Layer layer, Action action){
+    layer.getHistory().add(action);
+    mCommitOrder.add(layer);
+  }
+
+  /**
+   * Pushes a saved undone action on top of the redo stack
+   */
+  void restoreUndone(Layer layer, Action action){
+    layer.getHistory().pushUndone(action);
+    mRedoOrder.add(layer);
+  }
+
+  /**
+   * @param next per layer index, how many of its actions were already walked
+   */
+  private Action nextOldest(int position, int[] next){
+    int index = mLayers.indexOf(mCommitOrder.get(position));
+    return mLayers.get(index).getHistory().get(next[index]++);
+  }
+}
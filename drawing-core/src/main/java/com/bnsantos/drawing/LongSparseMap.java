@@ -0,0 +1,77 @@
+package com.bnsantos.drawing;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive long keys to values, kept as sorted key and value arrays.
+ *
+ * Looking a key up is a binary search that neither boxes the key nor allocates, so it can run on
+ * every frame, and values are walked by index in key order without an iterator. Insertions shift
+ * the arrays, which suits maps written far less often than they are read. Single keys can't be
+ * removed, only the whole map cleared. Not thread safe. Has no Android dependencies.
+ */
+public class LongSparseMap<V> {
+  private long[] mKeys;
+  private Object[] mValues;
+  private int mSize;
+
+  public LongSparseMap() {
+    this(16);
+  }
+
+  public LongSparseMap(int capacity) {
+    mKeys = new long[Math.max(1, capacity)];
+    mValues = new Object[mKeys.length];
+  }
+
+  /**
+   * @return value stored under key, null when there's none
+   */
+  @SuppressWarnings("unchecked")
+  public V get(long key){
+    int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+    return index>=0 ? (V) mValues[index] : null;
+  }
+
+  /**
+   * Stores value under key, replacing what was stored there
+   */
+  public void put(long key, V value){
+    int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+    if(index>=0){
+      mValues[index] = value;
+      return;
+    }
+    index = -index - 1;
+    if(mSize==mKeys.length){
+      mKeys = Arrays.copyOf(mKeys, mSize*2);
+      mValues = Arrays.copyOf(mValues, mSize*2);
+    }
+    System.arraycopy(mKeys, index, mKeys, index + 1, mSize - index);
+    System.arraycopy(mValues, index, mValues, index + 1, mSize - index);
+    mKeys[index] = key;
+    mValues[index] = value;
+    mSize++;
+  }
+
+  public int size(){
+    return mSize;
+  }
+
+  /**
+   * @param index from 0 to size() - 1, keys are in ascending order
+   */
+  public long keyAt(int index){
+    return mKeys[index];
+  }
+
+  @SuppressWarnings("unchecked")
+  public V valueAt(int index){
+    return (V) mValues[index];
+  }
+
+  public void clear(){
+    Arrays.fill(mValues, 0, mSize, null);
+    mSize = 0;
+  }
+}
@@ -0,0 +1,95 @@
+package com.bnsantos.drawing;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the memory held by a drawing within a budget.
+ *
+ * Consumers report the bytes they hold and are only used for accounting. While the total exceeds the
+ * budget, degradations are tried in the order they were added, each one told how many bytes are
+ * over, so dropping caches comes before losing undo history or image quality. Has no Android
+ * dependencies.
+ */
+public class MemoryGovernor {
+  private final Map<String, Consumer> mConsumers = new LinkedHashMap<>();
+  private final List<Degradation> mDegradations = new ArrayList<>();
+  private long mBudgetBytes;
+  private int mDegradationCount;
+
+  public MemoryGovernor(long budgetBytes) {
+    mBudgetBytes = budgetBytes;
+  }
+
+  public void addConsumer(String name, Consumer consumer){
+    mConsumers.put(name, consumer);
+  }
+
+  public void addDegradation(Degradation degradation){
+    mDegradations.add(degradation);
+  }
+
+  public void setBudgetBytes(long budgetBytes){
+    mBudgetBytes = budgetBytes;
+  }
+
+  public long getBudgetBytes(){
+    return mBudgetBytes;
+  }
+
+  public long getUsedBytes(){
+    long used = 0;
+    for (Consumer consumer : mConsumers.values()) {
+      used += consumer.getByteCount();
+    }
+    return used;
+  }
+
+  /**
+   * @return bytes held by each consumer, in the order they were added
+   */
+  public Map<String, Long> getUsage(){
+    Map<String, Long> usage = new LinkedHashMap<>();
+    for (Map.Entry<String, Consumer> entry : mConsumers.entrySet()) {
+      usage.put(entry.getKey(), entry.getValue().getByteCount());
+    }
+    return usage;
+  }
+
+  /**
+   * @return how many times a degradation released memory so far
+   */
+  public int getDegradationCount(){
+    return mDegradationCount;
+  }
+
+  /**
+   * Runs the degradations in order until usage fits the budget or none is left
+   *
+   * @return whether usage fits the budget afterwards
+   */
+  public boolean enforce(){
+    long excess = getUsedBytes() - mBudgetBytes;
+    for (int i = 0; i < mDegradations.size() && excess>0; i++) {
+      if(mDegradations.get(i).reclaim(excess)){
+        mDegradationCount++;
+        excess = getUsedBytes() - mBudgetBytes;
+      }
+    }
+    return excess<=0;
+  }
+
+  public interface Consumer {
+    long getByteCount();
+  }
+
+  public interface Degradation {
+    /**
+     * @param excessBytes how far usage is over the budget, releasing less is fine
+     * @return whether anything was released
+     */
+    boolean reclaim(long excessBytes);
+  }
+}
@@ -0,0 +1,169 @@
+package com.bnsantos.drawing;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streams a PNG one row at a time, so images far larger than the heap can be encoded.
+ *
+ * Rows are given as packed ARGB ints, filtered with the Sub filter and deflated into IDAT chunks of
+ * a fixed size as they fill up. Nothing but the current row and the deflater window is kept.
+ */
+public class PngWriter implements Closeable {
+  private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+  private static final int CHUNK_SIZE = 64*1024;
+  private static final int COLOR_TYPE_RGB = 2;
+  private static final int COLOR_TYPE_RGBA = 6;
+  private static final int FILTER_SUB = 1;
+
+  private final DataOutputStream mOut;
+  private final int mWidth, mHeight;
+  private final int mBytesPerPixel;
+  private final byte[] mRow;
+  private final Deflater mDeflater;
+  private final DeflaterOutputStream mData;
+  private int mRows;
+  private boolean mFinished;
+
+  /**
+   * @param alpha keeps the alpha channel, otherwise pixels are written as opaque RGB
+   */
+  public PngWriter(OutputStream out, int width, int height, boolean alpha) throws IOException {
+    if(width<=0 || height<=0){
+      throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+    }
+    mOut = new DataOutputStream(out);
+    mWidth = width;
+    mHeight = height;
+    mBytesPerPixel = alpha ? 4 : 3;
+    mRow = new byte[1 + width*mBytesPerPixel];
+    mRow[0] = FILTER_SUB;
+    mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    mData = new DeflaterOutputStream(new ChunkStream("IDAT"), mDeflater, CHUNK_SIZE);
+
+    mOut.write(SIGNATURE);
+    ChunkStream header = new ChunkStream("IHDR");
+    DataOutputStream headerData = new DataOutputStream(header);
+    headerData.writeInt(width);
+    headerData.writeInt(height);
+    headerData.writeByte(8);
+    headerData.writeByte(alpha ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB);
+    headerData.writeByte(0); // deflate
+    headerData.writeByte(0); // adaptive filtering
+    headerData.writeByte(0); // no interlace
+    header.close();
+  }
+
+  public int getRowsWritten(){
+    return mRows;
+  }
+
+  /**
+   * @param argb pixels of the next row, at least width of them starting at offset
+   */
+  public void writeRow(int[] argb, int offset) throws IOException {
+    if(mRows>=mHeight){
+      throw new IllegalStateException("All " + mHeight + " rows were already written");
+    }
+    int previous = 0;
+    int index = 1;
+    for (int x = 0; x < mWidth; x++) {
+      int pixel = argb[offset + x];
+      mRow[index++] = (byte) ((pixel >> 16) - (previous >> 16));
+      mRow[index++] = (byte) ((pixel >> 8) - (previous >> 8));
+      mRow[index++] = (byte) (pixel - previous);
+      if(mBytesPerPixel==4) {
+        mRow[index++] = (byte) ((pixel >>> 24) - (previous >>> 24));
+      }
+      previous = pixel;
+    }
+    mData.write(mRow);
+    mRows++;
+  }
+
+  /**
+   * Writes the remaining image data and the end chunk, every row must have been written
+   */
+  public void finish() throws IOException {
+    if(mFinished){
+      return;
+    }
+    if(mRows!=mHeight){
+      throw new IllegalStateException("Only " + mRows + " of " + mHeight + " rows were written");
+    }
+    mData.close();
+    mDeflater.end();
+    new ChunkStream("IEND").close();
+    mOut.flush();
+    mFinished = true;
+  }
+
+  /**
+   * Releases the deflater without finishing the image, the underlying stream is left open
+   */
+  @Override
+  public void close() {
+    mDeflater.end();
+  }
+
+  /**
+   * Buffers chunk data and writes it out as chunks of at most CHUNK_SIZE bytes
+   */
+  private class ChunkStream extends OutputStream {
+    private final byte[] mType;
+    private final byte[] mBuffer = new byte[CHUNK_SIZE];
+    private final CRC32 mCrc = new CRC32();
+    private int mCount;
+    private boolean mWritten;
+
+    ChunkStream(String type) {
+      mType = type.getBytes();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if(mCount==mBuffer.length){
+        writeChunk();
+      }
+      mBuffer[mCount++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len>0){
+        if(mCount==mBuffer.length){
+          writeChunk();
+        }
+        int count = Math.min(len, mBuffer.length - mCount);
+        System.arraycopy(b, off, mBuffer, mCount, count);
+        mCount += count;
+        off += count;
+        len -= count;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if(mCount>0 || !mWritten){
+        writeChunk();
+      }
+    }
+
+    private void writeChunk() throws IOException {
+      mCrc.reset();
+      mCrc.update(mType);
+      mCrc.update(mBuffer, 0, mCount);
+      mOut.writeInt(mCount);
+      mOut.write(mType);
+      mOut.write(mBuffer, 0, mCount);
+      mOut.writeInt((int) mCrc.getValue());
+      mCount = 0;
+      mWritten = true;
+    }
+  }
+}
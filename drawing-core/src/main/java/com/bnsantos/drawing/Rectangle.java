@@ -0,0 +1,54 @@
+package com.bnsantos.drawing;
+
+/**
+ * Rectangle dragged between two opposite corners, in any direction
+ */
+public class Rectangle implements Action {
+  public final StyleTable styles;
+  public final int styleId;
+  public float startX;
+  public float startY;
+  public float endX;
+  public float endY;
+
+  public Rectangle(StyleTable styles, int styleId, float touchX, float touchY) {
+    this.styles = styles;
+    this.styleId = styleId;
+    startX = touchX;
+    startY = touchY;
+    endX = touchX;
+    endY = touchY;
+  }
+
+  public void setFinalPoint(float touchX, float touchY) {
+    endX = touchX;
+    endY = touchY;
+  }
+
+  public float left(){
+    return (startX < endX) ? startX : endX;
+  }
+
+  public float right(){
+    return (startX < endX) ? endX : startX;
+  }
+
+  public float top(){
+    return (startY < endY) ? startY : endY;
+  }
+
+  public float bottom(){
+    return (startY < endY) ? endY : startY;
+  }
+
+  @Override
+  public int getStyleId() {
+    return styleId;
+  }
+
+  @Override
+  public void getBounds(Bounds bounds) {
+    float halfWidth = styles.getWidth(styleId)/2.0f;
+    bounds.set(left() - halfWidth, top() - halfWidth, right() + halfWidth, bottom() + halfWidth);
+  }
+}
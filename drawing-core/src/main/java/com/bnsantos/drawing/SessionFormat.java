@@ -0,0 +1,44 @@
+package com.bnsantos.drawing;
+
+/**
+ * Layout of a saved drawing session, all values big endian:
+ *
+ * <pre>
+ * int    magic 'SDRW'
+ * short  version
+ * int    width, height        view size the coordinates refer to
+ * string background           -1 length when there is none
+ * bytes  base layer           version 2 only, PNG of the flattened history, -1 length when none
+ * int    style count          then per style: int color, float width, byte flags
+ * int    layer count          since version 3, then per layer bottom first: int id, byte flags,
+ *                             float opacity and the PNG of its flattened history, -1 length when none
+ * int    action count, undo count
+ * action...                   history oldest first, then the redo stack bottom first
+ * </pre>
+ *
+ * Since version 3 each action starts with the index of its layer. Then comes a type byte and a style
+ * index followed by its type's payload: strokes store a smooth flag, a point count and the interleaved
+ * x/y floats, circles their center and radius and rectangles their left, top, right and bottom.
+ * Strings and byte blocks are an int byte length followed by the bytes, UTF-8 for strings. Version 1
+ * and 2 sessions are still read as a single visible layer, with the version 2 base layer as its own.
+ */
+final class SessionFormat {
+  static final int MAGIC = 0x53445257;
+  static final short VERSION = 3;
+  static final short MIN_VERSION = 1;
+
+  static final byte TYPE_STROKE = 1;
+  static final byte TYPE_CIRCLE = 2;
+  static final byte TYPE_RECTANGLE = 3;
+
+  static final int STYLE_FILL = 1;
+  static final int STYLE_ERASE = 2;
+
+  static final int LAYER_VISIBLE = 1;
+  static final int LAYER_ACTIVE = 2;
+
+  static final int BUFFER_SIZE = 64*1024;
+
+  private SessionFormat() {
+  }
+}
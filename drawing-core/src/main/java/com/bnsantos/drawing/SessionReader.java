@@ -0,0 +1,242 @@
+package com.bnsantos.drawing;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reads a drawing session written by {@link SessionWriter}, handing every record to a {@link Handler}
+ * in file order. Point arrays are read in bulk straight into the arrays the strokes keep.
+ *
+ * Array lengths come from the data, so a damaged one could claim gigabytes. Arrays start at most a
+ * buffer long and only grow as their contents actually arrive, a truncated or corrupted session
+ * ends with an {@link EOFException} instead of running out of memory.
+ */
+public class SessionReader {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int INITIAL_ARRAY_BYTES = SessionFormat.BUFFER_SIZE;
+
+  private final ReadableByteChannel mChannel;
+  private final ByteBuffer mBuffer;
+
+  public SessionReader(ReadableByteChannel channel) {
+    mChannel = channel;
+    mBuffer = ByteBuffer.allocateDirect(SessionFormat.BUFFER_SIZE);
+    mBuffer.limit(0);
+  }
+
+  /**
+   * Reads records already in memory, running out of data at the buffer limit
+   */
+  SessionReader(ByteBuffer buffer) {
+    mChannel = null;
+    mBuffer = buffer;
+  }
+
+  /**
+   * @throws IOException when the data isn't a supported session or ends early
+   */
+  public void read(Handler handler) throws IOException {
+    require(6);
+    int magic = mBuffer.getInt();
+    if(magic!=SessionFormat.MAGIC){
+      throw new IOException("Not a drawing session");
+    }
+    short version = mBuffer.getShort();
+    if(version<SessionFormat.MIN_VERSION || version>SessionFormat.VERSION){
+      throw new IOException("Unsupported session version " + version);
+    }
+    require(8);
+    int width = mBuffer.getInt();
+    int height = mBuffer.getInt();
+    handler.onHeader(width, height, readString());
+    byte[] baseLayer = version==2 ? readBytes() : null;
+
+    require(4);
+    int styleCount = mBuffer.getInt();
+    for (int i = 0; i < styleCount; i++) {
+      readStyle(handler);
+    }
+
+    int layerCount = 1;
+    if(version>=3){
+      require(4);
+      layerCount = mBuffer.getInt();
+      if(layerCount<1){
+        throw new IOException("Corrupted layer count " + layerCount);
+      }
+      for (int i = 0; i < layerCount; i++) {
+        readLayer(handler);
+      }
+    }else{
+      handler.onLayer(0, true, true, 1f, baseLayer);
+    }
+
+    require(8);
+    int actionCount = mBuffer.getInt();
+    int undoCount = mBuffer.getInt();
+    if(actionCount<0 || undoCount<0){
+      throw new IOException("Corrupted history size");
+    }
+    handler.onHistory(actionCount, undoCount);
+    for (int i = 0; i < actionCount + undoCount; i++) {
+      if(version>=3){
+        readLayerAction(handler, layerCount, styleCount);
+      }else{
+        readAction(handler, 0, styleCount);
+      }
+    }
+  }
+
+  void readStyle(Handler handler) throws IOException {
+    require(9);
+    int color = mBuffer.getInt();
+    float strokeWidth = mBuffer.getFloat();
+    int flags = mBuffer.get();
+    handler.onStyle(color, strokeWidth, (flags & SessionFormat.STYLE_FILL)!=0, (flags & SessionFormat.STYLE_ERASE)!=0);
+  }
+
+  private void readLayer(Handler handler) throws IOException {
+    require(9);
+    int id = mBuffer.getInt();
+    int flags = mBuffer.get();
+    float opacity = mBuffer.getFloat();
+    handler.onLayer(id, (flags & SessionFormat.LAYER_VISIBLE)!=0, (flags & SessionFormat.LAYER_ACTIVE)!=0, opacity, readBytes());
+  }
+
+  /**
+   * Reads an action preceded by the index of its layer
+   */
+  void readLayerAction(Handler handler, int layerCount, int styleCount) throws IOException {
+    require(4);
+    int layer = mBuffer.getInt();
+    if(layer<0 || layer>=layerCount){
+      throw new IOException("Unknown layer " + layer);
+    }
+    readAction(handler, layer, styleCount);
+  }
+
+  void readAction(Handler handler, int layer, int styleCount) throws IOException {
+    require(5);
+    byte type = mBuffer.get();
+    int styleId = mBuffer.getInt();
+    if(styleId<0 || styleId>=styleCount){
+      throw new IOException("Unknown style " + styleId);
+    }
+    switch (type){
+      case SessionFormat.TYPE_STROKE:
+        require(5);
+        boolean smooth = mBuffer.get()!=0;
+        int size = mBuffer.getInt();
+        if(size<1 || size>Integer.MAX_VALUE/2){
+          throw new IOException("Corrupted stroke size " + size);
+        }
+        handler.onStroke(layer, styleId, smooth, new StrokePoints(readFloats(size*2), size));
+        break;
+      case SessionFormat.TYPE_CIRCLE:
+        require(12);
+        handler.onCircle(layer, styleId, mBuffer.getFloat(), mBuffer.getFloat(), mBuffer.getFloat());
+        break;
+      case SessionFormat.TYPE_RECTANGLE:
+        require(16);
+        handler.onRectangle(layer, styleId, mBuffer.getFloat(), mBuffer.getFloat(), mBuffer.getFloat(), mBuffer.getFloat());
+        break;
+      default:
+        throw new IOException("Unknown action type " + type);
+    }
+  }
+
+  private float[] readFloats(int length) throws IOException {
+    float[] values = new float[Math.min(length, INITIAL_ARRAY_BYTES/4)];
+    int offset = 0;
+    while (offset<length){
+      require(4);
+      if(offset==values.length){
+        values = Arrays.copyOf(values, (int) Math.min(length, values.length*2L));
+      }
+      int count = Math.min(values.length - offset, mBuffer.remaining()/4);
+      mBuffer.asFloatBuffer().get(values, offset, count);
+      mBuffer.position(mBuffer.position() + count*4);
+      offset += count;
+    }
+    return values;
+  }
+
+  private String readString() throws IOException {
+    byte[] bytes = readBytes();
+    return bytes!=null ? new String(bytes, UTF_8) : null;
+  }
+
+  private byte[] readBytes() throws IOException {
+    require(4);
+    int length = mBuffer.getInt();
+    if(length<0){
+      return null;
+    }
+    byte[] bytes = new byte[Math.min(length, INITIAL_ARRAY_BYTES)];
+    int offset = 0;
+    while (offset<length){
+      require(1);
+      if(offset==bytes.length){
+        bytes = Arrays.copyOf(bytes, (int) Math.min(length, bytes.length*2L));
+      }
+      int count = Math.min(bytes.length - offset, mBuffer.remaining());
+      mBuffer.get(bytes, offset, count);
+      offset += count;
+    }
+    return bytes;
+  }
+
+  /**
+   * Reads from the channel until at least bytes are buffered
+   */
+  private void require(int bytes) throws IOException {
+    if(mBuffer.remaining()>=bytes){
+      return;
+    }
+    if(mChannel==null){
+      throw new EOFException("Session ended early");
+    }
+    mBuffer.compact();
+    while (mBuffer.position()<bytes){
+      if(mChannel.read(mBuffer)<0){
+        throw new EOFException("Session ended early");
+      }
+    }
+    mBuffer.flip();
+  }
+
+  public interface Handler {
+    void onHeader(int width, int height, String background);
+
+    /**
+     * Styles are numbered by the order they are reported, starting at 0
+     */
+    void onStyle(int color, float width, boolean fill, boolean erase);
+
+    /**
+     * Layers are numbered by the order they are reported, bottom first, starting at 0. Sessions saved
+     * before layers existed report a single visible one.
+     *
+     * @param baseLayer PNG of the actions flattened out of the layer's history, null when there is none
+     */
+    void onLayer(int id, boolean visible, boolean active, float opacity, byte[] baseLayer);
+
+    /**
+     * Followed by actionCount history actions, oldest first, and then undoCount undone ones
+     */
+    void onHistory(int actionCount, int undoCount);
+
+    /**
+     * @param layer index of the layer the action was drawn on
+     */
+    void onStroke(int layer, int styleId, boolean smooth, StrokePoints points);
+
+    void onCircle(int layer, int styleId, float centerX, float centerY, float radius);
+
+    void onRectangle(int layer, int styleId, float left, float top, float right, float bottom);
+  }
+}
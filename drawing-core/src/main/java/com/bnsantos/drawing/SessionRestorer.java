@@ -0,0 +1,142 @@
+package com.bnsantos.drawing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rebuilds the layers and their actions from a session, interning its styles into a
+ * {@link StyleTable}, and then applies the edits a journal recorded after it
+ */
+public class SessionRestorer implements ActionJournal.Replayer {
+  private final StyleTable mStyles;
+  private final List<Integer> mStyleIds = new ArrayList<>();
+  private final List<Layer> mLayerList = new ArrayList<>();
+  private final List<byte[]> mBaseLayers = new ArrayList<>();
+  private Layer mActive;
+  private LayerStack mLayers;
+  private int mWidth, mHeight;
+  private String mBackground;
+  private int mActionCount;
+  private int mSessionActions;
+
+  public SessionRestorer(StyleTable styles) {
+    mStyles = styles;
+  }
+
+  /**
+   * @return restored layers, null until the session's history has been reached
+   */
+  public LayerStack getLayers(){
+    return mLayers;
+  }
+
+  public int getWidth(){
+    return mWidth;
+  }
+
+  public int getHeight(){
+    return mHeight;
+  }
+
+  public String getBackground(){
+    return mBackground;
+  }
+
+  /**
+   * @param index position of the layer, 0 being the bottom
+   * @return PNG of the layer's flattened history, null when there is none
+   */
+  public byte[] getBaseLayer(int index){
+    return mBaseLayers.get(index);
+  }
+
+  /**
+   * @return PNG of every layer's flattened history in layer order, entries are null when there is none
+   */
+  public List<byte[]> getBaseLayers(){
+    return Collections.unmodifiableList(mBaseLayers);
+  }
+
+  @Override
+  public void onHeader(int width, int height, String background) {
+    mWidth = width;
+    mHeight = height;
+    mBackground = background;
+  }
+
+  @Override
+  public void onStyle(int color, float width, boolean fill, boolean erase) {
+    mStyleIds.add(mStyles.intern(color, width, fill, erase));
+  }
+
+  @Override
+  public void onLayer(int id, boolean visible, boolean active, float opacity, byte[] baseLayer) {
+    Layer layer = new Layer(id);
+    layer.setVisible(visible);
+    layer.setOpacity(opacity);
+    mLayerList.add(layer);
+    mBaseLayers.add(baseLayer);
+    if(active){
+      mActive = layer;
+    }
+  }
+
+  @Override
+  public void onHistory(int actionCount, int undoCount) {
+    mLayers = new LayerStack(mLayerList, mActive);
+    mActionCount = actionCount;
+    mSessionActions = actionCount + undoCount;
+  }
+
+  @Override
+  public void onStroke(int layer, int styleId, boolean smooth, StrokePoints points) {
+    add(layer, new Stroke(mStyles, mStyleIds.get(styleId), smooth, points));
+  }
+
+  @Override
+  public void onCircle(int layer, int styleId, float centerX, float centerY, float radius) {
+    Circle circle = new Circle(mStyles, mStyleIds.get(styleId), centerX, centerY);
+    circle.radius = radius;
+    add(layer, circle);
+  }
+
+  @Override
+  public void onRectangle(int layer, int styleId, float left, float top, float right, float bottom) {
+    Rectangle rectangle = new Rectangle(mStyles, mStyleIds.get(styleId), left, top);
+    rectangle.setFinalPoint(right, bottom);
+    add(layer, rectangle);
+  }
+
+  @Override
+  public void onUndo() {
+    mLayers.undo();
+  }
+
+  @Override
+  public void onRedo() {
+    mLayers.redo();
+  }
+
+  @Override
+  public void onClear() {
+    mLayers.clear();
+    Collections.fill(mBaseLayers, null);
+  }
+
+  private void add(int index, Action action){
+    Layer layer = mLayers.get(index);
+    if(mSessionActions>0){
+      mSessionActions--;
+      if(mLayers.getActionCount()<mActionCount){
+        mLayers.restore(layer, action);
+      }else{
+        mLayers.restoreUndone(layer, action);
+      }
+    }else{
+      // journaled actions are new ones, which drop the redo stack, made on the layer in use
+      mLayers.commit(layer, action);
+      mLayers.setActive(layer);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.bnsantos.drawing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Styles, layers and history of a drawing as they were when it was taken, for writing the session on
+ * another thread while the drawing keeps changing. Taking it copies the style values and lists of
+ * references, committed actions never change so they are shared. Base layers aren't included, they
+ * are handed to {@link DrawingSession#write(SessionWriter, SessionSnapshot, List)} once encoded.
+ */
+public class SessionSnapshot {
+  final int width, height;
+  final String background;
+  final int[] colors;
+  final float[] widths;
+  final boolean[] fills, erases;
+  final int[] layerIds;
+  final boolean[] visible;
+  final float[] opacities;
+  final int activeLayer;
+  final List<List<Action>> actions = new ArrayList<>();
+  final List<List<Action>> undone = new ArrayList<>();
+  // layer index of every committed and undone action, in the stack's order
+  final int[] commitOrder, redoOrder;
+
+  /**
+   * @param background reference to the image under the drawing, may be null
+   */
+  public SessionSnapshot(int width, int height, String background, StyleTable styles, LayerStack layers) {
+    this.width = width;
+    this.height = height;
+    this.background = background;
+    int styleCount = styles.size();
+    colors = new int[styleCount];
+    widths = new float[styleCount];
+    fills = new boolean[styleCount];
+    erases = new boolean[styleCount];
+    for (int i = 0; i < styleCount; i++) {
+      colors[i] = styles.getColor(i);
+      widths[i] = styles.getWidth(i);
+      fills[i] = styles.isFill(i);
+      erases[i] = styles.isErase(i);
+    }
+    int layerCount = layers.size();
+    layerIds = new int[layerCount];
+    visible = new boolean[layerCount];
+    opacities = new float[layerCount];
+    for (int i = 0; i < layerCount; i++) {
+      Layer layer = layers.get(i);
+      layerIds[i] = layer.getId();
+      visible[i] = layer.isVisible();
+      opacities[i] = layer.getOpacity();
+      actions.add(new ArrayList<>(layer.getHistory().getActions()));
+      undone.add(new ArrayList<>(layer.getHistory().getUndone()));
+    }
+    activeLayer = layers.indexOf(layers.getActive());
+    commitOrder = indexes(layers, layers.getCommitOrder());
+    redoOrder = indexes(layers, layers.getRedoOrder());
+  }
+
+  public int getLayerCount(){
+    return layerIds.length;
+  }
+
+  private static int[] indexes(LayerStack layers, List<Layer> order){
+    int[] indexes = new int[order.size()];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = layers.indexOf(order.get(i));
+    }
+    return indexes;
+  }
+}
@@ -0,0 +1,161 @@
+package com.bnsantos.drawing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a drawing session in the {@link SessionFormat} layout through a single reused buffer.
+ *
+ * Calls must follow the layout order: header, styles, layers, history, then every action preceded
+ * by its layer index. Point arrays are copied in bulk instead of one float at a time. Has no Android
+ * dependencies.
+ */
+public class SessionWriter implements Closeable {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final WritableByteChannel mChannel;
+  private final ByteBuffer mBuffer;
+
+  public SessionWriter(WritableByteChannel channel) {
+    mChannel = channel;
+    mBuffer = ByteBuffer.allocateDirect(SessionFormat.BUFFER_SIZE);
+  }
+
+  /**
+   * @param background reference to the image under the drawing, may be null
+   */
+  public void writeHeader(int width, int height, String background) throws IOException {
+    ensure(14);
+    mBuffer.putInt(SessionFormat.MAGIC);
+    mBuffer.putShort(SessionFormat.VERSION);
+    mBuffer.putInt(width);
+    mBuffer.putInt(height);
+    writeString(background);
+  }
+
+  public void writeStyleCount(int count) throws IOException {
+    ensure(4);
+    mBuffer.putInt(count);
+  }
+
+  public void writeStyle(int color, float width, boolean fill, boolean erase) throws IOException {
+    ensure(9);
+    mBuffer.putInt(color);
+    mBuffer.putFloat(width);
+    mBuffer.put((byte) ((fill ? SessionFormat.STYLE_FILL : 0) | (erase ? SessionFormat.STYLE_ERASE : 0)));
+  }
+
+  public void writeLayerCount(int count) throws IOException {
+    ensure(4);
+    mBuffer.putInt(count);
+  }
+
+  /**
+   * @param baseLayer PNG of the actions flattened out of the layer's history, may be null
+   */
+  public void writeLayer(int id, boolean visible, boolean active, float opacity, byte[] baseLayer) throws IOException {
+    ensure(9);
+    mBuffer.putInt(id);
+    mBuffer.put((byte) ((visible ? SessionFormat.LAYER_VISIBLE : 0) | (active ? SessionFormat.LAYER_ACTIVE : 0)));
+    mBuffer.putFloat(opacity);
+    writeBytes(baseLayer);
+  }
+
+  public void writeHistory(int actionCount, int undoCount) throws IOException {
+    ensure(8);
+    mBuffer.putInt(actionCount);
+    mBuffer.putInt(undoCount);
+  }
+
+  /**
+   * Starts an action, followed by writing the action itself
+   *
+   * @param index position of the action's layer in the layer section, 0 being the bottom
+   */
+  public void writeLayerIndex(int index) throws IOException {
+    ensure(4);
+    mBuffer.putInt(index);
+  }
+
+  public void writeStroke(int styleId, boolean smooth, StrokePoints points) throws IOException {
+    ensure(10);
+    mBuffer.put(SessionFormat.TYPE_STROKE);
+    mBuffer.putInt(styleId);
+    mBuffer.put((byte) (smooth ? 1 : 0));
+    mBuffer.putInt(points.size());
+    float[] coords = points.coords();
+    int offset = 0;
+    int length = points.size()*2;
+    while (offset<length){
+      ensure(4);
+      int count = Math.min(length - offset, mBuffer.remaining()/4);
+      mBuffer.asFloatBuffer().put(coords, offset, count);
+      mBuffer.position(mBuffer.position() + count*4);
+      offset += count;
+    }
+  }
+
+  public void writeCircle(int styleId, float centerX, float centerY, float radius) throws IOException {
+    ensure(17);
+    mBuffer.put(SessionFormat.TYPE_CIRCLE);
+    mBuffer.putInt(styleId);
+    mBuffer.putFloat(centerX);
+    mBuffer.putFloat(centerY);
+    mBuffer.putFloat(radius);
+  }
+
+  public void writeRectangle(int styleId, float left, float top, float right, float bottom) throws IOException {
+    ensure(21);
+    mBuffer.put(SessionFormat.TYPE_RECTANGLE);
+    mBuffer.putInt(styleId);
+    mBuffer.putFloat(left);
+    mBuffer.putFloat(top);
+    mBuffer.putFloat(right);
+    mBuffer.putFloat(bottom);
+  }
+
+  public void flush() throws IOException {
+    mBuffer.flip();
+    while (mBuffer.hasRemaining()){
+      mChannel.write(mBuffer);
+    }
+    mBuffer.clear();
+  }
+
+  /**
+   * Flushes the buffered data, the channel is left open
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+
+  private void writeString(String value) throws IOException {
+    writeBytes(value!=null ? value.getBytes(UTF_8) : null);
+  }
+
+  private void writeBytes(byte[] bytes) throws IOException {
+    ensure(4);
+    if(bytes==null){
+      mBuffer.putInt(-1);
+      return;
+    }
+    mBuffer.putInt(bytes.length);
+    int offset = 0;
+    while (offset<bytes.length){
+      ensure(1);
+      int count = Math.min(bytes.length - offset, mBuffer.remaining());
+      mBuffer.put(bytes, offset, count);
+      offset += count;
+    }
+  }
+
+  private void ensure(int bytes) throws IOException {
+    if(mBuffer.remaining()<bytes){
+      flush();
+    }
+  }
+}
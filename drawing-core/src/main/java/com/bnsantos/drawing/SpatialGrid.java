@@ -0,0 +1,197 @@
+package com.bnsantos.drawing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uniform grid over item bounds, answering which items overlap a point or an area without walking
+ * every item. Cells are created on demand so the indexed area doesn't need to be known up front.
+ * Query results keep insertion order, so the last item returned is the one drawn on top.
+ *
+ * Coordinates are clamped to a range of cells, so huge or infinite bounds stay indexable. Items
+ * spanning too many cells are kept apart and checked by every query, and queries spanning more
+ * cells than are in use check every item instead. Has no Android dependencies.
+ */
+public class SpatialGrid<T> {
+  public static final float DEFAULT_CELL_SIZE = 128f;
+  static final int MAX_CELL = 1 << 20;
+  static final int MAX_ENTRY_CELLS = 1024;
+
+  private static final Comparator<Entry<?>> INSERTION_ORDER = new Comparator<Entry<?>>() {
+    @Override
+    public int compare(Entry<?> first, Entry<?> second) {
+      return first.sequence < second.sequence ? -1 : (first.sequence == second.sequence ? 0 : 1);
+    }
+  };
+
+  private final float mCellSize;
+  private final Map<Long, List<Entry<T>>> mCells;
+  private final Map<T, Entry<T>> mEntries;
+  private final List<Entry<T>> mOversized;
+  private final List<Entry<T>> mMatches;
+  private long mSequence;
+  private int mQueryStamp;
+
+  public SpatialGrid() {
+    this(DEFAULT_CELL_SIZE);
+  }
+
+  public SpatialGrid(float cellSize) {
+    mCellSize = cellSize;
+    mCells = new HashMap<>();
+    mEntries = new IdentityHashMap<>();
+    mOversized = new ArrayList<>();
+    mMatches = new ArrayList<>();
+  }
+
+  public void insert(T item, float left, float top, float right, float bottom){
+    remove(item);
+    Entry<T> entry = new Entry<>(item, left, top, right, bottom, mSequence++);
+    mEntries.put(item, entry);
+    if(cellCount(left, top, right, bottom)>MAX_ENTRY_CELLS){
+      entry.oversized = true;
+      mOversized.add(entry);
+      return;
+    }
+    int lastRow = cell(bottom), lastColumn = cell(right);
+    for (int row = cell(top); row <= lastRow; row++) {
+      for (int column = cell(left); column <= lastColumn; column++) {
+        Long key = key(column, row);
+        List<Entry<T>> cell = mCells.get(key);
+        if(cell==null){
+          cell = new ArrayList<>();
+          mCells.put(key, cell);
+        }
+        cell.add(entry);
+      }
+    }
+  }
+
+  public boolean remove(T item){
+    Entry<T> entry = mEntries.remove(item);
+    if(entry==null){
+      return false;
+    }
+    if(entry.oversized){
+      mOversized.remove(entry);
+      return true;
+    }
+    int lastRow = cell(entry.bottom), lastColumn = cell(entry.right);
+    for (int row = cell(entry.top); row <= lastRow; row++) {
+      for (int column = cell(entry.left); column <= lastColumn; column++) {
+        Long key = key(column, row);
+        List<Entry<T>> cell = mCells.get(key);
+        cell.remove(entry);
+        if(cell.isEmpty()){
+          mCells.remove(key);
+        }
+      }
+    }
+    return true;
+  }
+
+  public void clear(){
+    mCells.clear();
+    mEntries.clear();
+    mOversized.clear();
+  }
+
+  public int size(){
+    return mEntries.size();
+  }
+
+  /**
+   * Adds to out every item whose bounds intersect the given area, in insertion order
+   */
+  public void query(float left, float top, float right, float bottom, Collection<? super T> out){
+    mQueryStamp++;
+    if(cellCount(left, top, right, bottom)>mCells.size()){
+      // walking the cells would cost more than checking every item
+      for (Entry<T> entry : mEntries.values()) {
+        if(entry.intersects(left, top, right, bottom)){
+          mMatches.add(entry);
+        }
+      }
+    }else{
+      int lastRow = cell(bottom), lastColumn = cell(right);
+      for (int row = cell(top); row <= lastRow; row++) {
+        for (int column = cell(left); column <= lastColumn; column++) {
+          List<Entry<T>> cell = mCells.get(key(column, row));
+          if(cell==null){
+            continue;
+          }
+          for (int i = 0; i < cell.size(); i++) {
+            Entry<T> entry = cell.get(i);
+            if(entry.stamp!=mQueryStamp){
+              entry.stamp = mQueryStamp;
+              if(entry.intersects(left, top, right, bottom)){
+                mMatches.add(entry);
+              }
+            }
+          }
+        }
+      }
+      for (int i = 0; i < mOversized.size(); i++) {
+        Entry<T> entry = mOversized.get(i);
+        if(entry.intersects(left, top, right, bottom)){
+          mMatches.add(entry);
+        }
+      }
+    }
+    Collections.sort(mMatches, INSERTION_ORDER);
+    for (int i = 0; i < mMatches.size(); i++) {
+      out.add(mMatches.get(i).item);
+    }
+    mMatches.clear();
+  }
+
+  public void query(float x, float y, Collection<? super T> out){
+    query(x, y, x, y, out);
+  }
+
+  /**
+   * @return cell of coordinate, clamped so loops up to the last cell never overflow
+   */
+  private int cell(float coordinate){
+    float cell = (float) Math.floor(coordinate/mCellSize);
+    if(cell!=cell){
+      return 0;
+    }
+    return (int) Math.max(-MAX_CELL, Math.min(cell, MAX_CELL));
+  }
+
+  private long cellCount(float left, float top, float right, float bottom){
+    return (cell(right) - (long) cell(left) + 1)*(cell(bottom) - (long) cell(top) + 1);
+  }
+
+  private static Long key(int column, int row){
+    return ((long) column << 32) | (row & 0xffffffffL);
+  }
+
+  private static class Entry<T> {
+    final T item;
+    final float left, top, right, bottom;
+    final long sequence;
+    int stamp;
+    boolean oversized;
+
+    Entry(T item, float left, float top, float right, float bottom, long sequence) {
+      this.item = item;
+      this.left = left;
+      this.top = top;
+      this.right = right;
+      this.bottom = bottom;
+      this.sequence = sequence;
+    }
+
+    boolean intersects(float left, float top, float right, float bottom){
+      return this.left <= right && left <= this.right && this.top <= bottom && top <= this.bottom;
+    }
+  }
+}
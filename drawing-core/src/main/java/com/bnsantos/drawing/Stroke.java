@@ -0,0 +1,85 @@
+package com.bnsantos.drawing;
+
+/**
+ * Pencil or eraser stroke. Points are kept in a {@link StrokePoints}, platforms build their own path
+ * from them when rendering.
+ *
+ * While drawing, points may be sampled into a buffer reused from stroke to stroke, so adding a
+ * sample allocates nothing once the buffer has grown. {@link #finish()} moves them into a copy the
+ * stroke owns.
+ *
+ * Smoothed strokes curve through the midpoints between samples, using each sample as the control
+ * point, and end with a line to the last sample.
+ */
+public class Stroke implements Action {
+  public final StyleTable styles;
+  public final int styleId;
+  public final boolean smooth;
+  public StrokePoints points;
+  public long lastTime;
+
+  public Stroke(StyleTable styles, int styleId, boolean smooth) {
+    this(styles, styleId, smooth, new StrokePoints());
+  }
+
+  public Stroke(StyleTable styles, int styleId, boolean smooth, StrokePoints points) {
+    this.styles = styles;
+    this.styleId = styleId;
+    this.smooth = smooth;
+    this.points = points;
+  }
+
+  public void start(float x, float y, long time) {
+    points.add(x, y);
+    lastTime = time;
+  }
+
+  /**
+   * @return false when the sample is older than the last one added and was ignored
+   */
+  public boolean addPoint(float x, float y, long time) {
+    if(time < lastTime){
+      return false;
+    }
+    points.add(x, y);
+    lastTime = time;
+    return true;
+  }
+
+  /**
+   * Gives the stroke its own exactly sized copy of the points, the buffer they were sampled into is
+   * free for the next stroke afterwards
+   */
+  public void finish() {
+    points = points.copy();
+  }
+
+  public boolean isErase() {
+    return styles.isErase(styleId);
+  }
+
+  /**
+   * Covers both the line to the newest sample and the curve ending at the midpoint before it
+   */
+  public void getLastSegmentBounds(Bounds bounds) {
+    int last = points.size() - 1;
+    int first = Math.max(last - 2, 0);
+    bounds.set(points.getX(last), points.getY(last), points.getX(last), points.getY(last));
+    for (int i = first; i < last; i++) {
+      bounds.union(points.getX(i), points.getY(i));
+    }
+    float halfWidth = styles.getWidth(styleId)/2.0f;
+    bounds.inset(-halfWidth, -halfWidth);
+  }
+
+  @Override
+  public int getStyleId() {
+    return styleId;
+  }
+
+  @Override
+  public void getBounds(Bounds bounds) {
+    float halfWidth = styles.getWidth(styleId)/2.0f;
+    bounds.set(points.getLeft() - halfWidth, points.getTop() - halfWidth, points.getRight() + halfWidth, points.getBottom() + halfWidth);
+  }
+}
@@ -0,0 +1,116 @@
+package com.bnsantos.drawing;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Level of detail for drawing strokes zoomed out.
+ *
+ * Level n serves scales down to 1/2^n and simplifies strokes with 2^n times the base tolerance, so
+ * the samples dropped are never further than the base tolerance from the line on screen. Simplified
+ * copies are built on first use and the least recently used ones are dropped once they hold more than
+ * a budget of points. Safe to use from several threads at once. Has no Android dependencies.
+ */
+public class StrokeDetail {
+  public static final int MAX_LEVEL = 6;
+
+  private final float mTolerance;
+  private final int mMaxPoints;
+  private final StrokeSimplifier mSimplifier = new StrokeSimplifier(0);
+  private final LinkedHashMap<Key, StrokePoints> mCache = new LinkedHashMap<>(16, 0.75f, true);
+  private final Key mLookup = new Key();
+  private int mPoints;
+
+  /**
+   * @param tolerance in view pixels, the same the strokes were simplified with when committed
+   * @param maxPoints points the cached copies may hold together
+   */
+  public StrokeDetail(float tolerance, int maxPoints) {
+    mTolerance = tolerance;
+    mMaxPoints = maxPoints;
+  }
+
+  /**
+   * @return level to draw with at scale, 0 being the strokes as they were committed
+   */
+  public static int levelFor(float scale){
+    int level = 0;
+    while (level<MAX_LEVEL && scale<=1f/(2 << level)){
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * @return points to draw stroke with at level, its own when there is nothing to drop
+   */
+  public synchronized StrokePoints get(Stroke stroke, int level){
+    if(level==0 || stroke.points.size()<3){
+      return stroke.points;
+    }
+    mLookup.set(stroke, level);
+    StrokePoints points = mCache.get(mLookup);
+    if(points==null){
+      points = stroke.points.copy();
+      mSimplifier.setTolerance(mTolerance*(1 << level));
+      mSimplifier.simplify(points, stroke.smooth);
+      points.trimToSize();
+      mCache.put(new Key(stroke, level), points);
+      mPoints += points.size();
+      trim();
+    }
+    return points;
+  }
+
+  public synchronized int getCachedPoints(){
+    return mPoints;
+  }
+
+  public synchronized void clear(){
+    mCache.clear();
+    mPoints = 0;
+  }
+
+  private void trim(){
+    Iterator<Map.Entry<Key, StrokePoints>> entries = mCache.entrySet().iterator();
+    while (mPoints>mMaxPoints && entries.hasNext()){
+      mPoints -= entries.next().getValue().size();
+      entries.remove();
+    }
+  }
+
+  /**
+   * Strokes are compared by identity, committed ones never change
+   */
+  private static class Key {
+    Stroke stroke;
+    int level;
+
+    Key() {
+    }
+
+    Key(Stroke stroke, int level) {
+      set(stroke, level);
+    }
+
+    void set(Stroke stroke, int level){
+      this.stroke = stroke;
+      this.level = level;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if(!(other instanceof Key)){
+        return false;
+      }
+      Key key = (Key) other;
+      return key.stroke==stroke && key.level==level;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(stroke)*31 + level;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.bnsantos.drawing;
+
+import java.util.Arrays;
+
+/**
+ * Sampled points of a pencil stroke, stored as interleaved x/y pairs in a single growable array.
+ *
+ * Keeps the stroke bounds up to date as points are added so callers never have to walk the
+ * points to measure it. Has no Android dependencies.
+ */
+public class StrokePoints {
+  private static final int DEFAULT_CAPACITY = 32;
+
+  private float[] mCoords;
+  private int mSize;
+  private float mLeft, mTop, mRight, mBottom;
+
+  public StrokePoints() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public StrokePoints(int capacity) {
+    mCoords = new float[Math.max(capacity, 1)*2];
+  }
+
+  /**
+   * Wraps already sampled points without copying them
+   *
+   * @param coords interleaved x/y pairs, owned by the new instance
+   * @param size number of points in coords
+   */
+  public StrokePoints(float[] coords, int size) {
+    mCoords = coords.length>0 ? coords : new float[2];
+    while (mSize<size){
+      updateBounds(coords[mSize*2], coords[mSize*2 + 1]);
+      mSize++;
+    }
+  }
+
+  public void add(float x, float y){
+    if(mSize*2==mCoords.length){
+      mCoords = Arrays.copyOf(mCoords, mCoords.length*2);
+    }
+    mCoords[mSize*2] = x;
+    mCoords[mSize*2 + 1] = y;
+    updateBounds(x, y);
+    mSize++;
+  }
+
+  private void updateBounds(float x, float y){
+    if(mSize==0){
+      mLeft = mRight = x;
+      mTop = mBottom = y;
+    }else{
+      mLeft = Math.min(mLeft, x);
+      mTop = Math.min(mTop, y);
+      mRight = Math.max(mRight, x);
+      mBottom = Math.max(mBottom, y);
+    }
+  }
+
+  public int size(){
+    return mSize;
+  }
+
+  public float getX(int index){
+    return mCoords[index*2];
+  }
+
+  public float getY(int index){
+    return mCoords[index*2 + 1];
+  }
+
+  public float getLastX(){
+    return getX(mSize - 1);
+  }
+
+  public float getLastY(){
+    return getY(mSize - 1);
+  }
+
+  public float getLeft(){
+    return mLeft;
+  }
+
+  public float getTop(){
+    return mTop;
+  }
+
+  public float getRight(){
+    return mRight;
+  }
+
+  public float getBottom(){
+    return mBottom;
+  }
+
+  /**
+   * Drops every point but keeps the capacity, so a buffer reused between strokes stops growing once
+   * it has held the longest one
+   */
+  public void clear(){
+    mSize = 0;
+  }
+
+  /**
+   * @return copy of the points in an array of exactly their size
+   */
+  public StrokePoints copy(){
+    return new StrokePoints(Arrays.copyOf(mCoords, Math.max(mSize, 1)*2), mSize);
+  }
+
+  /**
+   * Keeps only the points flagged in keep, preserving their order, and recomputes the bounds
+   */
+  public void retain(boolean[] keep){
+    int size = mSize;
+    mSize = 0;
+    for (int i = 0; i < size; i++) {
+      if(keep[i]){
+        add(mCoords[i*2], mCoords[i*2 + 1]);
+      }
+    }
+  }
+
+  /**
+   * Releases the spare capacity left by the growth policy once the stroke is complete
+   */
+  public void trimToSize(){
+    if(mCoords.length > mSize*2){
+      mCoords = Arrays.copyOf(mCoords, Math.max(mSize, 1)*2);
+    }
+  }
+
+  /**
+   * @return backing array of interleaved x/y pairs, only the first size()*2 values are points
+   */
+  float[] coords(){
+    return mCoords;
+  }
+
+  public int capacity(){
+    return mCoords.length/2;
+  }
+}
@@ -0,0 +1,233 @@
+package com.bnsantos.drawing;
+
+/**
+ * Ramer-Douglas-Peucker simplification of {@link StrokePoints}.
+ *
+ * Drops every sample that lies closer than the tolerance to the line between the samples kept
+ * around it, so a tolerance around one pixel removes most of the raw touch samples with no visible
+ * change.
+ *
+ * Smoothed strokes are rendered as quadratic curves through the midpoints between samples, with each
+ * sample as the control point, so dropping a sample also moves the curve around its neighbours. For
+ * those the rendered curves are compared once the line is simplified: wherever the simplified curve
+ * strays further than the tolerance from the original one, the sample farthest from it is kept back
+ * and the comparison repeated, so the committed stroke never pops away from its preview.
+ * Scratch buffers are reused between strokes. Has no Android dependencies.
+ */
+public class StrokeSimplifier {
+  // samples taken along each curve piece compared, and segments the simplified pieces are flattened to
+  private static final int PIECE_SAMPLES = 4;
+  private static final int PIECE_SEGMENTS = 16;
+
+  private float mTolerance;
+  private boolean[] mKeep = new boolean[0];
+  private int[] mStack = new int[0];
+  private int[] mPrevious = new int[0];
+  private int[] mNext = new int[0];
+  private final float[] mOriginal = new float[6];
+  private final float[] mSimplified = new float[6];
+  private final float[] mPoint = new float[2];
+
+  public StrokeSimplifier(float tolerance) {
+    mTolerance = tolerance;
+  }
+
+  public void setTolerance(float tolerance) {
+    mTolerance = tolerance;
+  }
+
+  public float getTolerance() {
+    return mTolerance;
+  }
+
+  /**
+   * Simplifies the points of a stroke drawn with straight segments in place
+   *
+   * @return number of points left
+   */
+  public int simplify(StrokePoints points){
+    return simplify(points, false);
+  }
+
+  /**
+   * Simplifies points in place
+   *
+   * @param smooth whether the points are rendered as curves through their midpoints
+   * @return number of points left
+   */
+  public int simplify(StrokePoints points, boolean smooth){
+    int size = points.size();
+    if(mTolerance<=0 || size<3){
+      return size;
+    }
+    if(mKeep.length<size){
+      mKeep = new boolean[size];
+      mStack = new int[size*2];
+      mPrevious = new int[size];
+      mNext = new int[size];
+    }
+    for (int i = 0; i < size; i++) {
+      mKeep[i] = false;
+    }
+    mKeep[0] = true;
+    mKeep[size - 1] = true;
+
+    float squaredTolerance = mTolerance*mTolerance;
+    int top = 0;
+    mStack[top++] = 0;
+    mStack[top++] = size - 1;
+    while (top>0){
+      int last = mStack[--top];
+      int first = mStack[--top];
+      float maxDistance = 0;
+      int farthest = -1;
+      for (int i = first + 1; i < last; i++) {
+        float distance = squaredSegmentDistance(points, i, first, last);
+        if(distance>maxDistance){
+          maxDistance = distance;
+          farthest = i;
+        }
+      }
+      if(farthest>=0 && maxDistance>squaredTolerance){
+        mKeep[farthest] = true;
+        mStack[top++] = first;
+        mStack[top++] = farthest;
+        mStack[top++] = farthest;
+        mStack[top++] = last;
+      }
+    }
+    if(smooth){
+      while (keepCurveDeviations(points, size)){
+        // every pass keeps at least one more sample, with all of them kept there is no deviation
+      }
+    }
+    points.retain(mKeep);
+    return points.size();
+  }
+
+  /**
+   * Compares the pieces of the original curve with the simplified pieces around them and, in every
+   * span between kept samples that strays too far, keeps the dropped sample closest to the worst piece
+   *
+   * @return whether any sample was kept back
+   */
+  private boolean keepCurveDeviations(StrokePoints points, int size){
+    int previous = -1;
+    for (int i = 0; i < size; i++) {
+      mPrevious[i] = previous;
+      if(mKeep[i]){
+        previous = i;
+      }
+    }
+    int next = -1;
+    for (int i = size - 1; i >= 0; i--) {
+      mNext[i] = next;
+      if(mKeep[i]){
+        next = i;
+      }
+    }
+    float squaredTolerance = mTolerance*mTolerance;
+    boolean kept = false;
+    int first = 0;
+    while (first<size - 1){
+      int last = mNext[first];
+      // the piece of last starts the next span, but the final one ends the stroke
+      int end = last==size - 1 ? last : last - 1;
+      float worst = squaredTolerance;
+      int worstIndex = -1;
+      for (int j = first; j <= end; j++) {
+        piece(points, j - 1, j, j + 1<size ? j + 1 : -1, mOriginal);
+        for (int s = 0; s <= PIECE_SAMPLES; s++) {
+          evaluate(mOriginal, s/(float) PIECE_SAMPLES, mPoint);
+          float x = mPoint[0], y = mPoint[1];
+          float distance = Math.min(squaredPieceDistance(points, mPrevious[first], x, y),
+              Math.min(squaredPieceDistance(points, first, x, y), squaredPieceDistance(points, last, x, y)));
+          if(distance>worst){
+            worst = distance;
+            worstIndex = j;
+          }
+        }
+      }
+      if(worstIndex>=0 && mKeep[worstIndex]){
+        // a kept sample's piece also moves with the neighbours dropped on either side
+        if(worstIndex + 1<size && !mKeep[worstIndex + 1]){
+          worstIndex++;
+        }else if(worstIndex>0 && !mKeep[worstIndex - 1]){
+          worstIndex--;
+        }else{
+          // nothing left to keep, what is left is flattening error
+          worstIndex = -1;
+        }
+      }
+      if(worstIndex>=0){
+        mKeep[worstIndex] = true;
+        kept = true;
+      }
+      first = last;
+    }
+    return kept;
+  }
+
+  /**
+   * @return squared distance from x, y to the simplified piece of the kept sample index, flattened to
+   *         segments, or the largest float when there is no such sample
+   */
+  private float squaredPieceDistance(StrokePoints points, int index, float x, float y){
+    if(index<0){
+      return Float.MAX_VALUE;
+    }
+    piece(points, mPrevious[index], index, mNext[index], mSimplified);
+    float closest = Float.MAX_VALUE;
+    float fromX = mSimplified[0], fromY = mSimplified[1];
+    for (int s = 1; s <= PIECE_SEGMENTS; s++) {
+      evaluate(mSimplified, s/(float) PIECE_SEGMENTS, mPoint);
+      closest = Math.min(closest, squaredSegmentDistance(x, y, fromX, fromY, mPoint[0], mPoint[1]));
+      fromX = mPoint[0];
+      fromY = mPoint[1];
+    }
+    return closest;
+  }
+
+  /**
+   * Sets out to the curve sample index controls: from the midpoint with the previous sample, or the
+   * sample itself for the first one, to the midpoint with the next, or itself for the last one
+   */
+  private static void piece(StrokePoints points, int previous, int index, int next, float[] out){
+    float x = points.getX(index), y = points.getY(index);
+    out[0] = previous<0 ? x : (points.getX(previous) + x)/2f;
+    out[1] = previous<0 ? y : (points.getY(previous) + y)/2f;
+    out[2] = x;
+    out[3] = y;
+    out[4] = next<0 ? x : (x + points.getX(next))/2f;
+    out[5] = next<0 ? y : (y + points.getY(next))/2f;
+  }
+
+  private static void evaluate(float[] piece, float t, float[] out){
+    float u = 1 - t;
+    out[0] = u*u*piece[0] + 2*u*t*piece[2] + t*t*piece[4];
+    out[1] = u*u*piece[1] + 2*u*t*piece[3] + t*t*piece[5];
+  }
+
+  private static float squaredSegmentDistance(StrokePoints points, int index, int first, int last){
+    return squaredSegmentDistance(points.getX(index), points.getY(index), points.getX(first), points.getY(first),
+        points.getX(last), points.getY(last));
+  }
+
+  private static float squaredSegmentDistance(float x, float y, float startX, float startY, float endX, float endY){
+    float dx = endX - startX, dy = endY - startY;
+    float lengthSquared = dx*dx + dy*dy;
+    if(lengthSquared>0){
+      float t = ((x - startX)*dx + (y - startY)*dy)/lengthSquared;
+      if(t>1){
+        startX += dx;
+        startY += dy;
+      }else if(t>0){
+        startX += dx*t;
+        startY += dy*t;
+      }
+    }
+    dx = x - startX;
+    dy = y - startY;
+    return dx*dx + dy*dy;
+  }
+}
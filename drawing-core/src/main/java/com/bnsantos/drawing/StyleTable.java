@@ -0,0 +1,95 @@
+package com.bnsantos.drawing;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Interned table of the styles used by drawing actions.
+ *
+ * Actions keep the small integer id returned by {@link #intern(int, float, boolean, boolean)}
+ * instead of their own style, so every action drawn with the same color, width, fill and erase flag
+ * shares one entry. Ids are handed out in order from 0. Interning happens on a single thread,
+ * lookups are safe from any thread.
+ */
+public class StyleTable {
+  private final Map<Style, Integer> mIds;
+  private final List<Style> mStyles;
+  private final Style mProbe;
+
+  public StyleTable() {
+    mIds = new HashMap<>();
+    mStyles = new CopyOnWriteArrayList<>();
+    mProbe = new Style();
+  }
+
+  /**
+   * @param erase whether the style clears pixels instead of painting them
+   * @return id of the style with these attributes
+   */
+  public int intern(int color, float width, boolean fill, boolean erase){
+    mProbe.set(color, width, fill, erase);
+    Integer id = mIds.get(mProbe);
+    if(id!=null){
+      return id;
+    }
+    Style style = new Style();
+    style.set(color, width, fill, erase);
+    id = mStyles.size();
+    mStyles.add(style);
+    mIds.put(style, id);
+    return id;
+  }
+
+  public int getColor(int id){
+    return mStyles.get(id).color;
+  }
+
+  public float getWidth(int id){
+    return mStyles.get(id).width;
+  }
+
+  public boolean isFill(int id){
+    return mStyles.get(id).fill;
+  }
+
+  public boolean isErase(int id){
+    return mStyles.get(id).erase;
+  }
+
+  public int size(){
+    return mStyles.size();
+  }
+
+  private static class Style {
+    int color;
+    float width;
+    boolean fill;
+    boolean erase;
+
+    void set(int color, float width, boolean fill, boolean erase) {
+      this.color = color;
+      this.width = width;
+      this.fill = fill;
+      this.erase = erase;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Style)) return false;
+      Style other = (Style) o;
+      return color == other.color && Float.compare(width, other.width) == 0 && fill == other.fill && erase == other.erase;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = color;
+      result = 31 * result + Float.floatToIntBits(width);
+      result = 31 * result + (fill ? 1 : 0);
+      result = 31 * result + (erase ? 1 : 0);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package com.bnsantos.drawing;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes a drawing through a {@link SvgWriter} in two passes over the actions, first declaring the
+ * erasers and then drawing, so the SVG streams out in constant memory however long the history is.
+ * Each layer becomes a group with its opacity, and its erasers only clear what it holds.
+ */
+public final class SvgExport {
+
+  private SvgExport() {
+  }
+
+  /**
+   * @param layers visible layers, bottom first
+   * @param background color painted under the drawing, erasers don't clear it. Null for none.
+   */
+  public static void write(SvgWriter writer, int width, int height, List<LayerContent> layers, StyleTable styles,
+                           Integer background) throws IOException {
+    writer.begin(width, height);
+    int[] erasers = new int[layers.size()];
+    for (int i = 0; i < erasers.length; i++) {
+      for (Action action : layers.get(i).actions) {
+        if(action instanceof Stroke && ((Stroke) action).isErase()){
+          Stroke stroke = (Stroke) action;
+          writer.defineEraser(stroke.points, stroke.smooth, styles.getWidth(stroke.styleId));
+          erasers[i]++;
+        }
+      }
+    }
+    if(background!=null){
+      writer.fillBackground(background);
+    }
+    for (int i = 0; i < erasers.length; i++) {
+      LayerContent layer = layers.get(i);
+      writer.beginLayer(erasers[i], layer.opacity);
+      if(layer.baseLayer!=null){
+        writer.drawImage(layer.baseLayer);
+      }
+      for (Action action : layer.actions) {
+        writeShape(writer, action, styles);
+      }
+      writer.endLayer();
+    }
+    writer.finish();
+  }
+
+  private static void writeShape(SvgWriter writer, Action action, StyleTable styles) throws IOException {
+    if(action instanceof Stroke){
+      Stroke stroke = (Stroke) action;
+      if(stroke.isErase()){
+        writer.applyEraser();
+      }else{
+        writer.drawStroke(stroke.points, stroke.smooth, styles.getColor(stroke.styleId), styles.getWidth(stroke.styleId));
+      }
+    }else if(action instanceof Circle){
+      Circle circle = (Circle) action;
+      writer.drawCircle(circle.centerX, circle.centerY, circle.radius, styles.getColor(circle.styleId),
+          styles.getWidth(circle.styleId), styles.isFill(circle.styleId));
+    }else if(action instanceof Rectangle){
+      Rectangle rectangle = (Rectangle) action;
+      writer.drawRectangle(rectangle.left(), rectangle.top(), rectangle.right(), rectangle.bottom(),
+          styles.getColor(rectangle.styleId), styles.getWidth(rectangle.styleId), styles.isFill(rectangle.styleId));
+    }else{
+      throw new IOException("Can't export " + action.getClass().getSimpleName());
+    }
+  }
+}
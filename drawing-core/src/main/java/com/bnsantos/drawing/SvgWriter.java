@@ -0,0 +1,371 @@
+package com.bnsantos.drawing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams a drawing as SVG, element by element, without building a document in memory.
+ *
+ * Eraser strokes clear everything drawn before them, which SVG can only express with masks. Each
+ * eraser is defined up front with {@link #defineEraser(StrokePoints, boolean, float)}, then the
+ * content opens one group per eraser, innermost first in history order, and {@link #applyEraser()}
+ * closes the innermost one where the eraser happened in the history. Everything drawn before an
+ * eraser ends up inside its group and everything after it outside.
+ *
+ * Layers are groups opened with {@link #beginLayer(int, float)}, which take their own share of the
+ * defined erasers in definition order, so an eraser only clears what was drawn before it on the same
+ * layer. Has no Android dependencies.
+ */
+public class SvgWriter implements Closeable {
+  private static final int STATE_HEADER = 0;
+  private static final int STATE_DEFS = 1;
+  private static final int STATE_BACKGROUND = 2;
+  private static final int STATE_CONTENT = 3;
+  private static final int STATE_FINISHED = 4;
+
+  private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  private final Writer mOut;
+  private final char[] mNumber = new char[24];
+  private int mWidth, mHeight;
+  private int mState = STATE_HEADER;
+  private int mErasers;
+  // erasers whose group was already opened, the next one opened is mOpenedErasers + 1
+  private int mOpenedErasers;
+  private int mOpenGroups;
+  private boolean mLayerOpen;
+
+  /**
+   * @param out destination, buffered by the caller
+   */
+  public SvgWriter(Writer out) {
+    mOut = out;
+  }
+
+  public void begin(int width, int height) throws IOException {
+    mWidth = width;
+    mHeight = height;
+    mOut.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    mOut.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" version=\"1.1\" width=\"");
+    writeNumber(width);
+    mOut.write("\" height=\"");
+    writeNumber(height);
+    mOut.write("\" viewBox=\"0 0 ");
+    writeNumber(width);
+    mOut.write(' ');
+    writeNumber(height);
+    mOut.write("\" fill=\"none\" stroke-linecap=\"round\" stroke-linejoin=\"round\">\n");
+  }
+
+  /**
+   * Declares the next eraser of the history, all of them must be declared before anything is drawn
+   */
+  public void defineEraser(StrokePoints points, boolean smooth, float width) throws IOException {
+    if(mState>STATE_DEFS){
+      throw new IllegalStateException("Erasers must be defined before drawing");
+    }
+    if(mState==STATE_HEADER){
+      mOut.write("<defs>\n");
+      mState = STATE_DEFS;
+    }
+    mErasers++;
+    mOut.write("<mask id=\"e");
+    writeNumber(mErasers);
+    mOut.write("\" maskUnits=\"userSpaceOnUse\" x=\"0\" y=\"0\" width=\"");
+    writeNumber(mWidth);
+    mOut.write("\" height=\"");
+    writeNumber(mHeight);
+    mOut.write("\"><rect width=\"100%\" height=\"100%\" fill=\"#fff\"/>");
+    mOut.write("<path stroke=\"#000\" stroke-width=\"");
+    writeNumber(width);
+    mOut.write("\" d=\"");
+    writePathData(points, smooth);
+    mOut.write("\"/></mask>\n");
+  }
+
+  /**
+   * Paints the whole canvas under the drawing, erasers don't clear it
+   */
+  public void fillBackground(int color) throws IOException {
+    if(mState>STATE_BACKGROUND){
+      throw new IllegalStateException("Background must be filled before drawing");
+    }
+    endDefs();
+    mOut.write("<rect width=\"100%\" height=\"100%\"");
+    writeColor(" fill", color);
+    mOut.write("/>\n");
+  }
+
+  /**
+   * Draws a PNG over the whole canvas, embedded as a data URI. Like shapes it is cleared by erasers
+   * applied after it.
+   */
+  public void drawImage(byte[] png) throws IOException {
+    startContent();
+    mOut.write("<image width=\"");
+    writeNumber(mWidth);
+    mOut.write("\" height=\"");
+    writeNumber(mHeight);
+    mOut.write("\" xlink:href=\"data:image/png;base64,");
+    writeBase64(png);
+    mOut.write("\"/>\n");
+  }
+
+  public void drawStroke(StrokePoints points, boolean smooth, int color, float width) throws IOException {
+    startContent();
+    mOut.write("<path");
+    writeStrokeAttributes(color, width);
+    mOut.write(" d=\"");
+    writePathData(points, smooth);
+    mOut.write("\"/>\n");
+  }
+
+  public void drawCircle(float centerX, float centerY, float radius, int color, float width, boolean fill) throws IOException {
+    startContent();
+    mOut.write("<circle cx=\"");
+    writeNumber(centerX);
+    mOut.write("\" cy=\"");
+    writeNumber(centerY);
+    mOut.write("\" r=\"");
+    writeNumber(radius);
+    mOut.write('"');
+    writeShapeAttributes(color, width, fill);
+    mOut.write("/>\n");
+  }
+
+  public void drawRectangle(float left, float top, float right, float bottom, int color, float width, boolean fill) throws IOException {
+    startContent();
+    mOut.write("<rect x=\"");
+    writeNumber(left);
+    mOut.write("\" y=\"");
+    writeNumber(top);
+    mOut.write("\" width=\"");
+    writeNumber(right - left);
+    mOut.write("\" height=\"");
+    writeNumber(bottom - top);
+    mOut.write('"');
+    writeShapeAttributes(color, width, fill);
+    mOut.write("/>\n");
+  }
+
+  /**
+   * Starts a group composed over what was drawn before with opacity. Everything drawn until
+   * {@link #endLayer()} belongs to it, including the next erasers defined erasers.
+   */
+  public void beginLayer(int erasers, float opacity) throws IOException {
+    if(mState==STATE_FINISHED){
+      throw new IllegalStateException("Already finished");
+    }
+    if(mLayerOpen || mOpenGroups>0){
+      throw new IllegalStateException("Layers can't be nested");
+    }
+    if(mOpenedErasers + erasers>mErasers){
+      throw new IllegalStateException("More erasers in layers than defined");
+    }
+    endDefs();
+    mState = STATE_CONTENT;
+    mOut.write("<g");
+    if(opacity<1f){
+      mOut.write(" opacity=\"");
+      writeNumber(opacity);
+      mOut.write('"');
+    }
+    mOut.write(">\n");
+    openEraserGroups(erasers);
+    mLayerOpen = true;
+  }
+
+  public void endLayer() throws IOException {
+    if(!mLayerOpen){
+      throw new IllegalStateException("No layer open");
+    }
+    closeGroups();
+    mOut.write("</g>\n");
+    mLayerOpen = false;
+  }
+
+  /**
+   * Marks where the next defined eraser happened, it clears everything drawn so far
+   */
+  public void applyEraser() throws IOException {
+    startContent();
+    if(mOpenGroups==0){
+      throw new IllegalStateException("More erasers applied than defined");
+    }
+    mOut.write("</g>\n");
+    mOpenGroups--;
+  }
+
+  public void finish() throws IOException {
+    if(mState==STATE_FINISHED){
+      return;
+    }
+    startContent();
+    if(mLayerOpen){
+      endLayer();
+    }
+    closeGroups();
+    mOut.write("</svg>\n");
+    mOut.flush();
+    mState = STATE_FINISHED;
+  }
+
+  @Override
+  public void close() throws IOException {
+    mOut.close();
+  }
+
+  private void endDefs() throws IOException {
+    if(mState==STATE_DEFS){
+      mOut.write("</defs>\n");
+    }
+    if(mState<STATE_BACKGROUND){
+      mState = STATE_BACKGROUND;
+    }
+  }
+
+  private void startContent() throws IOException {
+    if(mState==STATE_FINISHED){
+      throw new IllegalStateException("Already finished");
+    }
+    if(mState==STATE_CONTENT){
+      return;
+    }
+    endDefs();
+    openEraserGroups(mErasers - mOpenedErasers);
+    mState = STATE_CONTENT;
+  }
+
+  /**
+   * Opens the groups of the next count erasers, the last one outermost
+   */
+  private void openEraserGroups(int count) throws IOException {
+    for (int eraser = mOpenedErasers + count; eraser > mOpenedErasers; eraser--) {
+      mOut.write("<g mask=\"url(#e");
+      writeNumber(eraser);
+      mOut.write(")\">\n");
+    }
+    mOpenedErasers += count;
+    mOpenGroups = count;
+  }
+
+  private void closeGroups() throws IOException {
+    while (mOpenGroups>0){
+      mOut.write("</g>\n");
+      mOpenGroups--;
+    }
+  }
+
+  private void writeShapeAttributes(int color, float width, boolean fill) throws IOException {
+    if(fill){
+      writeColor(" fill", color);
+    }else{
+      writeStrokeAttributes(color, width);
+    }
+  }
+
+  private void writeStrokeAttributes(int color, float width) throws IOException {
+    writeColor(" stroke", color);
+    mOut.write(" stroke-width=\"");
+    writeNumber(width);
+    mOut.write('"');
+  }
+
+  /**
+   * Writes attribute="#rrggbb", plus attribute-opacity when the color is translucent
+   */
+  private void writeColor(String attribute, int color) throws IOException {
+    mOut.write(attribute);
+    mOut.write("=\"#");
+    for (int shift = 20; shift >= 0; shift -= 4) {
+      mOut.write(Character.forDigit((color >> shift) & 0xf, 16));
+    }
+    mOut.write('"');
+    int alpha = color >>> 24;
+    if(alpha<0xff){
+      mOut.write(attribute);
+      mOut.write("-opacity=\"");
+      writeNumber(alpha/255f);
+      mOut.write('"');
+    }
+  }
+
+  /**
+   * Same geometry as the view: smoothed strokes curve through the midpoints between samples
+   */
+  private void writePathData(StrokePoints points, boolean smooth) throws IOException {
+    mOut.write('M');
+    writePoint(points.getX(0), points.getY(0));
+    for (int i = 1; i < points.size(); i++) {
+      if(smooth){
+        float controlX = points.getX(i - 1);
+        float controlY = points.getY(i - 1);
+        mOut.write('Q');
+        writePoint(controlX, controlY);
+        mOut.write(' ');
+        writePoint((controlX + points.getX(i))/2.0f, (controlY + points.getY(i))/2.0f);
+      }else{
+        mOut.write('L');
+        writePoint(points.getX(i), points.getY(i));
+      }
+    }
+    if(smooth && points.size()>1){
+      mOut.write('L');
+      writePoint(points.getLastX(), points.getLastY());
+    }
+  }
+
+  private void writeBase64(byte[] data) throws IOException {
+    for (int i = 0; i < data.length; i += 3) {
+      int remaining = data.length - i;
+      int group = (data[i] & 0xff) << 16;
+      if(remaining>1){
+        group |= (data[i + 1] & 0xff) << 8;
+      }
+      if(remaining>2){
+        group |= data[i + 2] & 0xff;
+      }
+      mOut.write(BASE64[group >> 18]);
+      mOut.write(BASE64[(group >> 12) & 0x3f]);
+      mOut.write(remaining>1 ? BASE64[(group >> 6) & 0x3f] : '=');
+      mOut.write(remaining>2 ? BASE64[group & 0x3f] : '=');
+    }
+  }
+
+  private void writePoint(float x, float y) throws IOException {
+    writeNumber(x);
+    mOut.write(',');
+    writeNumber(y);
+  }
+
+  /**
+   * Writes value rounded to two decimals without trailing zeros, locale independent and garbage free
+   */
+  void writeNumber(float value) throws IOException {
+    long hundredths = Math.round(value*100.0);
+    boolean negative = hundredths<0;
+    if(negative){
+      hundredths = -hundredths;
+    }
+    int end = mNumber.length;
+    int position = end;
+    long fraction = hundredths%100;
+    if(fraction!=0){
+      if(fraction%10!=0){
+        mNumber[--position] = (char) ('0' + fraction%10);
+      }
+      mNumber[--position] = (char) ('0' + fraction/10);
+      mNumber[--position] = '.';
+    }
+    long whole = hundredths/100;
+    do {
+      mNumber[--position] = (char) ('0' + whole%10);
+      whole /= 10;
+    } while (whole>0);
+    if(negative){
+      mNumber[--position] = '-';
+    }
+    mOut.write(mNumber, position, end - position);
+  }
+}
@@ -0,0 +1,157 @@
+package com.bnsantos.drawing;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Tile pixels spilled to a directory, one file per tile named after its key.
+ *
+ * Pixels are stored deflated at the fastest level: drawings are mostly transparent or flat color, so
+ * a tile usually takes a small fraction of its raw size and writing it costs less than the copy it
+ * replaces. Files found in the directory when the cache is opened belong to a previous process and
+ * are deleted. Not thread safe. Has no Android dependencies.
+ */
+public class TileDiskCache {
+  private static final int MAGIC = 0x54494c45;
+
+  private final File mDirectory;
+  private final Map<Long, Long> mFileSizes = new HashMap<>();
+  private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+  private final Inflater mInflater = new Inflater();
+  private byte[] mBuffer = new byte[16*1024];
+  private long mByteCount;
+
+  public TileDiskCache(File directory) throws IOException {
+    if(!directory.exists() && !directory.mkdirs()){
+      throw new IOException("Can't create " + directory);
+    }
+    mDirectory = directory;
+    deleteFiles();
+  }
+
+  /**
+   * Stores length bytes of pixels under key, replacing what was stored there
+   */
+  public void write(long key, byte[] pixels, int length) throws IOException {
+    remove(key);
+    File file = fileFor(key);
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(length);
+      mDeflater.reset();
+      mDeflater.setInput(pixels, 0, length);
+      mDeflater.finish();
+      while (!mDeflater.finished()){
+        int deflated = mDeflater.deflate(mBuffer);
+        out.write(mBuffer, 0, deflated);
+      }
+    } catch (IOException e){
+      out.close();
+      file.delete();
+      throw e;
+    }
+    out.close();
+    long size = file.length();
+    mFileSizes.put(key, size);
+    mByteCount += size;
+  }
+
+  /**
+   * @param pixels receives the stored bytes, must hold as many as were written
+   * @return bytes read, -1 when nothing is stored under key
+   */
+  public int read(long key, byte[] pixels) throws IOException {
+    if(!mFileSizes.containsKey(key)){
+      return -1;
+    }
+    DataInputStream in = new DataInputStream(new FileInputStream(fileFor(key)));
+    try {
+      if(in.readInt()!=MAGIC){
+        throw new IOException("Not a tile");
+      }
+      int length = in.readInt();
+      if(length<0 || length>pixels.length){
+        throw new IOException("Tile of " + length + " bytes doesn't fit in " + pixels.length);
+      }
+      mInflater.reset();
+      int inflated = 0;
+      while (inflated<length){
+        if(mInflater.needsInput()){
+          int read = in.read(mBuffer);
+          if(read<0){
+            throw new EOFException("Truncated tile");
+          }
+          mInflater.setInput(mBuffer, 0, read);
+        }
+        int count = mInflater.inflate(pixels, inflated, length - inflated);
+        if(count==0 && (mInflater.finished() || mInflater.needsDictionary())){
+          throw new IOException("Truncated tile");
+        }
+        inflated += count;
+      }
+      return length;
+    } catch (DataFormatException e){
+      throw new IOException("Corrupted tile", e);
+    } finally {
+      in.close();
+    }
+  }
+
+  public boolean contains(long key){
+    return mFileSizes.containsKey(key);
+  }
+
+  public void remove(long key){
+    Long size = mFileSizes.remove(key);
+    if(size!=null){
+      fileFor(key).delete();
+      mByteCount -= size;
+    }
+  }
+
+  /**
+   * @return tiles stored
+   */
+  public int size(){
+    return mFileSizes.size();
+  }
+
+  /**
+   * @return bytes the stored tiles take on disk
+   */
+  public long getByteCount(){
+    return mByteCount;
+  }
+
+  public void clear(){
+    mFileSizes.clear();
+    mByteCount = 0;
+    deleteFiles();
+  }
+
+  private File fileFor(long key){
+    return new File(mDirectory, Long.toHexString(key) + ".tile");
+  }
+
+  private void deleteFiles(){
+    File[] files = mDirectory.listFiles();
+    if(files!=null){
+      for (File file : files) {
+        if(file.getName().endsWith(".tile")){
+          file.delete();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package com.bnsantos.drawing;
+
+/**
+ * Zoom and pan of a view over a drawing: a view point is the drawing point times the scale plus the
+ * translation.
+ *
+ * The scale stays within its limits and the content is kept in sight, centered along an axis where
+ * it is smaller than the view and covering the view where it is larger, unless the viewport is
+ * unbounded. Every change bumps a version so work started for an older viewport can tell it is stale.
+ * Has no Android dependencies.
+ */
+public class Viewport {
+  private final float mMinScale, mMaxScale;
+  private float mScale = 1f;
+  private float mTranslateX, mTranslateY;
+  private int mViewWidth, mViewHeight;
+  private float mContentWidth, mContentHeight;
+  private int mVersion;
+  private boolean mBounded = true;
+
+  public Viewport(float minScale, float maxScale) {
+    if(minScale<=0 || maxScale<minScale){
+      throw new IllegalArgumentException("Invalid scale limits");
+    }
+    mMinScale = minScale;
+    mMaxScale = maxScale;
+  }
+
+  /**
+   * Sets the view size and resets to showing the content at its own size
+   */
+  public void setViewSize(int width, int height){
+    mViewWidth = width;
+    mViewHeight = height;
+    reset();
+  }
+
+  /**
+   * @param width size of what can be zoomed and panned over, in drawing coordinates
+   */
+  public void setContentSize(float width, float height){
+    mContentWidth = width;
+    mContentHeight = height;
+    constrain();
+    mVersion++;
+  }
+
+  /**
+   * Unbounded viewports pan anywhere, there is no content edge to keep in sight
+   */
+  public void setBounded(boolean bounded){
+    mBounded = bounded;
+    constrain();
+    mVersion++;
+  }
+
+  public boolean isBounded(){
+    return mBounded;
+  }
+
+  public void reset(){
+    mScale = 1f;
+    mTranslateX = 0;
+    mTranslateY = 0;
+    constrain();
+    mVersion++;
+  }
+
+  /**
+   * Scales by factor around a view point, which keeps showing the same drawing point
+   */
+  public void zoom(float factor, float focusX, float focusY){
+    float scale = Math.max(mMinScale, Math.min(mScale*factor, mMaxScale));
+    float applied = scale/mScale;
+    mTranslateX = focusX - (focusX - mTranslateX)*applied;
+    mTranslateY = focusY - (focusY - mTranslateY)*applied;
+    mScale = scale;
+    constrain();
+    mVersion++;
+  }
+
+  /**
+   * Moves the content by dx, dy view pixels
+   */
+  public void pan(float dx, float dy){
+    mTranslateX += dx;
+    mTranslateY += dy;
+    constrain();
+    mVersion++;
+  }
+
+  public float getScale(){
+    return mScale;
+  }
+
+  public float getTranslateX(){
+    return mTranslateX;
+  }
+
+  public float getTranslateY(){
+    return mTranslateY;
+  }
+
+  /**
+   * @return whether view and drawing coordinates are the same
+   */
+  public boolean isIdentity(){
+    return mScale==1f && mTranslateX==0 && mTranslateY==0;
+  }
+
+  public int getVersion(){
+    return mVersion;
+  }
+
+  public float toDrawingX(float viewX){
+    return (viewX - mTranslateX)/mScale;
+  }
+
+  public float toDrawingY(float viewY){
+    return (viewY - mTranslateY)/mScale;
+  }
+
+  /**
+   * Maps bounds in drawing coordinates to view coordinates, in place
+   */
+  public void toView(Bounds bounds){
+    bounds.set(bounds.left*mScale + mTranslateX, bounds.top*mScale + mTranslateY,
+        bounds.right*mScale + mTranslateX, bounds.bottom*mScale + mTranslateY);
+  }
+
+  /**
+   * Maps bounds in view coordinates to drawing coordinates, in place
+   */
+  public void toDrawing(Bounds bounds){
+    bounds.set(toDrawingX(bounds.left), toDrawingY(bounds.top), toDrawingX(bounds.right), toDrawingY(bounds.bottom));
+  }
+
+  /**
+   * @param out receives the part of the drawing the view shows, in drawing coordinates
+   */
+  public void getVisibleBounds(Bounds out){
+    out.set(0, 0, mViewWidth, mViewHeight);
+    toDrawing(out);
+  }
+
+  private void constrain(){
+    if(!mBounded){
+      return;
+    }
+    mTranslateX = constrain(mTranslateX, mViewWidth, mContentWidth*mScale);
+    mTranslateY = constrain(mTranslateY, mViewHeight, mContentHeight*mScale);
+  }
+
+  private static float constrain(float translate, float view, float content){
+    if(content<=view){
+      return (view - content)/2f;
+    }
+    return Math.max(view - content, Math.min(translate, 0));
+  }
+}
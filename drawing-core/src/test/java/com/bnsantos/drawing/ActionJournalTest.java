@@ -0,0 +1,258 @@
+package com.bnsantos.drawing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ActionJournalTest {
+  private File mDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = File.createTempFile("journal", "");
+    assertTrue(mDirectory.delete());
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = mDirectory.listFiles();
+    if(files!=null){
+      for (File file : files) {
+        assertTrue(file.delete());
+      }
+    }
+    assertTrue(mDirectory.delete());
+  }
+
+  @Test
+  public void replaysRecordsAfterSnapshot() throws Exception {
+    ActionJournal journal = new ActionJournal(mDirectory);
+    journal.compact(snapshot(1));
+    appendStroke(journal, 5);
+    journal.appendEvent(ActionJournal.RECORD_UNDO);
+    journal.appendEvent(ActionJournal.RECORD_REDO);
+    journal.appendEvent(ActionJournal.RECORD_CLEAR);
+    journal.close();
+    assertNull(journal.getFailure());
+
+    Recorder recorder = new Recorder();
+    ActionJournal recovered = new ActionJournal(mDirectory);
+    assertTrue(recovered.hasRecoverableSession());
+    assertTrue(recovered.recover(recorder));
+    recovered.close();
+    assertEquals(Arrays.asList("history 1", "stroke 0 1.0", "style", "stroke 0 5.0", "undo", "redo", "clear"), recorder.events);
+  }
+
+  @Test
+  public void replaysActionsOnTheirLayer() throws Exception {
+    ActionJournal journal = new ActionJournal(mDirectory);
+    journal.compact(snapshot(1));
+    StrokePoints points = new StrokePoints();
+    points.add(7, 7);
+    Stroke stroke = new Stroke(new StyleTable(), 0, false, points);
+    DrawingSession.writeAction(journal.beginRecord(ActionJournal.RECORD_LAYER_ACTION), 2, stroke);
+    journal.commitRecord();
+    journal.close();
+
+    Recorder recorder = new Recorder();
+    ActionJournal recovered = new ActionJournal(mDirectory);
+    recovered.recover(recorder);
+    recovered.close();
+    assertEquals(Arrays.asList("history 1", "stroke 0 1.0", "stroke 2 7.0"), recorder.events);
+  }
+
+  @Test
+  public void compactionDropsEarlierRecords() throws Exception {
+    ActionJournal journal = new ActionJournal(mDirectory);
+    journal.compact(snapshot(1));
+    appendStroke(journal, 5);
+    journal.compact(snapshot(2));
+    journal.appendEvent(ActionJournal.RECORD_UNDO);
+    journal.close();
+
+    Recorder recorder = new Recorder();
+    ActionJournal recovered = new ActionJournal(mDirectory);
+    recovered.recover(recorder);
+    recovered.close();
+    assertEquals(Arrays.asList("history 1", "stroke 0 2.0", "undo"), recorder.events);
+  }
+
+  @Test
+  public void compactsFromASnapshotWrittenOnTheJournalThread() throws Exception {
+    ActionJournal journal = new ActionJournal(mDirectory);
+    journal.compact(snapshot(1));
+    appendStroke(journal, 5);
+    final Thread caller = Thread.currentThread();
+    final Thread[] writer = new Thread[1];
+    assertTrue(journal.compact(new ActionJournal.SnapshotWriter() {
+      @Override
+      public void write(WritableByteChannel channel) throws IOException {
+        writer[0] = Thread.currentThread();
+        channel.write(ByteBuffer.wrap(snapshot(2)));
+      }
+    }));
+    // appended after the call, kept on top of the snapshot whenever it gets written
+    journal.appendEvent(ActionJournal.RECORD_UNDO);
+    journal.close();
+    assertNull(journal.getFailure());
+    assertFalse(writer[0]==caller);
+    assertFalse(journal.compact(new ActionJournal.SnapshotWriter() {
+      @Override
+      public void write(WritableByteChannel channel) {
+        throw new AssertionError("Written after close");
+      }
+    }));
+
+    Recorder recorder = new Recorder();
+    ActionJournal recovered = new ActionJournal(mDirectory);
+    recovered.recover(recorder);
+    recovered.close();
+    assertEquals(Arrays.asList("history 1", "stroke 0 2.0", "undo"), recorder.events);
+  }
+
+  @Test
+  public void stopsAtTornRecord() throws Exception {
+    ActionJournal journal = new ActionJournal(mDirectory);
+    journal.compact(snapshot(1));
+    journal.appendEvent(ActionJournal.RECORD_UNDO);
+    journal.close();
+
+    FileOutputStream out = new FileOutputStream(new File(mDirectory, "journal.log"), true);
+    out.write(new byte[]{0, 0, 0, 9, 1, 2, 3, 4, ActionJournal.RECORD_CLEAR});
+    out.close();
+
+    Recorder recorder = new Recorder();
+    ActionJournal recovered = new ActionJournal(mDirectory);
+    recovered.recover(recorder);
+    recovered.close();
+    assertEquals(Arrays.asList("history 1", "stroke 0 1.0", "undo"), recorder.events);
+  }
+
+  @Test
+  public void discardLeavesNothingToRecover() throws Exception {
+    ActionJournal journal = new ActionJournal(mDirectory);
+    journal.compact(snapshot(1));
+    journal.discard();
+    journal.close();
+
+    ActionJournal recovered = new ActionJournal(mDirectory);
+    assertFalse(recovered.hasRecoverableSession());
+    assertFalse(recovered.recover(new Recorder()));
+    recovered.close();
+  }
+
+  @Test
+  public void emptySnapshotIsNotRecoverable() throws Exception {
+    ActionJournal journal = new ActionJournal(mDirectory);
+    journal.compact(snapshot(0));
+    journal.close();
+
+    ActionJournal recovered = new ActionJournal(mDirectory);
+    assertFalse(recovered.hasRecoverableSession());
+    recovered.close();
+  }
+
+  private static void appendStroke(ActionJournal journal, float x) throws IOException {
+    journal.beginRecord(ActionJournal.RECORD_STYLE).writeStyle(0xff000000, 2f, false, false);
+    journal.commitRecord();
+    StrokePoints points = new StrokePoints();
+    points.add(x, x);
+    // written the way journals did before layers, without a layer index
+    journal.beginRecord(ActionJournal.RECORD_ACTION).writeStroke(1, true, points);
+    journal.commitRecord();
+  }
+
+  /**
+   * @param x position of the single stroke in the snapshot, or 0 for an empty one
+   */
+  private static byte[] snapshot(float x) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SessionWriter writer = new SessionWriter(Channels.newChannel(out));
+    writer.writeHeader(100, 100, null);
+    writer.writeStyleCount(1);
+    writer.writeStyle(0xff000000, 1f, false, false);
+    writer.writeLayerCount(1);
+    writer.writeLayer(0, true, true, 1f, null);
+    if(x>0){
+      StrokePoints points = new StrokePoints();
+      points.add(x, x);
+      writer.writeHistory(1, 0);
+      writer.writeLayerIndex(0);
+      writer.writeStroke(0, true, points);
+    }else{
+      writer.writeHistory(0, 0);
+    }
+    writer.close();
+    return out.toByteArray();
+  }
+
+  private static class Recorder implements ActionJournal.Replayer {
+    final List<String> events = new ArrayList<>();
+
+    @Override
+    public void onHeader(int width, int height, String background) {
+    }
+
+    @Override
+    public void onStyle(int color, float width, boolean fill, boolean erase) {
+      if(!events.isEmpty()){
+        events.add("style");
+      }
+    }
+
+    @Override
+    public void onLayer(int id, boolean visible, boolean active, float opacity, byte[] baseLayer) {
+    }
+
+    @Override
+    public void onHistory(int actionCount, int undoCount) {
+      events.add("history " + actionCount);
+    }
+
+    @Override
+    public void onStroke(int layer, int styleId, boolean smooth, StrokePoints points) {
+      events.add("stroke " + layer + " " + points.getX(0));
+    }
+
+    @Override
+    public void onCircle(int layer, int styleId, float centerX, float centerY, float radius) {
+      events.add("circle");
+    }
+
+    @Override
+    public void onRectangle(int layer, int styleId, float left, float top, float right, float bottom) {
+      events.add("rectangle");
+    }
+
+    @Override
+    public void onUndo() {
+      events.add("undo");
+    }
+
+    @Override
+    public void onRedo() {
+      events.add("redo");
+    }
+
+    @Override
+    public void onClear() {
+      events.add("clear");
+    }
+  }
+}
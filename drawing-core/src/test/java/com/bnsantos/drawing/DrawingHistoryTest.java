@@ -0,0 +1,106 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DrawingHistoryTest {
+  private static final float DELTA = 0f;
+
+  @Test
+  public void undoAndRedoMoveActionsBetweenStacksAndIndex() {
+    StyleTable styles = new StyleTable();
+    int style = styles.intern(0xff000000, 4f, false, false);
+    DrawingHistory history = new DrawingHistory();
+    Circle circle = new Circle(styles, style, 10, 10);
+    circle.setRadius(30, 10);
+    Rectangle rectangle = new Rectangle(styles, style, 100, 100);
+    rectangle.setFinalPoint(200, 150);
+    history.add(circle);
+    history.add(rectangle);
+
+    List<Action> found = new ArrayList<>();
+    history.query(150, 120, found);
+    assertEquals(1, found.size());
+    assertSame(rectangle, found.get(0));
+
+    assertSame(rectangle, history.undo());
+    assertTrue(history.canRedo());
+    assertEquals(1, history.size());
+    found.clear();
+    history.query(150, 120, found);
+    assertTrue(found.isEmpty());
+
+    assertSame(rectangle, history.redo());
+    assertFalse(history.canRedo());
+    assertNull(history.redo());
+    history.query(0, 0, 300, 300, found);
+    assertEquals(2, found.size());
+    assertEquals(2*DrawingHistory.ACTION_OVERHEAD_BYTES, history.getByteCount());
+  }
+
+  @Test
+  public void countsOldestActionsToFlattenKeepingTheNewest() {
+    StyleTable styles = new StyleTable();
+    DrawingHistory history = new DrawingHistory();
+    for (int i = 0; i < 8; i++) {
+      history.add(new Circle(styles, styles.intern(0, 1f, false, false), i, i));
+    }
+    assertEquals(0, history.countToFlatten(new HistoryPolicy(8, Long.MAX_VALUE)));
+    assertEquals(2, history.countToFlatten(new HistoryPolicy(7, Long.MAX_VALUE)));
+    assertEquals(7, history.countToFlatten(new HistoryPolicy(1, Long.MAX_VALUE)));
+
+    history.removeOldest(2);
+    assertEquals(6, history.size());
+    assertEquals(2f, ((Circle) history.get(0)).centerX, DELTA);
+    List<Action> found = new ArrayList<>();
+    history.query(0, 0, found);
+    assertTrue(found.isEmpty());
+  }
+
+  @Test
+  public void sessionRoundTripsHistoryAndRedoStack() throws Exception {
+    StyleTable styles = new StyleTable();
+    int pencil = styles.intern(0xff112233, 6f, false, false);
+    int eraser = styles.intern(0, 20f, false, true);
+    DrawingHistory history = new DrawingHistory();
+    Stroke stroke = new Stroke(styles, pencil, true);
+    stroke.start(1, 2, 0);
+    stroke.addPoint(3, 4, 1);
+    stroke.finish();
+    Stroke erase = new Stroke(styles, eraser, false);
+    erase.start(5, 6, 0);
+    history.add(stroke);
+    history.add(erase);
+    history.undo();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DrawingSession.write(new SessionWriter(Channels.newChannel(out)), 640, 480, "bg", null, styles, history);
+
+    StyleTable restoredStyles = new StyleTable();
+    SessionRestorer restorer = new SessionRestorer(restoredStyles);
+    new SessionReader(Channels.newChannel(new ByteArrayInputStream(out.toByteArray()))).read(restorer);
+    assertEquals(640, restorer.getWidth());
+    assertEquals("bg", restorer.getBackground());
+    assertNull(restorer.getBaseLayer(0));
+    DrawingHistory restoredHistory = restorer.getLayers().get(0).getHistory();
+    assertEquals(1, restoredHistory.size());
+    assertEquals(1, restoredHistory.getUndone().size());
+
+    Stroke restored = (Stroke) restoredHistory.get(0);
+    assertTrue(restored.smooth);
+    assertEquals(2, restored.points.size());
+    assertEquals(0xff112233, restoredStyles.getColor(restored.styleId));
+    assertTrue(((Stroke) restoredHistory.getUndone().get(0)).isErase());
+  }
+}
@@ -0,0 +1,70 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+  @Test
+  public void bucketsSmallValuesExactly() {
+    Histogram histogram = new Histogram();
+    for (int i = 1; i <= 10; i++) {
+      histogram.record(i);
+    }
+    assertEquals(10, histogram.getCount());
+    assertEquals(5, histogram.getPercentile(50));
+    assertEquals(9, histogram.getPercentile(90));
+    assertEquals(10, histogram.getPercentile(100));
+    assertEquals(5.5, histogram.getMean(), 0);
+  }
+
+  @Test
+  public void boundsLargeValuesWithinAnEighth() {
+    for (long value = 16; value < 1L << 40; value = value*3 + 1) {
+      long upper = Histogram.upperBoundOf(Histogram.bucketOf(value));
+      assertTrue(value + " in " + upper, upper>=value && upper - value <= value/8);
+    }
+    assertEquals(Long.MAX_VALUE, Histogram.upperBoundOf(Histogram.bucketOf(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void neverReportsAboveTheMax() {
+    Histogram histogram = new Histogram();
+    histogram.record(1000);
+    assertEquals(1000, histogram.getPercentile(99));
+    assertEquals(1000, histogram.getMax());
+  }
+
+  @Test
+  public void countsEveryValueAcrossThreads() throws Exception {
+    final Histogram histogram = new Histogram();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            histogram.record(i);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(40000, histogram.getCount());
+    assertEquals(9999, histogram.getMax());
+  }
+
+  @Test
+  public void resets() {
+    Histogram histogram = new Histogram();
+    histogram.record(42);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(50));
+  }
+}
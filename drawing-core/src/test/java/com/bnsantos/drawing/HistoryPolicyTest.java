@@ -0,0 +1,40 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HistoryPolicyTest {
+
+  @Test
+  public void exceedsEitherLimit() {
+    HistoryPolicy policy = new HistoryPolicy(100, 1000);
+    assertFalse(policy.isExceeded(100, 1000));
+    assertTrue(policy.isExceeded(101, 0));
+    assertTrue(policy.isExceeded(0, 1001));
+  }
+
+  @Test
+  public void flattensDownToThreeQuarters() {
+    HistoryPolicy policy = new HistoryPolicy(100, 1000);
+    assertFalse(policy.isWithinTarget(76, 0));
+    assertFalse(policy.isWithinTarget(0, 751));
+    assertTrue(policy.isWithinTarget(75, 750));
+  }
+
+  @Test
+  public void unboundedNeverFlattens() {
+    assertFalse(HistoryPolicy.UNBOUNDED.isExceeded(Integer.MAX_VALUE, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void rejectsEmptyLimits() {
+    try {
+      new HistoryPolicy(0, 1000);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
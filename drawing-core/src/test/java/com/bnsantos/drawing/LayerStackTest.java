@@ -0,0 +1,217 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LayerStackTest {
+  private static final float DELTA = 0f;
+
+  private final StyleTable mStyles = new StyleTable();
+  private final int mStyle = mStyles.intern(0xff000000, 2f, false, false);
+
+  @Test
+  public void undoAndRedoFollowTheEditOrderAcrossLayers() {
+    LayerStack layers = new LayerStack();
+    Layer bottom = layers.getActive();
+    Layer top = layers.addLayer();
+    layers.commit(bottom, circle(1));
+    layers.commit(top, circle(2));
+    layers.commit(bottom, circle(3));
+
+    assertSame(bottom, layers.undo());
+    assertSame(top, layers.undo());
+    assertEquals(1, bottom.getHistory().size());
+    assertEquals(0, top.getHistory().size());
+    assertEquals(1, layers.getActionCount());
+
+    assertSame(top, layers.redo());
+    assertEquals(2f, ((Circle) top.getHistory().get(0)).centerX, DELTA);
+    layers.commit(top, circle(4));
+    assertFalse(layers.canRedo());
+    assertFalse(bottom.getHistory().canRedo());
+    assertEquals(3*DrawingHistory.ACTION_OVERHEAD_BYTES, layers.getByteCount());
+  }
+
+  @Test
+  public void removingALayerDropsItsActionsAndKeepsOneLayer() {
+    LayerStack layers = new LayerStack();
+    Layer bottom = layers.getActive();
+    Layer top = layers.addLayer();
+    layers.setActive(top);
+    layers.commit(top, circle(1));
+    layers.commit(bottom, circle(2));
+    layers.commit(top, circle(3));
+    layers.undo();
+
+    layers.removeLayer(top);
+    assertSame(bottom, layers.getActive());
+    assertEquals(1, layers.getActionCount());
+    assertFalse(layers.canRedo());
+    assertSame(bottom, layers.undo());
+    assertNull(layers.undo());
+
+    try {
+      layers.removeLayer(bottom);
+      fail();
+    } catch (IllegalStateException expected) {
+      assertEquals(1, layers.size());
+    }
+  }
+
+  @Test
+  public void movesLayersAndKeepsTheirIds() {
+    LayerStack layers = new LayerStack();
+    Layer first = layers.getActive();
+    Layer second = layers.addLayer();
+    Layer third = layers.addLayer();
+    layers.moveLayer(third, 0);
+    assertEquals(Arrays.asList(third, first, second), layers.getLayers());
+    layers.moveLayer(third, 10);
+    assertEquals(2, layers.indexOf(third));
+    assertEquals(2, third.getId());
+
+    third.setOpacity(1.5f);
+    assertEquals(1f, third.getOpacity(), DELTA);
+    third.setOpacity(-1f);
+    assertEquals(0f, third.getOpacity(), DELTA);
+  }
+
+  @Test
+  public void flattensTheOldestActionsWhateverTheirLayer() {
+    LayerStack layers = new LayerStack();
+    Layer bottom = layers.getActive();
+    Layer top = layers.addLayer();
+    for (int i = 0; i < 8; i++) {
+      layers.commit(i%3==0 ? top : bottom, circle(i));
+    }
+    assertEquals(0, layers.countToFlatten(new HistoryPolicy(8, Long.MAX_VALUE)));
+    int count = layers.countToFlatten(new HistoryPolicy(7, Long.MAX_VALUE));
+    assertEquals(2, count);
+    assertEquals(1, layers.countOldest(top, count));
+    assertEquals(1, layers.countOldest(bottom, count));
+    assertEquals(2*DrawingHistory.ACTION_OVERHEAD_BYTES, layers.getOldestByteCount(count));
+    assertEquals(3, layers.countToRelease(3*DrawingHistory.ACTION_OVERHEAD_BYTES));
+    assertEquals(7, layers.countToRelease(Long.MAX_VALUE));
+
+    layers.removeOldest(count);
+    assertEquals(6, layers.getActionCount());
+    assertEquals(3f, ((Circle) top.getHistory().get(0)).centerX, DELTA);
+    assertEquals(2f, ((Circle) bottom.getHistory().get(0)).centerX, DELTA);
+    assertSame(top, layers.getCommitOrder().get(1));
+  }
+
+  @Test
+  public void sessionRoundTripsLayersAndTheirOrder() throws Exception {
+    LayerStack layers = new LayerStack();
+    Layer bottom = layers.getActive();
+    Layer top = layers.addLayer();
+    top.setOpacity(0.5f);
+    bottom.setVisible(false);
+    layers.commit(top, circle(1));
+    layers.commit(bottom, circle(2));
+    layers.commit(top, circle(3));
+    layers.commit(bottom, circle(4));
+    layers.undo();
+    layers.undo();
+    byte[] png = {1, 2, 3};
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DrawingSession.write(new SessionWriter(Channels.newChannel(out)), 10, 10, null, mStyles, layers,
+        Arrays.asList(png, null));
+    SessionRestorer restorer = new SessionRestorer(new StyleTable());
+    new SessionReader(Channels.newChannel(new ByteArrayInputStream(out.toByteArray()))).read(restorer);
+
+    LayerStack restored = restorer.getLayers();
+    assertEquals(2, restored.size());
+    Layer restoredBottom = restored.get(0);
+    Layer restoredTop = restored.get(1);
+    assertFalse(restoredBottom.isVisible());
+    assertEquals(0.5f, restoredTop.getOpacity(), DELTA);
+    assertSame(restoredBottom, restored.getActive());
+    assertArrayEquals(png, restorer.getBaseLayer(0));
+    assertNull(restorer.getBaseLayer(1));
+    assertEquals(2, restored.getActionCount());
+
+    assertSame(restoredTop, restored.redo());
+    assertEquals(3f, ((Circle) restoredTop.getHistory().get(1)).centerX, DELTA);
+    assertSame(restoredBottom, restored.redo());
+    assertSame(restoredBottom, restored.undo());
+    assertSame(restoredTop, restored.undo());
+    assertSame(restoredBottom, restored.undo());
+    assertTrue(restored.canUndo());
+
+    // a new layer after restoring never reuses an id
+    assertEquals(2, restored.addLayer().getId());
+  }
+
+  @Test
+  public void snapshotKeepsTheStateItWasTakenIn() throws Exception {
+    LayerStack layers = new LayerStack();
+    Layer bottom = layers.getActive();
+    layers.commit(bottom, circle(1));
+    layers.commit(bottom, circle(2));
+    layers.undo();
+    SessionSnapshot snapshot = new SessionSnapshot(10, 10, "bg", mStyles, layers);
+
+    // later edits, all of them made before the snapshot is written
+    Layer top = layers.addLayer();
+    layers.commit(top, circle(3));
+    layers.redo();
+    bottom.setOpacity(0.25f);
+    mStyles.intern(0xffffffff, 4f, true, false);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DrawingSession.write(new SessionWriter(Channels.newChannel(out)), snapshot, Arrays.asList(new byte[][]{null}));
+    SessionRestorer restorer = new SessionRestorer(new StyleTable());
+    new SessionReader(Channels.newChannel(new ByteArrayInputStream(out.toByteArray()))).read(restorer);
+
+    LayerStack restored = restorer.getLayers();
+    assertEquals("bg", restorer.getBackground());
+    assertEquals(1, restored.size());
+    assertEquals(1f, restored.get(0).getOpacity(), DELTA);
+    assertEquals(1, restored.getActionCount());
+    assertEquals(1f, ((Circle) restored.get(0).getHistory().get(0)).centerX, DELTA);
+    assertTrue(restored.canRedo());
+  }
+
+  @Test
+  public void journaledActionsGoToTheirLayerAndMakeItActive() {
+    SessionRestorer restorer = new SessionRestorer(mStyles);
+    restorer.onHeader(10, 10, null);
+    restorer.onStyle(0xff000000, 2f, false, false);
+    restorer.onLayer(0, true, true, 1f, null);
+    restorer.onLayer(1, true, false, 1f, new byte[]{1});
+    restorer.onHistory(0, 0);
+    restorer.onCircle(1, 0, 5, 5, 1);
+    restorer.onCircle(0, 0, 6, 6, 1);
+    restorer.onUndo();
+    restorer.onRectangle(1, 0, 0, 0, 4, 4);
+
+    LayerStack layers = restorer.getLayers();
+    assertSame(layers.get(1), layers.getActive());
+    assertEquals(0, layers.get(0).getHistory().size());
+    assertFalse(layers.canRedo());
+    assertEquals(2, layers.get(1).getHistory().size());
+
+    restorer.onClear();
+    assertEquals(0, layers.getActionCount());
+    assertEquals(2, layers.size());
+    assertNull(restorer.getBaseLayer(1));
+  }
+
+  private Circle circle(float x){
+    return new Circle(mStyles, mStyle, x, x);
+  }
+}
@@ -0,0 +1,60 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LongSparseMapTest {
+  @Test
+  public void storesAndReplacesValues() {
+    LongSparseMap<String> map = new LongSparseMap<>(1);
+    map.put(5L, "five");
+    map.put(-7L, "minus seven");
+    map.put(Long.MAX_VALUE, "max");
+    map.put(5L, "FIVE");
+
+    assertEquals(3, map.size());
+    assertEquals("FIVE", map.get(5L));
+    assertEquals("minus seven", map.get(-7L));
+    assertEquals("max", map.get(Long.MAX_VALUE));
+    assertNull(map.get(6L));
+  }
+
+  @Test
+  public void walksValuesInKeyOrder() {
+    LongSparseMap<Long> map = new LongSparseMap<>();
+    TreeMap<Long, Long> expected = new TreeMap<>();
+    Random random = new Random(3);
+    for (int i = 0; i < 500; i++) {
+      long key = random.nextLong();
+      map.put(key, key*2);
+      expected.put(key, key*2);
+    }
+
+    assertEquals(expected.size(), map.size());
+    int index = 0;
+    for (Long key : expected.keySet()) {
+      assertEquals((long) key, map.keyAt(index));
+      assertEquals(expected.get(key), map.valueAt(index));
+      assertEquals(expected.get(key), map.get(key));
+      index++;
+    }
+  }
+
+  @Test
+  public void clearsEverything() {
+    LongSparseMap<String> map = new LongSparseMap<>();
+    map.put(1L, "one");
+    map.put(2L, "two");
+    map.clear();
+
+    assertEquals(0, map.size());
+    assertNull(map.get(1L));
+    map.put(2L, "again");
+    assertEquals("again", map.valueAt(0));
+  }
+}
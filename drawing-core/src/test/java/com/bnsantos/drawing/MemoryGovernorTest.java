@@ -0,0 +1,105 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryGovernorTest {
+
+  @Test
+  public void reportsUsagePerConsumer() {
+    MemoryGovernor governor = new MemoryGovernor(100);
+    governor.addConsumer("bitmaps", new Fixed(60));
+    governor.addConsumer("actions", new Fixed(30));
+    Map<String, Long> usage = governor.getUsage();
+    assertEquals(Arrays.asList("bitmaps", "actions"), new ArrayList<>(usage.keySet()));
+    assertEquals(30L, (long) usage.get("actions"));
+    assertEquals(90, governor.getUsedBytes());
+  }
+
+  @Test
+  public void degradesInOrderUntilWithinBudget() {
+    MemoryGovernor governor = new MemoryGovernor(100);
+    Fixed snapshots = new Fixed(80);
+    Fixed history = new Fixed(50);
+    Fixed background = new Fixed(40);
+    governor.addConsumer("snapshots", snapshots);
+    governor.addConsumer("history", history);
+    governor.addConsumer("background", background);
+    List<String> applied = new ArrayList<>();
+    governor.addDegradation(new Release("snapshots", snapshots, applied));
+    governor.addDegradation(new Release("history", history, applied));
+    governor.addDegradation(new Release("background", background, applied));
+
+    assertTrue(governor.enforce());
+    // 70 over, the snapshots cover it and the history is never touched
+    assertEquals(Arrays.asList("snapshots 70"), applied);
+    assertEquals(100, governor.getUsedBytes());
+    assertEquals(1, governor.getDegradationCount());
+  }
+
+  @Test
+  public void reportsWhenBudgetCantBeMet() {
+    MemoryGovernor governor = new MemoryGovernor(10);
+    Fixed bitmaps = new Fixed(50);
+    governor.addConsumer("bitmaps", bitmaps);
+    governor.addDegradation(new MemoryGovernor.Degradation() {
+      @Override
+      public boolean reclaim(long excessBytes) {
+        return false;
+      }
+    });
+    assertFalse(governor.enforce());
+    assertEquals(0, governor.getDegradationCount());
+  }
+
+  @Test
+  public void doesNothingWithinBudget() {
+    MemoryGovernor governor = new MemoryGovernor(100);
+    governor.addConsumer("bitmaps", new Fixed(100));
+    List<String> applied = new ArrayList<>();
+    governor.addDegradation(new Release("bitmaps", new Fixed(100), applied));
+    assertTrue(governor.enforce());
+    assertTrue(applied.isEmpty());
+  }
+
+  private static class Fixed implements MemoryGovernor.Consumer {
+    long bytes;
+
+    Fixed(long bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public long getByteCount() {
+      return bytes;
+    }
+  }
+
+  private static class Release implements MemoryGovernor.Degradation {
+    final String name;
+    final Fixed consumer;
+    final List<String> applied;
+
+    Release(String name, Fixed consumer, List<String> applied) {
+      this.name = name;
+      this.consumer = consumer;
+      this.applied = applied;
+    }
+
+    @Override
+    public boolean reclaim(long excessBytes) {
+      applied.add(name + " " + excessBytes);
+      long released = Math.min(excessBytes, consumer.bytes);
+      consumer.bytes -= released;
+      return released>0;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PngWriterTest {
+  private static final int[] PIXELS = {
+      0xff102030, 0x80ff0000, 0x00000000,
+      0xffffffff, 0xff00ff00, 0x7f0000ff
+  };
+
+  @Test
+  public void roundTripsRgba() throws Exception {
+    assertArrayEquals(PIXELS, decode(encode(3, 2, true), 3, 2, true));
+  }
+
+  @Test
+  public void dropsAlphaForRgb() throws Exception {
+    int[] decoded = decode(encode(3, 2, false), 3, 2, false);
+    for (int i = 0; i < PIXELS.length; i++) {
+      assertEquals(PIXELS[i] | 0xff000000, decoded[i]);
+    }
+  }
+
+  @Test
+  public void splitsLargeImagesInChunks() throws Exception {
+    int width = 300, height = 300;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PngWriter writer = new PngWriter(out, width, height, true);
+    int[] row = new int[width];
+    Random random = new Random(42);
+    int[] expected = new int[width*height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        row[x] = random.nextInt();
+        expected[y*width + x] = row[x];
+      }
+      writer.writeRow(row, 0);
+    }
+    writer.finish();
+    assertArrayEquals(expected, decode(out.toByteArray(), width, height, true));
+  }
+
+  @Test
+  public void rejectsMissingRows() throws Exception {
+    PngWriter writer = new PngWriter(new ByteArrayOutputStream(), 3, 2, true);
+    writer.writeRow(PIXELS, 0);
+    try {
+      writer.finish();
+      fail();
+    } catch (IllegalStateException expected) {
+      writer.close();
+    }
+  }
+
+  private static byte[] encode(int width, int height, boolean alpha) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PngWriter writer = new PngWriter(out, width, height, alpha);
+    for (int y = 0; y < height; y++) {
+      writer.writeRow(PIXELS, y*width);
+    }
+    writer.finish();
+    return out.toByteArray();
+  }
+
+  /**
+   * Minimal decoder for what PngWriter produces: checks every chunk CRC and undoes the Sub filter
+   */
+  private static int[] decode(byte[] png, int width, int height, boolean alpha) throws Exception {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(png));
+    byte[] signature = new byte[8];
+    in.readFully(signature);
+    assertArrayEquals(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'}, signature);
+
+    Inflater inflater = new Inflater();
+    int bytesPerPixel = alpha ? 4 : 3;
+    byte[] raw = new byte[height*(1 + width*bytesPerPixel)];
+    int inflated = 0;
+    String type;
+    do {
+      int length = in.readInt();
+      byte[] typeBytes = new byte[4];
+      in.readFully(typeBytes);
+      type = new String(typeBytes, "US-ASCII");
+      byte[] data = new byte[length];
+      in.readFully(data);
+      CRC32 crc = new CRC32();
+      crc.update(typeBytes);
+      crc.update(data);
+      assertEquals(type, (int) crc.getValue(), in.readInt());
+      if(type.equals("IHDR")){
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(data));
+        assertEquals(width, header.readInt());
+        assertEquals(height, header.readInt());
+        assertEquals(8, header.readByte());
+        assertEquals(alpha ? 6 : 2, header.readByte());
+      }else if(type.equals("IDAT")){
+        inflater.setInput(data);
+        inflated += inflater.inflate(raw, inflated, raw.length - inflated);
+      }
+    } while (!type.equals("IEND"));
+    assertEquals(raw.length, inflated);
+    assertTrue(inflater.finished());
+    inflater.end();
+
+    int[] pixels = new int[width*height];
+    int stride = 1 + width*bytesPerPixel;
+    for (int y = 0; y < height; y++) {
+      assertEquals(1, raw[y*stride]);
+      for (int i = bytesPerPixel + 1; i < stride; i++) {
+        raw[y*stride + i] += raw[y*stride + i - bytesPerPixel];
+      }
+      for (int x = 0; x < width; x++) {
+        int p = y*stride + 1 + x*bytesPerPixel;
+        int a = alpha ? raw[p + 3] & 0xff : 0xff;
+        pixels[y*width + x] = a << 24 | (raw[p] & 0xff) << 16 | (raw[p + 1] & 0xff) << 8 | raw[p + 2] & 0xff;
+      }
+    }
+    return pixels;
+  }
+}
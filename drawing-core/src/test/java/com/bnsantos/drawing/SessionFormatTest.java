@@ -0,0 +1,285 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class SessionFormatTest {
+  private static final float DELTA = 0f;
+
+  @Test
+  public void roundTripsSession() throws Exception {
+    StrokePoints points = new StrokePoints();
+    points.add(1, 2);
+    points.add(3, 4.5f);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SessionWriter writer = new SessionWriter(Channels.newChannel(out));
+    writer.writeHeader(1080, 1920, "content://media/external/images/1");
+    writer.writeStyleCount(2);
+    writer.writeStyle(0xff000000, 8f, false, false);
+    writer.writeStyle(0xffffffff, 20f, true, true);
+    writer.writeLayerCount(2);
+    writer.writeLayer(3, true, false, 1f, null);
+    writer.writeLayer(7, false, true, 0.25f, null);
+    writer.writeHistory(2, 1);
+    writer.writeLayerIndex(0);
+    writer.writeStroke(0, true, points);
+    writer.writeLayerIndex(1);
+    writer.writeCircle(1, 10, 20, 5);
+    writer.writeLayerIndex(0);
+    writer.writeRectangle(0, 1, 2, 3, 4);
+    writer.close();
+
+    Recorder recorder = read(out.toByteArray());
+    assertEquals("1080x1920 content://media/external/images/1", recorder.header);
+    assertEquals(Arrays.asList("ff000000 8.0 false false", "ffffffff 20.0 true true"), recorder.styles);
+    assertEquals(Arrays.asList("3 true false 1.0", "7 false true 0.25"), recorder.layers);
+    assertEquals(2, recorder.actionCount);
+    assertEquals(1, recorder.undoCount);
+    assertEquals(Arrays.asList("stroke 0 0 true [1.0,2.0 3.0,4.5]", "circle 1 1 10.0 20.0 5.0", "rectangle 0 0 1.0 2.0 3.0 4.0"), recorder.actions);
+  }
+
+  @Test
+  public void streamsStrokesLargerThanTheBuffer() throws Exception {
+    StrokePoints points = new StrokePoints();
+    for (int i = 0; i < 50000; i++) {
+      points.add(i, -i);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SessionWriter writer = new SessionWriter(Channels.newChannel(out));
+    writer.writeHeader(10, 10, null);
+    writer.writeStyleCount(1);
+    writer.writeStyle(0, 1f, false, false);
+    writeSingleLayer(writer, null);
+    writer.writeHistory(1, 0);
+    writer.writeLayerIndex(0);
+    writer.writeStroke(0, false, points);
+    writer.close();
+
+    Recorder recorder = read(out.toByteArray());
+    assertEquals("10x10 null", recorder.header);
+    StrokePoints read = recorder.lastPoints;
+    assertEquals(50000, read.size());
+    assertEquals(49999f, read.getLastX(), DELTA);
+    assertEquals(-49999f, read.getLastY(), DELTA);
+    assertEquals(-49999f, read.getTop(), DELTA);
+    assertEquals(49999f, read.getRight(), DELTA);
+  }
+
+  @Test
+  public void rejectsOtherData() throws Exception {
+    try {
+      read(new byte[]{'P', 'N', 'G', 0, 0, 0, 0, 0});
+      fail();
+    } catch (IOException expected) {
+      assertFalse(expected instanceof EOFException);
+    }
+  }
+
+  @Test
+  public void rejectsTruncatedSession() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SessionWriter writer = new SessionWriter(Channels.newChannel(out));
+    writer.writeHeader(10, 10, null);
+    writer.writeStyleCount(0);
+    writeSingleLayer(writer, null);
+    writer.writeHistory(3, 0);
+    writer.close();
+    try {
+      read(out.toByteArray());
+      fail();
+    } catch (EOFException expected) {
+      assertEquals("Session ended early", expected.getMessage());
+    }
+  }
+
+  @Test
+  public void keepsMissingBackground() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SessionWriter writer = new SessionWriter(Channels.newChannel(out));
+    writer.writeHeader(1, 1, null);
+    writer.writeStyleCount(0);
+    writeSingleLayer(writer, null);
+    writer.writeHistory(0, 0);
+    writer.close();
+    assertNull(read(out.toByteArray()).background);
+  }
+
+  @Test
+  public void roundTripsBaseLayer() throws Exception {
+    byte[] png = new byte[70000];
+    for (int i = 0; i < png.length; i++) {
+      png[i] = (byte) i;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SessionWriter writer = new SessionWriter(Channels.newChannel(out));
+    writer.writeHeader(1, 1, "background");
+    writer.writeStyleCount(0);
+    writeSingleLayer(writer, png);
+    writer.writeHistory(0, 0);
+    writer.close();
+
+    Recorder recorder = read(out.toByteArray());
+    assertEquals("background", recorder.background);
+    assertArrayEquals(png, recorder.baseLayer);
+  }
+
+  @Test
+  public void readsVersion1Sessions() throws Exception {
+    ByteBuffer session = ByteBuffer.allocate(30);
+    session.putInt(SessionFormat.MAGIC).putShort((short) 1).putInt(5).putInt(6).putInt(-1);
+    session.putInt(0).putInt(0).putInt(0);
+
+    Recorder recorder = read(session.array());
+    assertEquals("5x6 null", recorder.header);
+    assertEquals(Arrays.asList("0 true true 1.0"), recorder.layers);
+    assertNull(recorder.baseLayer);
+  }
+
+  @Test
+  public void readsVersion2SessionsAsASingleLayer() throws Exception {
+    ByteBuffer session = ByteBuffer.allocate(64);
+    session.putInt(SessionFormat.MAGIC).putShort((short) 2).putInt(5).putInt(6).putInt(-1);
+    session.putInt(3).put(new byte[]{1, 2, 3});
+    session.putInt(1).putInt(0xff000000).putFloat(2f).put((byte) 0);
+    session.putInt(1).putInt(0);
+    session.put(SessionFormat.TYPE_CIRCLE).putInt(0).putFloat(1).putFloat(2).putFloat(3);
+
+    Recorder recorder = read(session.array());
+    assertEquals(Arrays.asList("0 true true 1.0"), recorder.layers);
+    assertArrayEquals(new byte[]{1, 2, 3}, recorder.baseLayer);
+    assertEquals(Arrays.asList("circle 0 0 1.0 2.0 3.0"), recorder.actions);
+  }
+
+  @Test
+  public void rejectsActionsOnUnknownLayers() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SessionWriter writer = new SessionWriter(Channels.newChannel(out));
+    writer.writeHeader(10, 10, null);
+    writer.writeStyleCount(1);
+    writer.writeStyle(0, 1f, false, false);
+    writeSingleLayer(writer, null);
+    writer.writeHistory(1, 0);
+    writer.writeLayerIndex(1);
+    writer.writeCircle(0, 1, 2, 3);
+    writer.close();
+    try {
+      read(out.toByteArray());
+      fail();
+    } catch (IOException expected) {
+      assertEquals("Unknown layer 1", expected.getMessage());
+    }
+  }
+
+  @Test
+  public void rejectsHugeLengthsWithoutAllocatingThem() throws Exception {
+    ByteBuffer header = ByteBuffer.allocate(18);
+    header.putInt(SessionFormat.MAGIC).putShort(SessionFormat.VERSION).putInt(10).putInt(10).putInt(Integer.MAX_VALUE);
+    try {
+      read(header.array());
+      fail();
+    } catch (EOFException expected) {
+      assertEquals("Session ended early", expected.getMessage());
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SessionWriter writer = new SessionWriter(Channels.newChannel(out));
+    writer.writeHeader(10, 10, null);
+    writer.writeStyleCount(1);
+    writer.writeStyle(0, 1f, false, false);
+    writeSingleLayer(writer, null);
+    writer.writeHistory(1, 0);
+    writer.writeLayerIndex(0);
+    writer.close();
+    ByteBuffer stroke = ByteBuffer.allocate(10 + 16);
+    stroke.put(SessionFormat.TYPE_STROKE).putInt(0).put((byte) 0).putInt(Integer.MAX_VALUE/2);
+    stroke.putFloat(1).putFloat(2).putFloat(3).putFloat(4);
+    out.write(stroke.array());
+    try {
+      read(out.toByteArray());
+      fail();
+    } catch (EOFException expected) {
+      assertEquals("Session ended early", expected.getMessage());
+    }
+  }
+
+  private static void writeSingleLayer(SessionWriter writer, byte[] baseLayer) throws IOException {
+    writer.writeLayerCount(1);
+    writer.writeLayer(0, true, true, 1f, baseLayer);
+  }
+
+  private static Recorder read(byte[] data) throws IOException {
+    Recorder recorder = new Recorder();
+    new SessionReader(Channels.newChannel(new ByteArrayInputStream(data))).read(recorder);
+    return recorder;
+  }
+
+  private static class Recorder implements SessionReader.Handler {
+    final List<String> styles = new ArrayList<>();
+    final List<String> layers = new ArrayList<>();
+    final List<String> actions = new ArrayList<>();
+    String header;
+    String background;
+    byte[] baseLayer;
+    int actionCount, undoCount;
+    StrokePoints lastPoints;
+
+    @Override
+    public void onHeader(int width, int height, String background) {
+      this.header = width + "x" + height + " " + background;
+      this.background = background;
+    }
+
+    @Override
+    public void onStyle(int color, float width, boolean fill, boolean erase) {
+      styles.add(Integer.toHexString(color) + " " + width + " " + fill + " " + erase);
+    }
+
+    @Override
+    public void onLayer(int id, boolean visible, boolean active, float opacity, byte[] baseLayer) {
+      layers.add(id + " " + visible + " " + active + " " + opacity);
+      this.baseLayer = baseLayer;
+    }
+
+    @Override
+    public void onHistory(int actionCount, int undoCount) {
+      this.actionCount = actionCount;
+      this.undoCount = undoCount;
+    }
+
+    @Override
+    public void onStroke(int layer, int styleId, boolean smooth, StrokePoints points) {
+      lastPoints = points;
+      StringBuilder builder = new StringBuilder("stroke " + layer + " " + styleId + " " + smooth + " [");
+      for (int i = 0; i < points.size() && i < 4; i++) {
+        builder.append(i > 0 ? " " : "").append(points.getX(i)).append(',').append(points.getY(i));
+      }
+      actions.add(builder.append(']').toString());
+    }
+
+    @Override
+    public void onCircle(int layer, int styleId, float centerX, float centerY, float radius) {
+      actions.add("circle " + layer + " " + styleId + " " + centerX + " " + centerY + " " + radius);
+    }
+
+    @Override
+    public void onRectangle(int layer, int styleId, float left, float top, float right, float bottom) {
+      actions.add("rectangle " + layer + " " + styleId + " " + left + " " + top + " " + right + " " + bottom);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpatialGridTest {
+
+  @Test
+  public void queriesReturnIntersectingItemsOnceInInsertionOrder() {
+    SpatialGrid<String> grid = new SpatialGrid<>(10f);
+    grid.insert("large", 0, 0, 100, 100);
+    grid.insert("small", 42, 42, 48, 48);
+    grid.insert("far", 500, 500, 510, 510);
+
+    List<String> found = new ArrayList<>();
+    grid.query(40, 40, 60, 60, found);
+    assertEquals(2, found.size());
+    assertEquals("large", found.get(0));
+    assertEquals("small", found.get(1));
+
+    found.clear();
+    grid.query(505, 505, found);
+    assertEquals(1, found.size());
+    assertEquals("far", found.get(0));
+  }
+
+  @Test
+  public void removedAndClearedItemsAreNotReturned() {
+    SpatialGrid<String> grid = new SpatialGrid<>(10f);
+    grid.insert("a", -30, -30, -5, -5);
+    grid.insert("b", -20, -20, 20, 20);
+    assertTrue(grid.remove("a"));
+
+    List<String> found = new ArrayList<>();
+    grid.query(-10, -10, found);
+    assertEquals(1, found.size());
+    assertEquals("b", found.get(0));
+
+    grid.clear();
+    found.clear();
+    grid.query(-10, -10, found);
+    assertEquals(0, found.size());
+    assertEquals(0, grid.size());
+  }
+
+  @Test(timeout = 5000)
+  public void hugeAndInfiniteBoundsStayQueryable() {
+    SpatialGrid<String> grid = new SpatialGrid<>(10f);
+    grid.insert("infinite", Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+    grid.insert("huge", 0, 0, 1e9f, 1e9f);
+    grid.insert("small", 5, 5, 8, 8);
+    grid.insert("edge", 3e38f, 3e38f, Float.MAX_VALUE, Float.MAX_VALUE);
+
+    List<String> found = new ArrayList<>();
+    grid.query(6, 6, found);
+    assertEquals(3, found.size());
+    assertEquals("infinite", found.get(0));
+    assertEquals("small", found.get(2));
+
+    found.clear();
+    grid.query(-Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, found);
+    assertEquals(4, found.size());
+
+    assertTrue(grid.remove("huge"));
+    assertTrue(grid.remove("edge"));
+    found.clear();
+    grid.query(2e9f, 2e9f, found);
+    assertEquals(1, found.size());
+    assertEquals("infinite", found.get(0));
+  }
+}
@@ -0,0 +1,90 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the work done for every touch sample of a stroke allocates nothing once the reused
+ * buffers have grown, measured with the per thread allocation counter of HotSpot JVMs
+ */
+public class StrokeAllocationTest {
+  private static final int EVENTS = 1000;
+  private static final float DELTA = 0f;
+
+  private final StyleTable mStyles = new StyleTable();
+  private final StrokePoints mBuffer = new StrokePoints();
+  private final StrokeSimplifier mSimplifier = new StrokeSimplifier(1f);
+  private final Bounds mSegmentBounds = new Bounds();
+  private final Bounds mDirtyBounds = new Bounds();
+
+  @Test
+  public void strokeOfAThousandEventsDoesNotAllocate() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if(!(bean instanceof com.sun.management.ThreadMXBean)){
+      return;
+    }
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    if(!threads.isThreadAllocatedMemorySupported()){
+      return;
+    }
+    threads.setThreadAllocatedMemoryEnabled(true);
+    long thread = Thread.currentThread().getId();
+    int style = mStyles.intern(0xff000000, 8f, false, false);
+
+    // grows the buffers and loads every class involved
+    for (int i = 0; i < 3; i++) {
+      Stroke stroke = touchDown(style);
+      moveEvents(stroke);
+      mSimplifier.simplify(stroke.points, stroke.smooth);
+    }
+
+    Stroke stroke = touchDown(style);
+    long overhead = -threads.getThreadAllocatedBytes(thread) + threads.getThreadAllocatedBytes(thread);
+    long before = threads.getThreadAllocatedBytes(thread);
+    moveEvents(stroke);
+    mSimplifier.simplify(stroke.points, stroke.smooth);
+    long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+
+    assertEquals("bytes allocated by " + EVENTS + " events", 0, allocated);
+  }
+
+  @Test
+  public void finishedStrokeKeepsItsPointsWhenTheBufferIsReused() {
+    int style = mStyles.intern(0xff000000, 8f, false, false);
+    Stroke first = touchDown(style);
+    first.addPoint(10, 20, 1);
+    first.finish();
+    Stroke second = touchDown(style);
+    second.addPoint(-1, -1, 1);
+
+    assertEquals(2, first.points.size());
+    assertEquals(2, first.points.capacity());
+    assertEquals(10f, first.points.getLastX(), DELTA);
+    assertEquals(20f, first.points.getBottom(), DELTA);
+    assertEquals(-1f, second.points.getLastX(), DELTA);
+  }
+
+  private Stroke touchDown(int style){
+    mBuffer.clear();
+    Stroke stroke = new Stroke(mStyles, style, true, mBuffer);
+    stroke.start(0, 0, 0);
+    return stroke;
+  }
+
+  /**
+   * What the view does for each move sample: append it and grow the area to invalidate
+   */
+  private void moveEvents(Stroke stroke){
+    mDirtyBounds.setEmpty();
+    for (int i = 1; i <= EVENTS; i++) {
+      if(stroke.addPoint(i*0.5f, (float) Math.sin(i*0.05)*100f, i)){
+        stroke.getLastSegmentBounds(mSegmentBounds);
+        mDirtyBounds.union(mSegmentBounds);
+      }
+    }
+  }
+}
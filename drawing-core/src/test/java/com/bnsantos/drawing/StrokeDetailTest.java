@@ -0,0 +1,56 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StrokeDetailTest {
+  private final StyleTable mStyles = new StyleTable();
+
+  @Test
+  public void levelsHalveTheScale() {
+    assertEquals(0, StrokeDetail.levelFor(4f));
+    assertEquals(0, StrokeDetail.levelFor(0.6f));
+    assertEquals(1, StrokeDetail.levelFor(0.5f));
+    assertEquals(2, StrokeDetail.levelFor(0.2f));
+    assertEquals(StrokeDetail.MAX_LEVEL, StrokeDetail.levelFor(0.0001f));
+  }
+
+  @Test
+  public void simplifiesOnceAndKeepsTheStrokeIntact() {
+    StrokeDetail detail = new StrokeDetail(1f, 1000);
+    Stroke stroke = zigzag(0.75f);
+    assertSame(stroke.points, detail.get(stroke, 0));
+
+    // samples 1.5 apart survive the base tolerance but not the four times larger one of level 2
+    StrokePoints simplified = detail.get(stroke, 2);
+    assertEquals(2, simplified.size());
+    assertSame(simplified, detail.get(stroke, 2));
+    assertEquals(101, stroke.points.size());
+    assertEquals(2, detail.getCachedPoints());
+  }
+
+  @Test
+  public void dropsTheLeastRecentlyUsedCopies() {
+    StrokeDetail detail = new StrokeDetail(1f, 5);
+    Stroke first = zigzag(0.75f);
+    Stroke second = zigzag(0.75f);
+    Stroke third = zigzag(0.75f);
+    StrokePoints kept = detail.get(first, 2);
+    detail.get(second, 2);
+    detail.get(first, 2);
+    detail.get(third, 2);
+    assertTrue(detail.getCachedPoints()<=5);
+    assertSame(kept, detail.get(first, 2));
+  }
+
+  private Stroke zigzag(float amplitude){
+    StrokePoints points = new StrokePoints();
+    for (int i = 0; i <= 100; i++) {
+      points.add(i, i%2==0 ? amplitude : -amplitude);
+    }
+    return new Stroke(mStyles, mStyles.intern(0xff000000, 2f, false, false), true, points);
+  }
+}
@@ -0,0 +1,44 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StrokePointsTest {
+  private static final float DELTA = 0.0001f;
+
+  @Test
+  public void growsBeyondInitialCapacity() {
+    StrokePoints points = new StrokePoints(2);
+    for (int i = 0; i < 100; i++) {
+      points.add(i, i * 2);
+    }
+    assertEquals(100, points.size());
+    assertEquals(99f, points.getX(99), DELTA);
+    assertEquals(198f, points.getY(99), DELTA);
+    assertEquals(99f, points.getLastX(), DELTA);
+  }
+
+  @Test
+  public void tracksBounds() {
+    StrokePoints points = new StrokePoints();
+    points.add(10, 20);
+    points.add(-5, 40);
+    points.add(30, 0);
+    assertEquals(-5f, points.getLeft(), DELTA);
+    assertEquals(0f, points.getTop(), DELTA);
+    assertEquals(30f, points.getRight(), DELTA);
+    assertEquals(40f, points.getBottom(), DELTA);
+  }
+
+  @Test
+  public void trimKeepsPoints() {
+    StrokePoints points = new StrokePoints(64);
+    points.add(1, 2);
+    points.add(3, 4);
+    points.trimToSize();
+    assertEquals(2, points.capacity());
+    assertEquals(3f, points.getX(1), DELTA);
+    assertEquals(4f, points.getY(1), DELTA);
+  }
+}
@@ -0,0 +1,135 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StrokeSimplifierTest {
+  private static final float DELTA = 0.0001f;
+
+  @Test
+  public void collapsesStraightLine() {
+    StrokePoints points = new StrokePoints();
+    for (int i = 0; i <= 100; i++) {
+      points.add(i, i * 0.5f);
+    }
+    assertEquals(2, new StrokeSimplifier(1f).simplify(points));
+    assertEquals(0f, points.getX(0), DELTA);
+    assertEquals(100f, points.getLastX(), DELTA);
+  }
+
+  @Test
+  public void keepsCornersAndUpdatesBounds() {
+    StrokePoints points = new StrokePoints();
+    for (int i = 0; i <= 50; i++) {
+      points.add(i, 0.2f * (i % 2));
+    }
+    for (int i = 1; i <= 50; i++) {
+      points.add(50, i);
+    }
+    assertEquals(3, new StrokeSimplifier(1f).simplify(points));
+    assertEquals(50f, points.getX(1), DELTA);
+    assertEquals(0f, points.getY(1), DELTA);
+    assertEquals(0f, points.getTop(), DELTA);
+    assertEquals(50f, points.getBottom(), DELTA);
+  }
+
+  @Test
+  public void zeroToleranceKeepsEverySample() {
+    StrokePoints points = new StrokePoints();
+    points.add(0, 0);
+    points.add(1, 0);
+    points.add(2, 0);
+    assertEquals(3, new StrokeSimplifier(0f).simplify(points));
+  }
+
+  @Test
+  public void smoothedStrokesKeepTheirRenderedCurve() {
+    StrokePoints original = cornerAndCurve();
+    StrokePoints smooth = original.copy();
+    StrokePoints straight = original.copy();
+    new StrokeSimplifier(1f).simplify(smooth, true);
+    new StrokeSimplifier(1f).simplify(straight, false);
+
+    assertTrue("kept " + smooth.size(), smooth.size()<original.size()/2);
+    float[] rendered = renderSmoothed(original);
+    float drift = maxDistance(rendered, renderSmoothed(smooth));
+    assertTrue("drifted " + drift, drift<=1.05f);
+    // only comparing the lines lets the curve through the midpoints pop away
+    assertTrue(maxDistance(rendered, renderSmoothed(straight))>1.05f);
+  }
+
+  /**
+   * Dense samples turning a sharp corner and then a wobbly curve
+   */
+  private static StrokePoints cornerAndCurve(){
+    Random random = new Random(3);
+    StrokePoints points = new StrokePoints();
+    for (int i = 0; i <= 100; i++) {
+      points.add(i*2, random.nextFloat()*0.6f);
+    }
+    for (int i = 1; i <= 100; i++) {
+      points.add(200 + random.nextFloat()*0.6f, i*2);
+    }
+    for (int i = 1; i <= 200; i++) {
+      double angle = i*Math.PI/200;
+      float radius = 100 + random.nextFloat()*0.6f;
+      points.add((float) (100 + radius*Math.cos(angle)), (float) (200 + radius*Math.sin(angle)));
+    }
+    return points;
+  }
+
+  /**
+   * Flattens the curve the renderers draw: quadratic curves through the midpoints between samples,
+   * with each sample as the control point, then a line to the last sample
+   */
+  private static float[] renderSmoothed(StrokePoints points){
+    int steps = 32;
+    float[] out = new float[(points.size()*steps + 2)*2];
+    int count = 0;
+    float x = points.getX(0), y = points.getY(0);
+    out[count++] = x;
+    out[count++] = y;
+    for (int i = 1; i < points.size(); i++) {
+      float controlX = points.getX(i - 1), controlY = points.getY(i - 1);
+      float endX = (controlX + points.getX(i))/2f, endY = (controlY + points.getY(i))/2f;
+      for (int s = 1; s <= steps; s++) {
+        float t = s/(float) steps, u = 1 - t;
+        out[count++] = u*u*x + 2*u*t*controlX + t*t*endX;
+        out[count++] = u*u*y + 2*u*t*controlY + t*t*endY;
+      }
+      x = endX;
+      y = endY;
+    }
+    out[count++] = points.getLastX();
+    out[count++] = points.getLastY();
+    float[] trimmed = new float[count];
+    System.arraycopy(out, 0, trimmed, 0, count);
+    return trimmed;
+  }
+
+  /**
+   * @return largest distance from a vertex of from to the polyline to
+   */
+  private static float maxDistance(float[] from, float[] to){
+    float max = 0;
+    for (int i = 0; i < from.length; i += 2) {
+      float closest = Float.MAX_VALUE;
+      for (int j = 2; j < to.length; j += 2) {
+        closest = Math.min(closest, segmentDistance(from[i], from[i + 1], to[j - 2], to[j - 1], to[j], to[j + 1]));
+      }
+      max = Math.max(max, closest);
+    }
+    return max;
+  }
+
+  private static float segmentDistance(float x, float y, float startX, float startY, float endX, float endY){
+    float dx = endX - startX, dy = endY - startY;
+    float lengthSquared = dx*dx + dy*dy;
+    float t = lengthSquared>0 ? Math.max(0, Math.min(1, ((x - startX)*dx + (y - startY)*dy)/lengthSquared)) : 0;
+    return (float) Math.hypot(x - startX - dx*t, y - startY - dy*t);
+  }
+}
@@ -0,0 +1,134 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SvgWriterTest {
+
+  @Test
+  public void writesShapes() throws Exception {
+    StringWriter out = new StringWriter();
+    SvgWriter writer = new SvgWriter(out);
+    writer.begin(200, 100);
+    writer.fillBackground(0xffffffff);
+    writer.drawStroke(points(0, 0, 10, 0, 10, 10), false, 0xff102030, 4f);
+    writer.drawCircle(50.5f, 20.25f, 10f, 0x80ff0000, 2f, false);
+    writer.drawRectangle(1, 2, 11, 22, 0xff00ff00, 2f, true);
+    writer.finish();
+
+    Element svg = parse(out.toString());
+    assertEquals("0 0 200 100", svg.getAttribute("viewBox"));
+    Element path = (Element) svg.getElementsByTagName("path").item(0);
+    assertEquals("M0,0L10,0L10,10", path.getAttribute("d"));
+    assertEquals("#102030", path.getAttribute("stroke"));
+    assertEquals("4", path.getAttribute("stroke-width"));
+    Element circle = (Element) svg.getElementsByTagName("circle").item(0);
+    assertEquals("50.5", circle.getAttribute("cx"));
+    assertEquals("20.25", circle.getAttribute("cy"));
+    assertEquals("0.5", circle.getAttribute("stroke-opacity"));
+    Element rect = (Element) svg.getElementsByTagName("rect").item(1);
+    assertEquals("10", rect.getAttribute("width"));
+    assertEquals("#00ff00", rect.getAttribute("fill"));
+  }
+
+  @Test
+  public void smoothsThroughMidpoints() throws Exception {
+    StringWriter out = new StringWriter();
+    SvgWriter writer = new SvgWriter(out);
+    writer.begin(10, 10);
+    writer.drawStroke(points(0, 0, 2, 2, 4, 0), true, 0xff000000, 1f);
+    writer.finish();
+    Element path = (Element) parse(out.toString()).getElementsByTagName("path").item(0);
+    assertEquals("M0,0Q0,0 1,1Q2,2 3,1L4,0", path.getAttribute("d"));
+  }
+
+  @Test
+  public void erasersMaskEarlierContentOnly() throws Exception {
+    StringWriter out = new StringWriter();
+    SvgWriter writer = new SvgWriter(out);
+    writer.begin(100, 100);
+    writer.defineEraser(points(0, 0, 5, 5), false, 10f);
+    writer.defineEraser(points(1, 1, 6, 6), false, 10f);
+    writer.drawStroke(points(0, 0, 1, 1), false, 0xff000000, 1f);
+    writer.applyEraser();
+    writer.drawStroke(points(2, 2, 3, 3), false, 0xff000000, 1f);
+    writer.applyEraser();
+    writer.drawStroke(points(4, 4, 5, 5), false, 0xff000000, 1f);
+    writer.finish();
+
+    Element svg = parse(out.toString());
+    assertEquals(2, svg.getElementsByTagName("mask").getLength());
+    NodeList paths = svg.getElementsByTagName("path");
+    // two eraser paths inside the masks, then the three drawn strokes
+    assertEquals("url(#e1)", ((Element) paths.item(2).getParentNode()).getAttribute("mask"));
+    assertEquals("url(#e2)", ((Element) paths.item(3).getParentNode()).getAttribute("mask"));
+    assertEquals("svg", ((Element) paths.item(4).getParentNode()).getTagName());
+    assertEquals("url(#e2)", ((Element) paths.item(2).getParentNode().getParentNode()).getAttribute("mask"));
+  }
+
+  @Test
+  public void rejectsErasersAfterDrawing() throws Exception {
+    SvgWriter writer = new SvgWriter(new StringWriter());
+    writer.begin(10, 10);
+    writer.drawCircle(1, 1, 1, 0xff000000, 1f, false);
+    try {
+      writer.defineEraser(points(0, 0, 1, 1), false, 1f);
+      fail();
+    } catch (IllegalStateException expected) {
+      writer.finish();
+    }
+  }
+
+  @Test
+  public void embedsImagesAsBase64() throws Exception {
+    StringWriter out = new StringWriter();
+    SvgWriter writer = new SvgWriter(out);
+    writer.begin(4, 2);
+    writer.drawImage(new byte[]{'M', 'a', 'n', 'M', 'a'});
+    writer.finish();
+    Element image = (Element) parse(out.toString()).getElementsByTagName("image").item(0);
+    assertEquals("4", image.getAttribute("width"));
+    assertEquals("data:image/png;base64,TWFuTWE=", image.getAttributeNS("http://www.w3.org/1999/xlink", "href"));
+  }
+
+  @Test
+  public void formatsNumbers() throws Exception {
+    StringWriter out = new StringWriter();
+    SvgWriter writer = new SvgWriter(out);
+    writer.writeNumber(0f);
+    out.write(' ');
+    writer.writeNumber(-3.5f);
+    out.write(' ');
+    writer.writeNumber(12.049f);
+    out.write(' ');
+    writer.writeNumber(0.05f);
+    out.write(' ');
+    writer.writeNumber(1234567f);
+    assertEquals("0 -3.5 12.05 0.05 1234567", out.toString());
+  }
+
+  private static StrokePoints points(float... coords) {
+    StrokePoints points = new StrokePoints();
+    for (int i = 0; i < coords.length; i += 2) {
+      points.add(coords[i], coords[i + 1]);
+    }
+    return points;
+  }
+
+  private static Element parse(String svg) throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(svg.getBytes("UTF-8")));
+    return document.getDocumentElement();
+  }
+}
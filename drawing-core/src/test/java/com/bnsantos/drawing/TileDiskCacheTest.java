@@ -0,0 +1,111 @@
+package com.bnsantos.drawing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileDiskCacheTest {
+  private static final int TILE_BYTES = 256*256*4;
+
+  private File mDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = File.createTempFile("tiles", "");
+    assertTrue(mDirectory.delete());
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = mDirectory.listFiles();
+    if(files!=null){
+      for (File file : files) {
+        assertTrue(file.delete());
+      }
+    }
+    assertTrue(mDirectory.delete());
+  }
+
+  @Test
+  public void readsBackWhatWasWritten() throws IOException {
+    TileDiskCache cache = new TileDiskCache(mDirectory);
+    byte[] pixels = new byte[TILE_BYTES];
+    new Random(7).nextBytes(pixels);
+    cache.write(-3L, pixels, pixels.length);
+
+    byte[] read = new byte[TILE_BYTES];
+    assertEquals(TILE_BYTES, cache.read(-3L, read));
+    assertArrayEquals(pixels, read);
+    assertEquals(-1, cache.read(4L, read));
+  }
+
+  @Test
+  public void compressesFlatTiles() throws IOException {
+    TileDiskCache cache = new TileDiskCache(mDirectory);
+    byte[] pixels = new byte[TILE_BYTES];
+    Arrays.fill(pixels, 0, TILE_BYTES/2, (byte) 0xff);
+    cache.write(1L, pixels, pixels.length);
+
+    assertEquals(1, cache.size());
+    assertTrue(cache.getByteCount()<TILE_BYTES/100);
+    byte[] read = new byte[TILE_BYTES];
+    cache.read(1L, read);
+    assertArrayEquals(pixels, read);
+  }
+
+  @Test
+  public void replacesAndRemovesTiles() throws IOException {
+    TileDiskCache cache = new TileDiskCache(mDirectory);
+    byte[] pixels = new byte[16];
+    cache.write(1L, pixels, pixels.length);
+    Arrays.fill(pixels, (byte) 2);
+    cache.write(1L, pixels, pixels.length);
+    cache.write(2L, pixels, pixels.length);
+    assertEquals(2, cache.size());
+
+    byte[] read = new byte[16];
+    cache.read(1L, read);
+    assertArrayEquals(pixels, read);
+
+    cache.remove(1L);
+    assertFalse(cache.contains(1L));
+    assertTrue(cache.contains(2L));
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getByteCount());
+    assertEquals(0, mDirectory.listFiles().length);
+  }
+
+  @Test
+  public void deletesTilesOfPreviousProcess() throws IOException {
+    new TileDiskCache(mDirectory).write(1L, new byte[16], 16);
+    TileDiskCache reopened = new TileDiskCache(mDirectory);
+    assertFalse(reopened.contains(1L));
+    assertEquals(0, mDirectory.listFiles().length);
+  }
+
+  @Test
+  public void rejectsCorruptedTiles() throws IOException {
+    TileDiskCache cache = new TileDiskCache(mDirectory);
+    cache.write(1L, new byte[TILE_BYTES], TILE_BYTES);
+    FileOutputStream out = new FileOutputStream(new File(mDirectory, "1.tile"));
+    out.write(new byte[]{0x54, 0x49, 0x4c, 0x45, 0, 1, 0, 0, 1, 2, 3});
+    out.close();
+    try {
+      cache.read(1L, new byte[TILE_BYTES]);
+      throw new AssertionError("Corrupted tile was read");
+    } catch (IOException expected){
+    }
+  }
+}
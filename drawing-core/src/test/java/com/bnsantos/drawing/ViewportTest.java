@@ -0,0 +1,95 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ViewportTest {
+  private static final float DELTA = 0.001f;
+
+  @Test
+  public void startsAtIdentity() {
+    Viewport viewport = viewport();
+    assertTrue(viewport.isIdentity());
+    Bounds visible = new Bounds();
+    viewport.getVisibleBounds(visible);
+    assertEquals(0f, visible.left, DELTA);
+    assertEquals(200f, visible.right, DELTA);
+    assertEquals(100f, visible.bottom, DELTA);
+  }
+
+  @Test
+  public void zoomKeepsTheFocusOverTheSamePoint() {
+    Viewport viewport = viewport();
+    viewport.zoom(2f, 50, 40);
+    assertEquals(2f, viewport.getScale(), DELTA);
+    assertEquals(50f, viewport.toDrawingX(50), DELTA);
+    assertEquals(40f, viewport.toDrawingY(40), DELTA);
+
+    Bounds bounds = new Bounds(10, 10, 20, 20);
+    viewport.toView(bounds);
+    viewport.toDrawing(bounds);
+    assertEquals(10f, bounds.left, DELTA);
+    assertEquals(20f, bounds.bottom, DELTA);
+  }
+
+  @Test
+  public void keepsTheContentInSight() {
+    Viewport viewport = viewport();
+    viewport.zoom(2f, 0, 0);
+    viewport.pan(1000, 1000);
+    assertEquals(0f, viewport.getTranslateX(), DELTA);
+    assertEquals(0f, viewport.getTranslateY(), DELTA);
+    viewport.pan(-1000, -1000);
+    assertEquals(-200f, viewport.getTranslateX(), DELTA);
+    assertEquals(-100f, viewport.getTranslateY(), DELTA);
+
+    // smaller than the view it is centered
+    viewport.zoom(0.25f, 0, 0);
+    assertEquals(0.5f, viewport.getScale(), DELTA);
+    assertEquals(50f, viewport.getTranslateX(), DELTA);
+    assertEquals(25f, viewport.getTranslateY(), DELTA);
+  }
+
+  @Test
+  public void unboundedPansAnywhere() {
+    Viewport viewport = viewport();
+    viewport.setBounded(false);
+    viewport.pan(-5000, 300);
+    assertEquals(-5000f, viewport.getTranslateX(), DELTA);
+    assertEquals(300f, viewport.getTranslateY(), DELTA);
+    Bounds visible = new Bounds();
+    viewport.getVisibleBounds(visible);
+    assertEquals(5000f, visible.left, DELTA);
+    assertEquals(-300f, visible.top, DELTA);
+
+    viewport.zoom(0.5f, 0, 0);
+    assertEquals(-2500f, viewport.getTranslateX(), DELTA);
+  }
+
+  @Test
+  public void clampsTheScaleAndBumpsTheVersion() {
+    Viewport viewport = viewport();
+    int version = viewport.getVersion();
+    viewport.zoom(100f, 0, 0);
+    assertEquals(8f, viewport.getScale(), DELTA);
+    viewport.zoom(0.001f, 0, 0);
+    assertEquals(0.5f, viewport.getScale(), DELTA);
+    assertTrue(viewport.getVersion()>version);
+
+    viewport.reset();
+    assertTrue(viewport.isIdentity());
+    viewport.pan(10, 0);
+    assertFalse(viewport.getVersion()==version);
+    assertTrue(viewport.isIdentity());
+  }
+
+  private Viewport viewport(){
+    Viewport viewport = new Viewport(0.5f, 8f);
+    viewport.setViewSize(200, 100);
+    viewport.setContentSize(200, 100);
+    return viewport;
+  }
+}
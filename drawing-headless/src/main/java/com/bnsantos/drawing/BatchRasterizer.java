@@ -0,0 +1,199 @@
+package com.bnsantos.drawing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rasterizes many saved sessions to PNG in parallel on a fork-join pool.
+ *
+ * The list of sessions is split in halves down to single sessions, so idle workers steal whatever is
+ * left whatever the mix of small and large drawings. A session that fails is reported and doesn't
+ * stop the others.
+ *
+ * Usage: BatchRasterizer [-j threads] [-background AARRGGBB] outputDir session|directory...
+ */
+public class BatchRasterizer {
+  private final SessionRasterizer mRasterizer;
+  private final ForkJoinPool mPool;
+
+  /**
+   * @param parallelism worker threads, one per core is the usual choice
+   */
+  public BatchRasterizer(SessionRasterizer rasterizer, int parallelism) {
+    mRasterizer = rasterizer;
+    mPool = new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Renders every session to outputDir, named after the session with a .png extension
+   */
+  public Report rasterize(List<File> sessions, File outputDir) {
+    Report report = new Report(mPool.getParallelism());
+    long start = System.nanoTime();
+    mPool.invoke(new RasterizeTask(sessions, 0, sessions.size(), outputDir, report));
+    report.mElapsedNanos = System.nanoTime() - start;
+    return report;
+  }
+
+  public void shutdown(){
+    mPool.shutdown();
+  }
+
+  static File outputFor(File session, File outputDir){
+    String name = session.getName();
+    int dot = name.lastIndexOf('.');
+    return new File(outputDir, (dot>0 ? name.substring(0, dot) : name) + ".png");
+  }
+
+  private class RasterizeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<File> sessions;
+    private final int from, to;
+    private final File outputDir;
+    private final Report report;
+
+    RasterizeTask(List<File> sessions, int from, int to, File outputDir, Report report) {
+      this.sessions = sessions;
+      this.from = from;
+      this.to = to;
+      this.outputDir = outputDir;
+      this.report = report;
+    }
+
+    @Override
+    protected void compute() {
+      if(to - from>1){
+        int middle = (from + to) >>> 1;
+        invokeAll(new RasterizeTask(sessions, from, middle, outputDir, report),
+            new RasterizeTask(sessions, middle, to, outputDir, report));
+        return;
+      }
+      File session = sessions.get(from);
+      try {
+        mRasterizer.rasterize(session, outputFor(session, outputDir));
+        report.mImages.incrementAndGet();
+      } catch (IOException | RuntimeException e) {
+        report.mFailures.put(session, e);
+      }
+    }
+  }
+
+  /**
+   * Outcome of a batch, throughput is measured over the wall clock time of the whole batch
+   */
+  public static class Report {
+    private final int mParallelism;
+    private final AtomicInteger mImages = new AtomicInteger();
+    private final Map<File, Exception> mFailures = new ConcurrentHashMap<>();
+    private long mElapsedNanos;
+
+    Report(int parallelism) {
+      mParallelism = parallelism;
+    }
+
+    public int getImages(){
+      return mImages.get();
+    }
+
+    public Map<File, Exception> getFailures(){
+      return Collections.unmodifiableMap(mFailures);
+    }
+
+    public long getElapsedNanos(){
+      return mElapsedNanos;
+    }
+
+    public int getParallelism(){
+      return mParallelism;
+    }
+
+    public double getImagesPerSecond(){
+      return mElapsedNanos>0 ? mImages.get()*1e9/mElapsedNanos : 0;
+    }
+
+    /**
+     * @return images per second divided by the worker count, cores the pool couldn't use are not counted
+     */
+    public double getImagesPerSecondPerCore(){
+      int cores = Math.min(mParallelism, Runtime.getRuntime().availableProcessors());
+      return getImagesPerSecond()/cores;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%d images, %d failed in %.2fs: %.1f images/s, %.1f images/s per core (%d threads)",
+          getImages(), mFailures.size(), mElapsedNanos/1e9, getImagesPerSecond(), getImagesPerSecondPerCore(), mParallelism);
+    }
+  }
+
+  public static void main(String[] args) {
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    SessionRasterizer rasterizer = new SessionRasterizer();
+    int arg = 0;
+    while (arg<args.length && args[arg].startsWith("-")){
+      if(args[arg].equals("-j") && arg + 1<args.length){
+        parallelism = Integer.parseInt(args[arg + 1]);
+      }else if(args[arg].equals("-background") && arg + 1<args.length){
+        rasterizer.setBackgroundColor((int) Long.parseLong(args[arg + 1], 16));
+      }else{
+        usage();
+        return;
+      }
+      arg += 2;
+    }
+    if(args.length - arg<2){
+      usage();
+      return;
+    }
+    File outputDir = new File(args[arg++]);
+    if(!outputDir.isDirectory() && !outputDir.mkdirs()){
+      System.err.println("Can't create " + outputDir);
+      System.exit(1);
+    }
+    List<File> sessions = new ArrayList<>();
+    for (; arg < args.length; arg++) {
+      File file = new File(args[arg]);
+      File[] children = file.listFiles();
+      if(children!=null){
+        Arrays.sort(children);
+        for (File child : children) {
+          if(child.isFile()){
+            sessions.add(child);
+          }
+        }
+      }else{
+        sessions.add(file);
+      }
+    }
+
+    BatchRasterizer batch = new BatchRasterizer(rasterizer, parallelism);
+    Report report;
+    try {
+      report = batch.rasterize(sessions, outputDir);
+    } finally {
+      batch.shutdown();
+    }
+    for (Map.Entry<File, Exception> failure : report.getFailures().entrySet()) {
+      System.err.println(failure.getKey() + ": " + failure.getValue());
+    }
+    System.out.println(report);
+    if(!report.getFailures().isEmpty()){
+      System.exit(1);
+    }
+  }
+
+  private static void usage(){
+    System.err.println("Usage: BatchRasterizer [-j threads] [-background AARRGGBB] outputDir session|directory...");
+  }
+}
@@ -0,0 +1,119 @@
+package com.bnsantos.drawing;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Draws the actions of the core model with Java2D, for rendering sessions off the device.
+ *
+ * Mirrors CanvasRenderer on Android: round caps and joins, antialiasing, smoothed strokes curving
+ * through the midpoints between samples and erasers clearing to transparent. Colors and strokes are
+ * created once per style and shared, so one instance is safe to use from several threads as long as
+ * each draws on its own Graphics2D.
+ */
+public class Java2DRenderer implements ActionRenderer<Graphics2D> {
+  private final StyleTable mStyles;
+  private final List<Style> mCache;
+
+  public Java2DRenderer(StyleTable styles) {
+    mStyles = styles;
+    mCache = new CopyOnWriteArrayList<>();
+  }
+
+  /**
+   * Turns on the rendering hints matching the device output, call once per Graphics2D
+   */
+  public static void prepare(Graphics2D graphics){
+    graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+  }
+
+  @Override
+  public void draw(Graphics2D graphics, Action action){
+    Shape shape;
+    if(action instanceof Stroke){
+      shape = buildPath((Stroke) action);
+    }else if(action instanceof Circle){
+      Circle circle = (Circle) action;
+      shape = new Ellipse2D.Float(circle.centerX - circle.radius, circle.centerY - circle.radius, circle.radius*2, circle.radius*2);
+    }else if(action instanceof Rectangle){
+      Rectangle rectangle = (Rectangle) action;
+      shape = new Rectangle2D.Float(rectangle.left(), rectangle.top(), rectangle.right() - rectangle.left(), rectangle.bottom() - rectangle.top());
+    }else{
+      throw new IllegalArgumentException("Can't draw " + action.getClass().getSimpleName());
+    }
+
+    Style style = getStyle(action.getStyleId());
+    Composite composite = graphics.getComposite();
+    if(style.erase){
+      graphics.setComposite(AlphaComposite.Clear);
+    }
+    graphics.setColor(style.color);
+    if(style.fill){
+      graphics.fill(shape);
+    }else{
+      graphics.setStroke(style.stroke);
+      graphics.draw(shape);
+    }
+    graphics.setComposite(composite);
+  }
+
+  /**
+   * Smoothed strokes curve through the midpoints between samples, using each sample as the control point.
+   */
+  public static Path2D.Float buildPath(Stroke stroke) {
+    StrokePoints points = stroke.points;
+    Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, points.size() + 1);
+    path.moveTo(points.getX(0), points.getY(0));
+    for (int i = 1; i < points.size(); i++) {
+      if(stroke.smooth){
+        float controlX = points.getX(i - 1);
+        float controlY = points.getY(i - 1);
+        path.quadTo(controlX, controlY, (controlX + points.getX(i))/2.0f, (controlY + points.getY(i))/2.0f);
+      }else{
+        path.lineTo(points.getX(i), points.getY(i));
+      }
+    }
+    if(stroke.smooth && points.size()>1){
+      path.lineTo(points.getLastX(), points.getLastY());
+    }
+    return path;
+  }
+
+  private Style getStyle(int id){
+    if(id<mCache.size()){
+      return mCache.get(id);
+    }
+    synchronized (mCache){
+      while (mCache.size()<=id){
+        int next = mCache.size();
+        mCache.add(new Style(mStyles.getColor(next), mStyles.getWidth(next), mStyles.isFill(next), mStyles.isErase(next)));
+      }
+      return mCache.get(id);
+    }
+  }
+
+  private static class Style {
+    final Color color;
+    final BasicStroke stroke;
+    final boolean fill;
+    final boolean erase;
+
+    Style(int color, float width, boolean fill, boolean erase) {
+      this.color = new Color(color, true);
+      this.stroke = new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+      this.fill = fill;
+      this.erase = erase;
+    }
+  }
+}
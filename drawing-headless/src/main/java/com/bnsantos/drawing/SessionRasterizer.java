@@ -0,0 +1,184 @@
+package com.bnsantos.drawing;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders saved sessions to images on the JVM, without a device.
+ *
+ * The actions of each visible layer are replayed with a {@link Java2DRenderer} over the layer's base
+ * on its own transparent image, so erasers only clear that layer, which is then composed with its
+ * opacity over the layers below. The result goes over the background color and the image the session
+ * was drawn on, when there are any. Keeps no state between sessions, one
+ * instance can rasterize from several threads once configured.
+ */
+public class SessionRasterizer {
+  private static final int BUFFER_SIZE = 64*1024;
+
+  private Integer mBackgroundColor;
+  private BackgroundLoader mBackgroundLoader;
+
+  /**
+   * @param color painted under everything else, null to keep the output transparent
+   */
+  public void setBackgroundColor(Integer color){
+    mBackgroundColor = color;
+  }
+
+  /**
+   * @param loader resolves the background reference saved with each session, null to ignore it
+   */
+  public void setBackgroundLoader(BackgroundLoader loader){
+    mBackgroundLoader = loader;
+  }
+
+  /**
+   * @return ARGB image the size of the view the session was drawn in
+   */
+  public BufferedImage render(ReadableByteChannel session) throws IOException {
+    StyleTable styles = new StyleTable();
+    SessionRestorer restorer = new SessionRestorer(styles);
+    new SessionReader(session).read(restorer);
+    int width = restorer.getWidth();
+    int height = restorer.getHeight();
+
+    Java2DRenderer renderer = new Java2DRenderer(styles);
+    LayerStack layers = restorer.getLayers();
+    BufferedImage drawing = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    // a single opaque layer needs no composing, it is drawn straight away
+    boolean direct = layers.size()==1 && layers.get(0).getOpacity()>=1f;
+    BufferedImage layerImage = direct ? drawing : new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    for (int i = 0; i < layers.size(); i++) {
+      Layer layer = layers.get(i);
+      if(!layer.isVisible()){
+        continue;
+      }
+      if(!direct){
+        clear(layerImage);
+      }
+      renderLayer(layerImage, layer, restorer.getBaseLayer(i), renderer);
+      if(!direct){
+        compose(drawing, layerImage, layer.getOpacity());
+      }
+    }
+
+    BufferedImage background = null;
+    if(mBackgroundLoader!=null && restorer.getBackground()!=null){
+      background = mBackgroundLoader.load(restorer.getBackground());
+    }
+    if(mBackgroundColor==null && background==null){
+      return drawing;
+    }
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = image.createGraphics();
+    try {
+      if(mBackgroundColor!=null){
+        graphics.setColor(new Color(mBackgroundColor, true));
+        graphics.fillRect(0, 0, width, height);
+      }
+      if(background!=null){
+        // the view scales the picture to fill the drawing area
+        graphics.drawImage(background, 0, 0, width, height, null);
+      }
+      graphics.drawImage(drawing, 0, 0, null);
+    } finally {
+      graphics.dispose();
+    }
+    return image;
+  }
+
+  /**
+   * Replays the layer's actions over its base layer, erasers clear only what this layer holds
+   */
+  private static void renderLayer(BufferedImage image, Layer layer, byte[] baseLayer, Java2DRenderer renderer) throws IOException {
+    Graphics2D graphics = image.createGraphics();
+    try {
+      Java2DRenderer.prepare(graphics);
+      if(baseLayer!=null){
+        BufferedImage base = ImageIO.read(new ByteArrayInputStream(baseLayer));
+        if(base==null){
+          throw new IOException("Can't decode the base layer");
+        }
+        graphics.drawImage(base, 0, 0, null);
+      }
+      for (Action action : layer.getHistory().getActions()) {
+        renderer.draw(graphics, action);
+      }
+    } finally {
+      graphics.dispose();
+    }
+  }
+
+  private static void compose(BufferedImage target, BufferedImage layer, float opacity){
+    Graphics2D graphics = target.createGraphics();
+    try {
+      graphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+      graphics.drawImage(layer, 0, 0, null);
+    } finally {
+      graphics.dispose();
+    }
+  }
+
+  private static void clear(BufferedImage image){
+    Arrays.fill(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0);
+  }
+
+  /**
+   * Renders the session file to a PNG file, opaque when there is a background color
+   */
+  public void rasterize(File session, File png) throws IOException {
+    BufferedImage image;
+    FileInputStream in = new FileInputStream(session);
+    try {
+      image = render(in.getChannel());
+    } finally {
+      in.close();
+    }
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(png), BUFFER_SIZE);
+    try {
+      writePng(image, out, mBackgroundColor==null || (mBackgroundColor>>>24)!=0xff);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Streams an image rendered by {@link #render(ReadableByteChannel)} through a {@link PngWriter},
+   * straight from its pixel array
+   */
+  public static void writePng(BufferedImage image, OutputStream out, boolean alpha) throws IOException {
+    int width = image.getWidth();
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    PngWriter writer = new PngWriter(out, width, image.getHeight(), alpha);
+    try {
+      for (int y = 0; y < image.getHeight(); y++) {
+        writer.writeRow(pixels, y*width);
+      }
+      writer.finish();
+    } finally {
+      writer.close();
+    }
+  }
+
+  public interface BackgroundLoader {
+    /**
+     * @param reference background reference the session was saved with
+     * @return the image, or null to render without it
+     */
+    BufferedImage load(String reference) throws IOException;
+  }
+}
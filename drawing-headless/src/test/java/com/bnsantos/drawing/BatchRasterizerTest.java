@@ -0,0 +1,56 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchRasterizerTest {
+
+  @Test
+  public void rasterizesSessionsInParallelAndReportsFailures() throws Exception {
+    File dir = File.createTempFile("batch", "");
+    assertTrue(dir.delete() && dir.mkdir());
+    byte[] session = SessionRasterizerTest.session();
+    List<File> sessions = new ArrayList<>();
+    for (int i = 0; i < 9; i++) {
+      sessions.add(write(new File(dir, "session" + i + ".bin"), session));
+    }
+    File damaged = write(new File(dir, "damaged.bin"), new byte[]{1, 2, 3});
+    sessions.add(damaged);
+
+    BatchRasterizer batch = new BatchRasterizer(new SessionRasterizer(), 3);
+    BatchRasterizer.Report report;
+    try {
+      report = batch.rasterize(sessions, dir);
+    } finally {
+      batch.shutdown();
+    }
+
+    assertEquals(9, report.getImages());
+    assertEquals(1, report.getFailures().size());
+    assertTrue(report.getFailures().containsKey(damaged));
+    assertEquals(3, report.getParallelism());
+    assertTrue(report.getImagesPerSecondPerCore()>0);
+    assertNotNull(ImageIO.read(new File(dir, "session4.png")));
+  }
+
+  private static File write(File file, byte[] data) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+}
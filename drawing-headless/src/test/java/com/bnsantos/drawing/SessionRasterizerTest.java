@@ -0,0 +1,88 @@
+package com.bnsantos.drawing;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class SessionRasterizerTest {
+  private static final int RED = 0xffff0000;
+
+  @Test
+  public void replaysActionsAndErasersOverATransparentLayer() throws Exception {
+    BufferedImage image = new SessionRasterizer().render(Channels.newChannel(new ByteArrayInputStream(session())));
+    assertEquals(100, image.getWidth());
+    assertEquals(80, image.getHeight());
+    assertEquals(RED, image.getRGB(20, 20));
+    assertEquals(0, image.getRGB(50, 40) >>> 24);
+    assertEquals(0, image.getRGB(90, 70) >>> 24);
+  }
+
+  @Test
+  public void composesOverBackgroundColorAndImage() throws Exception {
+    SessionRasterizer rasterizer = new SessionRasterizer();
+    rasterizer.setBackgroundColor(0xffffffff);
+    rasterizer.setBackgroundLoader(new SessionRasterizer.BackgroundLoader() {
+      @Override
+      public BufferedImage load(String reference) throws IOException {
+        assertEquals("picture", reference);
+        BufferedImage picture = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        picture.setRGB(9, 9, 0xff0000ff);
+        return picture;
+      }
+    });
+    BufferedImage image = rasterizer.render(Channels.newChannel(new ByteArrayInputStream(session())));
+    assertEquals(RED, image.getRGB(20, 20));
+    assertEquals(0xffffffff, image.getRGB(50, 40));
+    // the eraser clears the drawing, not the picture under it
+    assertEquals(0xff0000ff, image.getRGB(95, 75));
+  }
+
+  @Test
+  public void writesRenderedImageAsPng() throws Exception {
+    BufferedImage image = new SessionRasterizer().render(Channels.newChannel(new ByteArrayInputStream(session())));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SessionRasterizer.writePng(image, out, true);
+
+    BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    assertNotNull(decoded);
+    assertEquals(100, decoded.getWidth());
+    assertEquals(RED, decoded.getRGB(20, 20));
+    assertEquals(0, decoded.getRGB(90, 70) >>> 24);
+  }
+
+  /**
+   * Red filled rectangle over the whole view, with an eraser stroke across its middle and a square
+   * erased in the bottom right corner
+   */
+  static byte[] session() throws IOException {
+    StyleTable styles = new StyleTable();
+    int fill = styles.intern(RED, 1f, true, false);
+    int eraser = styles.intern(0, 10f, false, true);
+    int block = styles.intern(0, 1f, true, true);
+    DrawingHistory history = new DrawingHistory();
+    Rectangle rectangle = new Rectangle(styles, fill, 0, 0);
+    rectangle.setFinalPoint(100, 80);
+    history.add(rectangle);
+    Stroke stroke = new Stroke(styles, eraser, true);
+    stroke.start(30, 40, 0);
+    stroke.addPoint(50, 40, 1);
+    stroke.addPoint(70, 40, 2);
+    history.add(stroke);
+    Rectangle corner = new Rectangle(styles, block, 80, 60);
+    corner.setFinalPoint(100, 80);
+    history.add(corner);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DrawingSession.write(new SessionWriter(Channels.newChannel(out)), 100, 80, "picture", null, styles, history);
+    return out.toByteArray();
+  }
+}